@@ -0,0 +1,170 @@
+package com.github.gepi.filestorage.benchmark;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+/**
+ * File systems and synthetic trees for the benchmarks.
+ * <p>
+ * {@code disk} trees are created under {@code -Dbenchmark.dir} (the system temporary directory by
+ * default, point it to a tmpfs mount to take the device out of the picture) and reused between
+ * runs, since creating a million files takes longer than measuring. {@code jimfs} trees live in
+ * the heap of the benchmark JVM and are rebuilt for every trial.
+ */
+final class BenchmarkFiles {
+    static final String DISK = "disk";
+    static final String JIMFS = "jimfs";
+    static final int FILES_PER_DIRECTORY = 100;
+    static final int FILES_PER_DEEP_DIRECTORY = 10;
+    private static final String COMPLETE_MARKER = ".complete";
+    private static final byte[] FILE_CONTENT = new byte[16];
+
+    private BenchmarkFiles() {
+    }
+
+    static FileSystem openFileSystem(String kind) {
+        return switch (kind) {
+            case DISK -> FileSystems.getDefault();
+            case JIMFS -> Jimfs.newFileSystem(Configuration.unix());
+            default -> throw new IllegalArgumentException("Unknown file system " + kind);
+        };
+    }
+
+    static void closeFileSystem(FileSystem fileSystem) throws IOException {
+        if (fileSystem != FileSystems.getDefault()) {
+            fileSystem.close();
+        }
+    }
+
+    static Path baseDirectory(FileSystem fileSystem) throws IOException {
+        Path base = fileSystem == FileSystems.getDefault()
+                ? Path.of(System.getProperty("benchmark.dir", System.getProperty("java.io.tmpdir")), "filestorage-benchmarks")
+                : fileSystem.getPath("/filestorage-benchmarks");
+        return Files.createDirectories(base);
+    }
+
+    /**
+     * A tree of {@code fileCount} small files in the given layout:
+     * <ul>
+     *     <li>{@code flat} - all files in a single directory;</li>
+     *     <li>{@code wide} - {@value #FILES_PER_DIRECTORY} files per leaf directory, leaf directories
+     *     grouped {@value #FILES_PER_DIRECTORY} per parent;</li>
+     *     <li>{@code deep} - a binary tree of directories holding {@value #FILES_PER_DEEP_DIRECTORY}
+     *     files each, about 17 levels for a million files.</li>
+     * </ul>
+     */
+    static Path tree(FileSystem fileSystem, String layout, int fileCount) throws IOException {
+        Path root = baseDirectory(fileSystem).resolve(layout + "-" + fileCount);
+        Path marker = root.resolveSibling(root.getFileName() + COMPLETE_MARKER);
+        if (Files.exists(marker)) {
+            return root;
+        }
+        switch (layout) {
+            case "flat" -> createFlatTree(root, fileCount);
+            case "wide" -> createWideTree(root, fileCount);
+            case "deep" -> createDeepTree(root, fileCount);
+            default -> throw new IllegalArgumentException("Unknown layout " + layout);
+        }
+        Files.createFile(marker);
+        return root;
+    }
+
+    /**
+     * Creates a fresh copy of a {@code wide} tree under the given directory, for benchmarks that destroy it.
+     */
+    static void createWideTree(Path root, int fileCount) throws IOException {
+        for (int i = 0; i < fileCount; i++) {
+            int leaf = i / FILES_PER_DIRECTORY;
+            Path directory = root.resolve("d" + leaf / FILES_PER_DIRECTORY).resolve("d" + leaf % FILES_PER_DIRECTORY);
+            if (i % FILES_PER_DIRECTORY == 0) {
+                Files.createDirectories(directory);
+            }
+            Files.write(directory.resolve("f" + i % FILES_PER_DIRECTORY), FILE_CONTENT);
+        }
+    }
+
+    /**
+     * Creates a binary tree of {@code directoryCount} empty directories.
+     */
+    static void createEmptyDeepTree(Path root, int directoryCount) throws IOException {
+        createBinaryTree(root, directoryCount, 0);
+    }
+
+    /**
+     * The directory of a binary tree of {@code directoryCount} directories that was created last,
+     * one of the deepest.
+     */
+    static Path lastDirectory(Path root, int directoryCount) {
+        Path directory = root;
+        String path = Integer.toBinaryString(directoryCount);
+        for (int i = 1; i < path.length(); i++) {
+            directory = directory.resolve(path.charAt(i) == '0' ? "l" : "r");
+        }
+        return directory;
+    }
+
+    /**
+     * An input stream of {@code size} pseudo-random bytes that does not hold them in memory.
+     */
+    static InputStream content(long size) {
+        byte[] pattern = new byte[64 * 1024];
+        new Random(size).nextBytes(pattern);
+        return new InputStream() {
+            private long position;
+
+            @Override
+            public int read() {
+                return position < size ? pattern[(int) (position++ % pattern.length)] & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                if (position >= size) {
+                    return -1;
+                }
+                int patternOffset = (int) (position % pattern.length);
+                int count = (int) Math.min(Math.min(length, pattern.length - patternOffset), size - position);
+                System.arraycopy(pattern, patternOffset, buffer, offset, count);
+                position += count;
+                return count;
+            }
+        };
+    }
+
+    private static void createFlatTree(Path root, int fileCount) throws IOException {
+        Files.createDirectories(root);
+        for (int i = 0; i < fileCount; i++) {
+            Files.write(root.resolve("f" + i), FILE_CONTENT);
+        }
+    }
+
+    private static void createDeepTree(Path root, int fileCount) throws IOException {
+        createBinaryTree(root, (fileCount + FILES_PER_DEEP_DIRECTORY - 1) / FILES_PER_DEEP_DIRECTORY, fileCount);
+    }
+
+    private static void createBinaryTree(Path root, int directoryCount, int fileCount) throws IOException {
+        Deque<Path> queue = new ArrayDeque<>();
+        queue.add(root);
+        int created = 0;
+        int files = 0;
+        while (created < directoryCount) {
+            Path directory = Files.createDirectories(queue.remove());
+            created++;
+            for (int i = 0; i < FILES_PER_DEEP_DIRECTORY && files < fileCount; i++, files++) {
+                Files.write(directory.resolve("f" + i), FILE_CONTENT);
+            }
+            queue.add(directory.resolve("l"));
+            queue.add(directory.resolve("r"));
+        }
+    }
+}
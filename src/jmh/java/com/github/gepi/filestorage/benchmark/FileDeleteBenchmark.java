@@ -0,0 +1,81 @@
+package com.github.gepi.filestorage.benchmark;
+
+import com.github.gepi.filestorage.exception.DirectoryIsNotEmpty;
+import com.github.gepi.filestorage.service.FileService;
+import com.github.gepi.filestorage.service.FileServiceImpl;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removal of a large subtree: hardDelete of a tree of files and delete of a tree of empty
+ * directories, which has to make sure there is no file in it first, both when it succeeds and
+ * when a single file deep in the tree makes it fail. The subtrees are recreated before every
+ * invocation, so each one is timed on its own.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FileDeleteBenchmark {
+    @Param({"1000", "10000", "100000"})
+    private int entryCount;
+
+    @Param({BenchmarkFiles.DISK, BenchmarkFiles.JIMFS})
+    private String fileSystemKind;
+
+    private FileSystem fileSystem;
+    private Path root;
+    private FileService fileService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fileSystem = BenchmarkFiles.openFileSystem(fileSystemKind);
+        root = Files.createDirectories(BenchmarkFiles.baseDirectory(fileSystem).resolve("delete"));
+        fileService = new FileServiceImpl(root);
+    }
+
+    @Setup(Level.Invocation)
+    public void createSubtrees() throws IOException {
+        FileSystemUtils.deleteRecursively(root.resolve("files"));
+        FileSystemUtils.deleteRecursively(root.resolve("empty"));
+        FileSystemUtils.deleteRecursively(root.resolve("notEmpty"));
+        BenchmarkFiles.createWideTree(root.resolve("files"), entryCount);
+        BenchmarkFiles.createEmptyDeepTree(root.resolve("empty"), entryCount);
+        BenchmarkFiles.createEmptyDeepTree(root.resolve("notEmpty"), entryCount);
+        Files.write(BenchmarkFiles.lastDirectory(root.resolve("notEmpty"), entryCount).resolve("f"), new byte[16]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(root);
+        BenchmarkFiles.closeFileSystem(fileSystem);
+    }
+
+    @Benchmark
+    public void hardDeleteFiles() throws IOException {
+        fileService.hardDelete("/files");
+    }
+
+    @Benchmark
+    public void deleteEmptyDirectories() throws IOException {
+        fileService.delete("/empty");
+    }
+
+    @Benchmark
+    public boolean deleteRejected() throws IOException {
+        try {
+            fileService.delete("/notEmpty");
+            return true;
+        } catch (DirectoryIsNotEmpty e) {
+            return false;
+        }
+    }
+}
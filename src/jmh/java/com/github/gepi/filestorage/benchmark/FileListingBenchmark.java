@@ -0,0 +1,80 @@
+package com.github.gepi.filestorage.benchmark;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.service.FileService;
+import com.github.gepi.filestorage.service.FileServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Recursive listing of a whole tree: the former Files.walk implementation against the
+ * walkFileTree based one, sequential and on a fork-join pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FileListingBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    private int fileCount;
+
+    @Param({"flat", "wide", "deep"})
+    private String layout;
+
+    @Param({BenchmarkFiles.DISK, BenchmarkFiles.JIMFS})
+    private String fileSystemKind;
+
+    private FileSystem fileSystem;
+    private Path root;
+    private FileService fileService;
+    private FileService parallelFileService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fileSystem = BenchmarkFiles.openFileSystem(fileSystemKind);
+        root = BenchmarkFiles.tree(fileSystem, layout, fileCount);
+        fileService = new FileServiceImpl(root);
+        parallelFileService = new FileServiceImpl(root, Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFiles.closeFileSystem(fileSystem);
+    }
+
+    @Benchmark
+    public List<FileInfo> filesWalk() throws IOException {
+        try (Stream<Path> pathStream = Files.walk(root)) {
+            return pathStream.filter(Files::isRegularFile)
+                    .map(path -> new FileInfo(root.relativize(path), sizeOf(path)))
+                    .toList();
+        }
+    }
+
+    @Benchmark
+    public List<FileInfo> walkFileTree() {
+        return fileService.getFileList("/", true);
+    }
+
+    @Benchmark
+    public List<FileInfo> walkParallel() {
+        return parallelFileService.getFileList("/", true);
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.gepi.filestorage.benchmark;
+
+import com.github.gepi.filestorage.service.FileService;
+import com.github.gepi.filestorage.service.FileServiceImpl;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming save of a single file, overwriting the same target on every invocation.
+ * The 1GB case needs as much free heap as the file size on Jimfs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FileSaveBenchmark {
+    @Param({"1024", "1048576", "104857600", "1073741824"})
+    private long fileSize;
+
+    @Param({BenchmarkFiles.DISK, BenchmarkFiles.JIMFS})
+    private String fileSystemKind;
+
+    private FileSystem fileSystem;
+    private Path root;
+    private FileService fileService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fileSystem = BenchmarkFiles.openFileSystem(fileSystemKind);
+        root = Files.createDirectories(BenchmarkFiles.baseDirectory(fileSystem).resolve("save"));
+        fileService = new FileServiceImpl(root);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(root);
+        BenchmarkFiles.closeFileSystem(fileSystem);
+    }
+
+    @Benchmark
+    public Path save() throws IOException {
+        return fileService.save(BenchmarkFiles.content(fileSize), "/dir", "file.bin");
+    }
+}
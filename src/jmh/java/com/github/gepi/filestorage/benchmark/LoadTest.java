@@ -0,0 +1,158 @@
+package com.github.gepi.filestorage.benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP load against a running server: every client issues one request after another, mixing
+ * deep listings of a prepared tree with small uploads and downloads, so one can see whether
+ * the listings crowd the other requests out. Reports throughput and latencies per request kind.
+ * <p>
+ * Arguments: base URL, number of clients, measurement seconds, files in the listed tree.
+ */
+public class LoadTest {
+    private static final int LIST_PERCENT = 10;
+    private static final int UPLOAD_PERCENT = 45;
+    private static final int PAYLOAD_SIZE = 4096;
+    private static final int WARMUP_SECONDS = 10;
+    private static final int SETUP_CONCURRENCY = 64;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+    private final String baseUrl;
+    private final byte[] payload = new byte[PAYLOAD_SIZE];
+    private volatile Stats list = new Stats();
+    private volatile Stats upload = new Stats();
+    private volatile Stats download = new Stats();
+    private volatile long deadlineNanos;
+
+    private LoadTest(String baseUrl) {
+        this.baseUrl = baseUrl;
+        ThreadLocalRandom.current().nextBytes(payload);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int treeFiles = args.length > 3 ? Integer.parseInt(args[3]) : 5000;
+
+        LoadTest loadTest = new LoadTest(baseUrl);
+        loadTest.prepare(treeFiles);
+        loadTest.run(clients, WARMUP_SECONDS);
+        loadTest.list = new Stats();
+        loadTest.upload = new Stats();
+        loadTest.download = new Stats();
+        loadTest.run(clients, seconds);
+
+        System.out.printf("%d clients, %d s%n", clients, seconds);
+        System.out.printf("%-10s %10s %10s %10s %10s %10s %10s%n", "request", "count", "req/s", "rejected", "errors", "p50 ms", "p99 ms");
+        loadTest.list.print("list", seconds);
+        loadTest.upload.print("upload", seconds);
+        loadTest.download.print("download", seconds);
+    }
+
+    private void prepare(int treeFiles) {
+        List<CompletableFuture<?>> inFlight = new ArrayList<>();
+        for (int i = 0; i < treeFiles; i++) {
+            inFlight.add(client.sendAsync(put("/files/loadtest/tree/dir" + i % 100 + "/file" + i + ".txt"),
+                    HttpResponse.BodyHandlers.discarding()));
+            if (inFlight.size() == SETUP_CONCURRENCY) {
+                CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new)).join();
+                inFlight.clear();
+            }
+        }
+        inFlight.add(client.sendAsync(put("/files/loadtest/download.bin"), HttpResponse.BodyHandlers.discarding()));
+        CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new)).join();
+    }
+
+    private void run(int clients, int seconds) {
+        deadlineNanos = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+        CompletableFuture<?>[] clientFutures = new CompletableFuture[clients];
+        for (int i = 0; i < clients; i++) {
+            clientFutures[i] = next(i);
+        }
+        CompletableFuture.allOf(clientFutures).join();
+    }
+
+    /**
+     * Sends the client's next request once the previous one is answered, until the deadline.
+     */
+    private CompletableFuture<Void> next(int clientId) {
+        if (System.nanoTime() - deadlineNanos >= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        int dice = ThreadLocalRandom.current().nextInt(100);
+        HttpRequest request;
+        Stats stats;
+        if (dice < LIST_PERCENT) {
+            request = HttpRequest.newBuilder(URI.create(baseUrl + "/list/loadtest/tree")).GET().build();
+            stats = list;
+        } else if (dice < LIST_PERCENT + UPLOAD_PERCENT) {
+            request = put("/files/loadtest/uploads/client" + clientId + ".bin");
+            stats = upload;
+        } else {
+            request = HttpRequest.newBuilder(URI.create(baseUrl + "/download/loadtest/download.bin")).GET().build();
+            stats = download;
+        }
+        long start = System.nanoTime();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, failure) -> {
+                    stats.record(response == null ? -1 : response.statusCode(), System.nanoTime() - start);
+                    return null;
+                })
+                .thenCompose(ignored -> next(clientId));
+    }
+
+    private HttpRequest put(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(payload))
+                .build();
+    }
+
+    private static final class Stats {
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final List<Long> latencies = new ArrayList<>();
+
+        private void record(int statusCode, long latencyNanos) {
+            if (statusCode == 503) {
+                rejected.increment();
+            } else if (statusCode != 200) {
+                errors.increment();
+            } else {
+                synchronized (latencies) {
+                    latencies.add(latencyNanos);
+                }
+            }
+        }
+
+        private void print(String name, int seconds) {
+            long[] sorted;
+            synchronized (latencies) {
+                sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+            }
+            Arrays.sort(sorted);
+            System.out.printf("%-10s %10d %10.1f %10d %10d %10.1f %10.1f%n", name, sorted.length, (double) sorted.length / seconds,
+                    rejected.sum(), errors.sum(), percentile(sorted, 0.5), percentile(sorted, 0.99));
+        }
+
+        private static double percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return Double.NaN;
+            }
+            return sorted[(int) Math.min(sorted.length - 1, Math.round(quantile * (sorted.length - 1)))] / 1e6;
+        }
+    }
+}
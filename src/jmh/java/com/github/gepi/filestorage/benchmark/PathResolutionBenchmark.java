@@ -0,0 +1,55 @@
+package com.github.gepi.filestorage.benchmark;
+
+import com.github.gepi.filestorage.service.FileServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normalization and boundary check of request paths, done on every operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathResolutionBenchmark {
+    @Param({"file.txt", "a/b/c/d/e/f/g/h/file.txt", "a/./b/../b/c/./../c/file.txt"})
+    private String requestPath;
+
+    @Param({BenchmarkFiles.DISK, BenchmarkFiles.JIMFS})
+    private String fileSystemKind;
+
+    private FileSystem fileSystem;
+    private ResolvingFileService fileService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fileSystem = BenchmarkFiles.openFileSystem(fileSystemKind);
+        fileService = new ResolvingFileService(BenchmarkFiles.baseDirectory(fileSystem));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFiles.closeFileSystem(fileSystem);
+    }
+
+    @Benchmark
+    public Path getAbsoluteResolvedWithRoot() {
+        return fileService.resolve(requestPath);
+    }
+
+    private static final class ResolvingFileService extends FileServiceImpl {
+        private ResolvingFileService(Path root) {
+            super(root);
+        }
+
+        private Path resolve(String requestPath) {
+            return getAbsoluteResolvedWithRoot(requestPath);
+        }
+    }
+}
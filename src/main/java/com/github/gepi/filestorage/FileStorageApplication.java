@@ -1,20 +1,248 @@
 package com.github.gepi.filestorage;
 
+import com.github.gepi.filestorage.service.BatchService;
+import com.github.gepi.filestorage.service.BatchServiceImpl;
+import com.github.gepi.filestorage.service.BlobStore;
+import com.github.gepi.filestorage.service.BulkheadFileService;
+import com.github.gepi.filestorage.service.CachingFileService;
+import com.github.gepi.filestorage.service.ChangeJournal;
+import com.github.gepi.filestorage.service.ChangeJournalImpl;
+import com.github.gepi.filestorage.service.ChecksumScrubber;
+import com.github.gepi.filestorage.service.DeduplicatingFileService;
+import com.github.gepi.filestorage.service.DeleteJobService;
+import com.github.gepi.filestorage.service.DeleteJobServiceImpl;
+import com.github.gepi.filestorage.service.FileArchiver;
 import com.github.gepi.filestorage.service.FileService;
 import com.github.gepi.filestorage.service.FileServiceImpl;
+import com.github.gepi.filestorage.service.GzipCompression;
+import com.github.gepi.filestorage.service.IndexedFileService;
+import com.github.gepi.filestorage.service.JournalingFileService;
+import com.github.gepi.filestorage.service.MeteredFileService;
+import com.github.gepi.filestorage.service.ShardedFileService;
+import com.github.gepi.filestorage.service.UploadAdmission;
+import com.github.gepi.filestorage.service.UploadSessionService;
+import com.github.gepi.filestorage.service.UploadSessionServiceImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 @SpringBootApplication
+@EnableScheduling
 public class FileStorageApplication {
     public static void main(String[] args) {
         SpringApplication.run(FileStorageApplication.class, args);
     }
 
     @Bean
-    public FileService createFileServiceBean(@Value("${fileService.rootAbsolutePath}") String rootAbsolutePathString) {
-        return new FileServiceImpl(rootAbsolutePathString);
+    @Primary
+    public FileService createFileServiceBean(@Value("${fileService.rootAbsolutePath}") String rootAbsolutePathString,
+                                             @Value("${fileService.index.enabled}") boolean indexEnabled,
+                                             @Value("${fileService.index.watch}") boolean indexWatch,
+                                             @Value("${fileService.list.parallelism}") int listingParallelism,
+                                             @Value("${fileService.checksums.enabled}") boolean checksumsEnabled,
+                                             @Value("${fileService.uploadAdmission.enabled}") boolean admissionEnabled,
+                                             @Value("${fileService.uploadAdmission.maxWriters}") int maxWriters,
+                                             @Value("${fileService.uploadAdmission.minFreeSpace}") long minFreeSpace,
+                                             @Value("${fileService.bulkhead.list}") int listLimit,
+                                             @Value("${fileService.bulkhead.save}") int saveLimit,
+                                             @Value("${fileService.bulkhead.load}") int loadLimit,
+                                             @Value("${fileService.bulkhead.delete}") int deleteLimit,
+                                             @Value("${fileService.bulkhead.maxWait}") Duration bulkheadMaxWait,
+                                             @Value("${fileService.cache.enabled}") boolean cacheEnabled,
+                                             @Value("${fileService.cache.maxSize}") long cacheMaxSize,
+                                             @Value("${fileService.cache.maxFileSize}") int cacheMaxFileSize,
+                                             @Value("${fileService.cache.maxAge}") Duration cacheMaxAge,
+                                             ObjectProvider<BlobStore> blobStoreProvider,
+                                             ObjectProvider<GzipCompression> compressionProvider,
+                                             ObjectProvider<ShardedFileService> shardedFileServiceProvider,
+                                             ObjectProvider<ChangeJournal> changeJournalProvider,
+                                             MeterRegistry meterRegistry) throws IOException {
+        FileService fileService = shardedFileServiceProvider.getIfAvailable();
+        if (fileService == null) {
+            Path rootAbsolutePath = Path.of(rootAbsolutePathString);
+            fileService = createStorageFileService(rootAbsolutePath, indexEnabled, indexWatch,
+                    listingParallelism, blobStoreProvider.getIfAvailable(), compressionProvider.getIfAvailable(), checksumsEnabled,
+                    createUploadAdmission(admissionEnabled, rootAbsolutePath, maxWriters, minFreeSpace), meterRegistry);
+        }
+        ChangeJournal changeJournal = changeJournalProvider.getIfAvailable();
+        if (changeJournal != null) {
+            fileService = new JournalingFileService(fileService, changeJournal);
+        }
+        BulkheadFileService.Limits limits = new BulkheadFileService.Limits(listLimit, saveLimit, loadLimit, deleteLimit);
+        fileService = new BulkheadFileService(fileService, limits, bulkheadMaxWait);
+        if (cacheEnabled) {
+            CachingFileService cachingFileService = new CachingFileService(fileService, cacheMaxSize, cacheMaxFileSize, cacheMaxAge);
+            cachingFileService.bindTo(meterRegistry);
+            fileService = cachingFileService;
+        }
+        return new MeteredFileService(fileService, meterRegistry);
+    }
+
+    /**
+     * Deduplicating storage takes precedence over the listing index, the two are not combined.
+     * Blobs are stored uncompressed and without checksums, so compression, checksums and upload
+     * admission apply only without deduplication.
+     */
+    private static FileService createStorageFileService(Path rootAbsolutePath, boolean indexEnabled, boolean indexWatch,
+                                                        int listingParallelism, BlobStore blobStore,
+                                                        GzipCompression compression, boolean checksumsEnabled,
+                                                        UploadAdmission admission, MeterRegistry meterRegistry) throws IOException {
+        if (blobStore != null) {
+            return new DeduplicatingFileService(rootAbsolutePath, blobStore);
+        }
+        if (!indexEnabled) {
+            return new FileServiceImpl(rootAbsolutePath, listingParallelism, compression, checksumsEnabled, admission);
+        }
+        IndexedFileService fileService = new IndexedFileService(rootAbsolutePath, indexWatch, compression, checksumsEnabled, admission);
+        fileService.bindTo(meterRegistry);
+        fileService.start();
+        return fileService;
+    }
+
+    /**
+     * Sharding replaces the single root; its shards are plain file services, neither indexed nor deduplicating.
+     */
+    @Bean
+    @ConditionalOnProperty("fileService.sharding.enabled")
+    public ShardedFileService createShardedFileServiceBean(@Value("${fileService.sharding.roots}") List<String> rootAbsolutePathStrings,
+                                                           @Value("${fileService.sharding.virtualNodes}") int virtualNodes,
+                                                           @Value("${fileService.list.parallelism}") int listingParallelism,
+                                                           @Value("${fileService.checksums.enabled}") boolean checksumsEnabled,
+                                                           @Value("${fileService.uploadAdmission.enabled}") boolean admissionEnabled,
+                                                           @Value("${fileService.uploadAdmission.maxWriters}") int maxWriters,
+                                                           @Value("${fileService.uploadAdmission.minFreeSpace}") long minFreeSpace,
+                                                           ObjectProvider<GzipCompression> compressionProvider) throws IOException {
+        List<FileServiceImpl> shards = new ArrayList<>();
+        for (String root : rootAbsolutePathStrings) {
+            Path rootAbsolutePath = Path.of(root.trim());
+            shards.add(new FileServiceImpl(rootAbsolutePath, listingParallelism, compressionProvider.getIfAvailable(),
+                    checksumsEnabled, createUploadAdmission(admissionEnabled, rootAbsolutePath, maxWriters, minFreeSpace)));
+        }
+        return new ShardedFileService(shards, virtualNodes);
+    }
+
+    /**
+     * Each root gets its own admission, so that a full disk or a busy shard does not hold off uploads to the others.
+     */
+    private static UploadAdmission createUploadAdmission(boolean enabled, Path rootAbsolutePath, int maxWriters,
+                                                         long minFreeSpace) throws IOException {
+        return enabled ? new UploadAdmission(rootAbsolutePath, maxWriters, minFreeSpace) : null;
+    }
+
+    @Bean
+    @ConditionalOnProperty("fileService.sharding.enabled")
+    public ShardsEndpoint createShardsEndpointBean(ShardedFileService shardedFileService) {
+        return new ShardsEndpoint(shardedFileService);
+    }
+
+    @Bean
+    @ConditionalOnProperty("fileService.dedup.enabled")
+    public BlobStore createBlobStoreBean(@Value("${fileService.dedup.blobStorePath}") String blobStorePathString,
+                                         @Value("${fileService.dedup.gcGracePeriod}") Duration gcGracePeriod) throws IOException {
+        return new BlobStore(Path.of(blobStorePathString), gcGracePeriod);
+    }
+
+    @Bean
+    @ConditionalOnProperty("fileService.compression.enabled")
+    public GzipCompression createCompressionBean(@Value("${fileService.compression.level}") int level,
+                                                 @Value("${fileService.compression.sampleSize}") int sampleSize,
+                                                 @Value("${fileService.compression.maxRatio}") double maxRatio) {
+        return new GzipCompression(level, sampleSize, maxRatio);
+    }
+
+    @Bean
+    @ConditionalOnProperty("fileService.checksums.enabled")
+    public ChecksumScrubber createChecksumScrubberBean(@Value("${fileService.rootAbsolutePath}") String rootAbsolutePathString,
+                                                      @Value("${fileService.checksums.scrubInterval}") Duration scrubInterval,
+                                                      @Value("${fileService.checksums.scrubBytesPerSecond}") long scrubBytesPerSecond,
+                                                      ObjectProvider<ShardedFileService> shardedFileServiceProvider,
+                                                      MeterRegistry meterRegistry) {
+        ShardedFileService shardedFileService = shardedFileServiceProvider.getIfAvailable();
+        List<Path> roots = shardedFileService != null ? shardedFileService.getRoots() : List.of(Path.of(rootAbsolutePathString));
+        ChecksumScrubber scrubber = new ChecksumScrubber(roots, scrubBytesPerSecond);
+        scrubber.bindTo(meterRegistry);
+        scrubber.start(scrubInterval);
+        return scrubber;
+    }
+
+    /**
+     * The watch covers the same roots as the checksum scrubber: the shards, or the single root.
+     */
+    @Bean
+    @ConditionalOnProperty("fileService.changes.enabled")
+    public ChangeJournal createChangeJournalBean(@Value("${fileService.rootAbsolutePath}") String rootAbsolutePathString,
+                                                 @Value("${fileService.changes.journalPath}") String journalPathString,
+                                                 @Value("${fileService.changes.maxSegmentSize}") long maxSegmentSize,
+                                                 @Value("${fileService.changes.deletionRetention}") Duration deletionRetention,
+                                                 @Value("${fileService.changes.watch}") boolean watch,
+                                                 ObjectProvider<ShardedFileService> shardedFileServiceProvider,
+                                                 MeterRegistry meterRegistry) throws IOException {
+        ChangeJournalImpl changeJournal = new ChangeJournalImpl(Path.of(journalPathString), maxSegmentSize, deletionRetention);
+        changeJournal.bindTo(meterRegistry);
+        if (watch) {
+            ShardedFileService shardedFileService = shardedFileServiceProvider.getIfAvailable();
+            changeJournal.watch(shardedFileService != null ? shardedFileService.getRoots() : List.of(Path.of(rootAbsolutePathString)));
+        }
+        return changeJournal;
+    }
+
+    /**
+     * Admission into the staging directory, shared by the upload sessions and the reactive raw-body
+     * upload, which both write their content there before it is handed over to the storage.
+     */
+    @Bean
+    @ConditionalOnProperty("fileService.uploadAdmission.enabled")
+    public UploadAdmission createStagingUploadAdmissionBean(@Value("${fileService.uploadSessions.stagingPath}") String stagingPathString,
+                                                            @Value("${fileService.uploadAdmission.maxWriters}") int maxWriters,
+                                                            @Value("${fileService.uploadAdmission.minFreeSpace}") long minFreeSpace)
+            throws IOException {
+        return new UploadAdmission(Files.createDirectories(Path.of(stagingPathString)), maxWriters, minFreeSpace);
+    }
+
+    @Bean
+    public UploadSessionService createUploadSessionServiceBean(FileService fileService,
+                                                               @Value("${fileService.uploadSessions.stagingPath}") String stagingPathString,
+                                                               @Value("${fileService.uploadSessions.ttl}") Duration sessionTtl,
+                                                               ObjectProvider<UploadAdmission> stagingAdmissionProvider)
+            throws IOException {
+        Path stagingPath = Files.createDirectories(Path.of(stagingPathString));
+        return new UploadSessionServiceImpl(fileService, stagingPath, sessionTtl, stagingAdmissionProvider.getIfAvailable());
+    }
+
+    @Bean
+    public BatchService createBatchServiceBean(FileService fileService,
+                                               @Value("${fileService.batch.parallelism}") int parallelism,
+                                               @Value("${fileService.batch.maxItems}") int maxItems,
+                                               @Value("${fileService.batch.maxBufferedEntrySize}") int maxBufferedEntrySize) {
+        return new BatchServiceImpl(fileService, parallelism, maxItems, maxBufferedEntrySize);
+    }
+
+    @Bean
+    public FileArchiver createFileArchiverBean(FileService fileService,
+                                               @Value("${fileService.archive.parallelism}") int parallelism,
+                                               @Value("${fileService.archive.readAheadFiles}") int readAheadFiles,
+                                               @Value("${fileService.archive.maxReadAheadFileSize}") int maxReadAheadFileSize) {
+        return new FileArchiver(fileService, parallelism, readAheadFiles, maxReadAheadFileSize);
+    }
+
+    @Bean
+    public DeleteJobService createDeleteJobServiceBean(FileService fileService,
+                                                       @Value("${fileService.asyncDelete.trashPath}") String trashPathString,
+                                                       @Value("${fileService.asyncDelete.parallelism}") int parallelism,
+                                                       @Value("${fileService.asyncDelete.jobTtl}") Duration jobTtl) throws IOException {
+        return new DeleteJobServiceImpl(fileService, Path.of(trashPathString), parallelism, jobTtl);
     }
 }
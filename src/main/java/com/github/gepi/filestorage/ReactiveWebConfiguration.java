@@ -0,0 +1,19 @@
+package com.github.gepi.filestorage;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Serves the reactive variant of the API (spring.main.web-application-type=reactive) from
+ * Netty. Tomcat is on the classpath for the servlet variant and would otherwise be chosen.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWebConfiguration {
+    @Bean
+    public NettyReactiveWebServerFactory createNettyReactiveWebServerFactoryBean() {
+        return new NettyReactiveWebServerFactory();
+    }
+}
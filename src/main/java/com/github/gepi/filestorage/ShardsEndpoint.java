@@ -0,0 +1,43 @@
+package com.github.gepi.filestorage;
+
+import com.github.gepi.filestorage.dto.RebalanceResult;
+import com.github.gepi.filestorage.dto.ShardInfo;
+import com.github.gepi.filestorage.service.ShardedFileService;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The shards of the storage at /actuator/shards; a POST there moves the files to the shards
+ * owning them, to be run after a root has been added.
+ */
+@Endpoint(id = "shards")
+public class ShardsEndpoint {
+    private final ShardedFileService shardedFileService;
+
+    public ShardsEndpoint(ShardedFileService shardedFileService) {
+        this.shardedFileService = shardedFileService;
+    }
+
+    @ReadOperation
+    public List<ShardInfo> shards() throws IOException {
+        List<ShardInfo> shards = new ArrayList<>();
+        for (Path root : shardedFileService.getRoots()) {
+            FileStore fileStore = Files.getFileStore(root);
+            shards.add(new ShardInfo(root.toString(), fileStore.getTotalSpace(), fileStore.getUsableSpace()));
+        }
+        return shards;
+    }
+
+    @WriteOperation
+    public RebalanceResult rebalance() throws IOException {
+        return shardedFileService.rebalance();
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.gepi.filestorage;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Handles requests on virtual threads: Tomcat runs every request on a new virtual thread and
+ * asynchronous responses such as streamed listings are written from virtual threads as well.
+ * A blocked file operation then parks a cheap virtual thread instead of holding one of a fixed
+ * number of workers; how many operations of each kind may run at once is left to the
+ * {@link com.github.gepi.filestorage.service.BulkheadFileService} limits.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty("fileService.virtualThreads.enabled")
+public class VirtualThreadConfiguration implements DisposableBean {
+    private final ExecutorService virtualThreadExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Spring MVC picks the executor for asynchronous requests up by this name.
+     */
+    @Bean(name = TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+    public AsyncTaskExecutor createApplicationTaskExecutorBean() {
+        return new TaskExecutorAdapter(virtualThreadExecutor);
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> createVirtualThreadProtocolHandlerCustomizerBean() {
+        return protocolHandler -> protocolHandler.setExecutor(virtualThreadExecutor);
+    }
+
+    @Override
+    public void destroy() {
+        virtualThreadExecutor.shutdown();
+    }
+}
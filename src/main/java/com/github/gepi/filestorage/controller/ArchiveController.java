@@ -0,0 +1,75 @@
+package com.github.gepi.filestorage.controller;
+
+import com.github.gepi.filestorage.dto.ErrorInfo;
+import com.github.gepi.filestorage.exception.ArchiveFormatNotSupported;
+import com.github.gepi.filestorage.exception.PathNotExist;
+import com.github.gepi.filestorage.service.FileArchiver;
+import com.github.gepi.filestorage.service.FileService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping("/")
+public class ArchiveController {
+    private static final String DEFAULT_ARCHIVE_NAME = "archive";
+
+    private final FileArchiver fileArchiver;
+    private final FileService fileService;
+
+    public ArchiveController(FileArchiver fileArchiver, FileService fileService) {
+        this.fileArchiver = fileArchiver;
+        this.fileService = fileService;
+    }
+
+    /**
+     * The archive is written into the response while the directory is walked, so its length is
+     * not known up front and a failure in the middle can only abort the transfer. A missing path
+     * is therefore checked for before the response is started, as it would give an empty archive.
+     */
+    @GetMapping("/archive/{*path}")
+    public ResponseEntity<StreamingResponseBody> download(@PathVariable String path,
+                                                          @RequestParam(defaultValue = "tar") String format) {
+        FileArchiver.Format archiveFormat = parseFormat(format);
+        String name = path.replaceAll("/+$", "");
+        name = name.substring(name.lastIndexOf('/') + 1);
+        String fileName = (name.isEmpty() ? DEFAULT_ARCHIVE_NAME : name) + archiveFormat.getExtension();
+        if (!fileService.exists(path)) {
+            throw new PathNotExist();
+        }
+
+        StreamingResponseBody body = outputStream -> fileArchiver.write(path, archiveFormat, outputStream);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(archiveFormat.getContentType()))
+                .headers(headers -> headers.setContentDisposition(ContentDisposition.attachment()
+                        .filename(fileName, StandardCharsets.UTF_8)
+                        .build()))
+                .body(body);
+    }
+
+    /**
+     * An archive of a missing path is not found, whereas the other endpoints report a missing path as a bad request.
+     */
+    @ExceptionHandler(PathNotExist.class)
+    private ResponseEntity<ErrorInfo> handlePathNotExist(HttpServletRequest req, Exception ex) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(new ErrorInfo(req.getRequestURL().toString(), ex.getMessage()));
+    }
+
+    private static FileArchiver.Format parseFormat(String format) {
+        try {
+            return FileArchiver.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ArchiveFormatNotSupported();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.gepi.filestorage.controller;
+
+import com.github.gepi.filestorage.dto.BatchResult;
+import com.github.gepi.filestorage.service.BatchService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Many files in one request. Every item is reported in the response, which is 200 even when
+ * some items failed; only a malformed request as a whole is answered with an error.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping("/batch")
+public class BatchController {
+    private static final String APPLICATION_TAR_VALUE = "application/x-tar";
+
+    private final BatchService batchService;
+
+    public BatchController(BatchService batchService) {
+        this.batchService = batchService;
+    }
+
+    /**
+     * The tar stream is unpacked while it is received, below the given directory.
+     */
+    @PostMapping(value = "/upload/{*path}", consumes = APPLICATION_TAR_VALUE)
+    public ResponseEntity<BatchResult> uploadTar(@PathVariable String path, HttpServletRequest request) throws IOException {
+        return ResponseEntity.ok().body(batchService.uploadTar(request.getInputStream(), path));
+    }
+
+    /**
+     * The parts are spooled by the multipart resolver, so the whole request is capped by
+     * spring.servlet.multipart.max-request-size; larger batches are sent as a tar stream.
+     */
+    @PostMapping(value = "/upload/{*path}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<BatchResult> upload(@PathVariable String path, @RequestParam List<MultipartFile> files) {
+        return ResponseEntity.ok().body(batchService.upload(files, path));
+    }
+
+    @PostMapping("/delete")
+    public ResponseEntity<BatchResult> delete(@RequestBody List<String> paths) {
+        return ResponseEntity.ok().body(batchService.delete(paths, false));
+    }
+
+    @PostMapping("/hardDelete")
+    public ResponseEntity<BatchResult> hardDelete(@RequestBody List<String> paths) {
+        return ResponseEntity.ok().body(batchService.delete(paths, true));
+    }
+
+    @PostMapping("/stat")
+    public ResponseEntity<BatchResult> stat(@RequestBody List<String> paths) {
+        return ResponseEntity.ok().body(batchService.stat(paths));
+    }
+}
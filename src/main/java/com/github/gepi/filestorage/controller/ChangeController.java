@@ -0,0 +1,72 @@
+package com.github.gepi.filestorage.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.gepi.filestorage.dto.ChangeEvent;
+import com.github.gepi.filestorage.exception.LimitIsNegative;
+import com.github.gepi.filestorage.service.ChangeJournal;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty("fileService.changes.enabled")
+@RequestMapping("/")
+public class ChangeController {
+    private static final String LAST_SEQUENCE_HEADER = "X-Last-Sequence";
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    private final ChangeJournal changeJournal;
+    private final ObjectWriter changeEventWriter;
+
+    public ChangeController(ChangeJournal changeJournal, ObjectMapper objectMapper) {
+        this.changeJournal = changeJournal;
+        this.changeEventWriter = objectMapper.writerFor(ChangeEvent.class).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    /**
+     * Newline-delimited JSON of the changes after the {@code since} sequence, oldest first; pass
+     * the sequence of the last one as {@code since} of the next call, or the X-Last-Sequence
+     * header when there were none. Without {@code since} only the header is returned: a new
+     * client takes it as its cursor and then lists the storage once.
+     * <p>
+     * The journal is read from the body only, so that its read lock is taken and released on the
+     * thread that writes the response.
+     */
+    @GetMapping(value = "/changes", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamChanges(@RequestParam(required = false) Long since,
+                                                               @RequestParam(required = false) Long limit) {
+        if (limit != null && limit < 0) {
+            throw new LimitIsNegative();
+        }
+        long lastSequence = changeJournal.getLastSequence();
+        StreamingResponseBody body = outputStream -> {
+            if (since == null) {
+                return;
+            }
+            try (Stream<ChangeEvent> changeStream = changeJournal.getChanges(since);
+                 Stream<ChangeEvent> changes = limit == null ? changeStream : changeStream.limit(limit)) {
+                Iterator<ChangeEvent> iterator = changes.iterator();
+                while (iterator.hasNext()) {
+                    changeEventWriter.writeValue(outputStream, iterator.next());
+                    outputStream.write('\n');
+                }
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                .header(LAST_SEQUENCE_HEADER, Long.toString(lastSequence))
+                .body(body);
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.gepi.filestorage.controller;
+
+import com.github.gepi.filestorage.dto.ErrorInfo;
+import com.github.gepi.filestorage.exception.ChangesCompacted;
+import com.github.gepi.filestorage.exception.FileServiceException;
+import com.github.gepi.filestorage.exception.InsufficientStorage;
+import com.github.gepi.filestorage.exception.LimitIsNegative;
+import com.github.gepi.filestorage.exception.OperationLimitExceeded;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+@RestControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@Slf4j
+public class ControllerExceptionHandler {
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
+    @ExceptionHandler(Exception.class)
+    @ResponseBody
+    private ErrorInfo handleException(HttpServletRequest req, Exception ex) {
+        log.error("General file processing error", ex);
+        return new ErrorInfo(req.getRequestURL().toString(), ex.getMessage());
+    }
+
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(FileServiceException.class)
+    @ResponseBody
+    private ErrorInfo handleApiException(HttpServletRequest req, Exception ex) {
+        log.error("API processing error", ex);
+        return new ErrorInfo(req.getRequestURL().toString(), ex.getMessage());
+    }
+
+    @ExceptionHandler(OperationLimitExceeded.class)
+    private ResponseEntity<ErrorInfo> handleOperationLimitExceeded(HttpServletRequest req, Exception ex) {
+        log.warn("Operation rejected: {}", req.getRequestURL());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(new ErrorInfo(req.getRequestURL().toString(), ex.getMessage()));
+    }
+
+    @ExceptionHandler(InsufficientStorage.class)
+    private ResponseEntity<ErrorInfo> handleInsufficientStorage(HttpServletRequest req, Exception ex) {
+        log.warn("Upload rejected for lack of space: {}", req.getRequestURL());
+        return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(new ErrorInfo(req.getRequestURL().toString(), ex.getMessage()));
+    }
+
+    /**
+     * The content type is set explicitly, the change feed is requested as newline-delimited JSON only.
+     */
+    @ExceptionHandler(ChangesCompacted.class)
+    private ResponseEntity<ErrorInfo> handleChangesCompacted(HttpServletRequest req, Exception ex) {
+        log.info("Change cursor too old: {}?{}", req.getRequestURL(), req.getQueryString());
+        return ResponseEntity.status(HttpStatus.GONE)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(new ErrorInfo(req.getRequestURL().toString(), ex.getMessage()));
+    }
+
+    /**
+     * Rejected before the newline-delimited JSON is streamed, the error is written as plain JSON.
+     */
+    @ExceptionHandler(LimitIsNegative.class)
+    private ResponseEntity<ErrorInfo> handleLimitIsNegative(HttpServletRequest req, Exception ex) {
+        log.info("Negative limit: {}?{}", req.getRequestURL(), req.getQueryString());
+        return ResponseEntity.badRequest()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(new ErrorInfo(req.getRequestURL().toString(), ex.getMessage()));
+    }
+}
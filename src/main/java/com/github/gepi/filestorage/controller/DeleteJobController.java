@@ -0,0 +1,41 @@
+package com.github.gepi.filestorage.controller;
+
+import com.github.gepi.filestorage.dto.DeleteJobInfo;
+import com.github.gepi.filestorage.service.DeleteJobService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping("/")
+public class DeleteJobController {
+    private final DeleteJobService deleteJobService;
+
+    public DeleteJobController(DeleteJobService deleteJobService) {
+        this.deleteJobService = deleteJobService;
+    }
+
+    /**
+     * The path disappears from the storage before the response is sent, its content is
+     * reclaimed in the background; poll the returned location for the progress.
+     */
+    @GetMapping(value = "/hardDelete/{*path}", params = "async=true")
+    public ResponseEntity<DeleteJobInfo> hardDeleteAsync(@PathVariable String path) throws IOException {
+        DeleteJobInfo info = deleteJobService.submit(path);
+        return ResponseEntity.accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentContextPath()
+                        .path("/deleteJobs/{jobId}")
+                        .buildAndExpand(info.jobId())
+                        .toUri())
+                .body(info);
+    }
+
+    @GetMapping("/deleteJobs/{jobId}")
+    public ResponseEntity<DeleteJobInfo> getInfo(@PathVariable String jobId) {
+        return ResponseEntity.ok().body(deleteJobService.getInfo(jobId));
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.gepi.filestorage.controller;
+
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Download responses shared by the servlet and the reactive controllers.
+ */
+final class DownloadResponses {
+    private static final String GZIP = "gzip";
+
+    private DownloadResponses() {
+    }
+
+    /**
+     * Whether an {@code Accept-Encoding} header allows a gzip response, explicitly or through {@code *}.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String name = parameters[0].trim();
+            boolean accepted = hasNonZeroQuality(parameters);
+            if (name.equalsIgnoreCase(GZIP) || name.equalsIgnoreCase("x-gzip")) {
+                return accepted;
+            }
+            if (name.equals("*")) {
+                wildcard = accepted;
+            }
+        }
+        return Boolean.TRUE.equals(wildcard);
+    }
+
+    /**
+     * @param compressed whether the resource holds the gzip-compressed content, sent as it is with
+     *                   {@code Content-Encoding: gzip}
+     */
+    static ResponseEntity<Resource> of(Resource resource, boolean compressed) throws IOException {
+        long lastModified = resource.lastModified();
+        long contentLength = resource.contentLength();
+        String eTag = Long.toHexString(lastModified) + "-" + Long.toHexString(contentLength);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(compressed ? eTag + "-gz" : eTag)
+                .lastModified(lastModified)
+                .header("Accept-Ranges", "bytes")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .headers(headers -> headers.setContentDisposition(ContentDisposition.attachment()
+                        .filename(resource.getFilename(), StandardCharsets.UTF_8)
+                        .build()));
+        if (compressed) {
+            response.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+        }
+        return response.body(resource);
+    }
+
+    private static boolean hasNonZeroQuality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) > 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
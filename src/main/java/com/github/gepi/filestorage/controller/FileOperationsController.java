@@ -1,41 +1,171 @@
 package com.github.gepi.filestorage.controller;
 
-import com.github.gepi.filestorage.dto.ErrorInfo;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.github.gepi.filestorage.dto.FileInfo;
-import com.github.gepi.filestorage.exception.FileServiceException;
+import com.github.gepi.filestorage.dto.FileInfoPage;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import com.github.gepi.filestorage.exception.FileNameNotSpecified;
+import com.github.gepi.filestorage.exception.LimitIsNegative;
+import com.github.gepi.filestorage.exception.PageLimitIsNotPositive;
+import com.github.gepi.filestorage.service.ChecksummingInputStream;
 import com.github.gepi.filestorage.service.FileService;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.HttpStatus;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/")
 @Slf4j
 public class FileOperationsController {
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    private static final int MAX_PAGE_SIZE = 10_000;
+
     private final FileService fileService;
+    private final ObjectWriter fileInfoWriter;
 
-    public FileOperationsController(FileService fileService) {
+    public FileOperationsController(FileService fileService, ObjectMapper objectMapper) {
         this.fileService = fileService;
+        this.fileInfoWriter = objectMapper.writerFor(FileInfo.class).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
     }
 
     @GetMapping("/list/{*path}")
-    public ResponseEntity<List<FileInfo>> getFiles(@PathVariable String path) {
-        return ResponseEntity.ok().body(fileService.getFileList(path, true));
+    public ResponseEntity<List<FileInfo>> getFiles(@PathVariable String path,
+                                                   @RequestParam(defaultValue = "true") boolean deepDive,
+                                                   @RequestParam(required = false) Integer maxDepth,
+                                                   @RequestParam(required = false) String glob) {
+        if (deepDive && maxDepth == null && glob == null) {
+            return ResponseEntity.ok().body(fileService.getFileList(path, true));
+        }
+        try (Stream<FileInfo> files = fileService.getFileStream(path, ListingOptions.of(deepDive, maxDepth, glob, null))) {
+            return ResponseEntity.ok().body(files.toList());
+        }
+    }
+
+    /**
+     * One page of the listing; pass {@code nextCursor} of the response as {@code cursor} to get the next one.
+     */
+    @GetMapping(value = "/list/{*path}", params = "limit", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<FileInfoPage> getFilePage(@PathVariable String path,
+                                                    @RequestParam int limit,
+                                                    @RequestParam(required = false) String cursor,
+                                                    @RequestParam(defaultValue = "true") boolean deepDive,
+                                                    @RequestParam(required = false) Integer maxDepth,
+                                                    @RequestParam(required = false) String glob) {
+        if (limit < 1) {
+            throw new PageLimitIsNotPositive();
+        }
+        int pageSize = Math.min(limit, MAX_PAGE_SIZE);
+        List<FileInfo> files;
+        try (Stream<FileInfo> fileStream = fileService.getFileStream(path, ListingOptions.of(deepDive, maxDepth, glob, cursor))) {
+            files = fileStream.limit(pageSize + 1L).toList();
+        }
+        if (files.size() <= pageSize) {
+            return ResponseEntity.ok().body(new FileInfoPage(files, null));
+        }
+        files = files.subList(0, pageSize);
+        return ResponseEntity.ok().body(new FileInfoPage(files, files.get(pageSize - 1).getFullFileName()));
+    }
+
+    /**
+     * Newline-delimited JSON written while the tree is walked, so memory use does not depend on
+     * the size of the listing.
+     */
+    @GetMapping(value = "/list/{*path}", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamFiles(@PathVariable String path,
+                                                             @RequestParam(required = false) Long limit,
+                                                             @RequestParam(required = false) String cursor,
+                                                             @RequestParam(defaultValue = "true") boolean deepDive,
+                                                             @RequestParam(required = false) Integer maxDepth,
+                                                             @RequestParam(required = false) String glob) {
+        if (limit != null && limit < 0) {
+            throw new LimitIsNegative();
+        }
+        Stream<FileInfo> fileStream = fileService.getFileStream(path, ListingOptions.of(deepDive, maxDepth, glob, cursor));
+        StreamingResponseBody body = outputStream -> {
+            try (Stream<FileInfo> files = limit == null ? fileStream : fileStream.limit(limit)) {
+                Iterator<FileInfo> iterator = files.iterator();
+                while (iterator.hasNext()) {
+                    fileInfoWriter.writeValue(outputStream, iterator.next());
+                    outputStream.write('\n');
+                }
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE)).body(body);
+    }
+
+    /**
+     * Range, If-None-Match and If-Modified-Since are handled by Spring MVC itself once the
+     * ETag and Last-Modified headers are set: the resource is streamed (or sliced into
+     * regions) by the message converters with a fixed-size buffer, never loaded into memory.
+     * Files stored compressed are sent as they are to clients accepting gzip, and decompressed for the others.
+     */
+    @GetMapping("/download/{*path}")
+    public ResponseEntity<Resource> download(@PathVariable String path,
+                                             @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+            throws IOException {
+        if (DownloadResponses.acceptsGzip(acceptEncoding)) {
+            Optional<Resource> compressed = fileService.loadCompressed(path);
+            if (compressed.isPresent()) {
+                return DownloadResponses.of(compressed.get(), true);
+            }
+        }
+        return DownloadResponses.of(fileService.load(path), false);
     }
 
+    /**
+     * The hex crc32c and sha256 parameters, when given, are checked against the uploaded content,
+     * and a file that does not match is not stored. The response describes the stored file, with
+     * its checksums when the storage keeps them, as learned while it was written.
+     */
     @PostMapping("/upload")
     @SneakyThrows
-    public ResponseEntity<Void> uploadFile(@RequestParam MultipartFile file,
-                                           @RequestParam String destinationFilePath,
-                                           @RequestParam String destinationFileName) {
-        fileService.save(file, destinationFilePath, destinationFileName);
-        return ResponseEntity.ok().build();
+    public ResponseEntity<FileInfo> uploadFile(@RequestParam MultipartFile file,
+                                               @RequestParam String destinationFilePath,
+                                               @RequestParam String destinationFileName,
+                                               @RequestParam(required = false) String crc32c,
+                                               @RequestParam(required = false) String sha256) {
+        try (InputStream inputStream = ChecksummingInputStream.verifying(file.getInputStream(), crc32c, sha256)) {
+            return ResponseEntity.ok().body(fileService.saveAndDescribe(inputStream, file.getSize(), destinationFilePath, destinationFileName));
+        }
+    }
+
+    /**
+     * Raw-body upload: the request body is streamed straight into the storage without being
+     * spooled by the multipart resolver, so the multipart size limits do not apply. Checksums
+     * are checked and reported as for /upload. The Content-Length, when sent, is reserved up
+     * front; a chunked body reserves space as it arrives.
+     */
+    @PutMapping("/files/{*path}")
+    public ResponseEntity<FileInfo> uploadFileStream(@PathVariable String path,
+                                                     @RequestParam(required = false) String crc32c,
+                                                     @RequestParam(required = false) String sha256,
+                                                     HttpServletRequest request) throws IOException {
+        int fileNameIndex = path.lastIndexOf('/') + 1;
+        if (fileNameIndex == path.length()) {
+            throw new FileNameNotSpecified();
+        }
+        String directory = path.substring(0, fileNameIndex);
+        String fileName = path.substring(fileNameIndex);
+        return ResponseEntity.ok().body(fileService.saveAndDescribe(
+                ChecksummingInputStream.verifying(request.getInputStream(), crc32c, sha256), request.getContentLengthLong(), directory, fileName));
     }
 
     @GetMapping("/delete/{*path}")
@@ -51,20 +181,4 @@ public class FileOperationsController {
         fileService.hardDelete(path);
         return ResponseEntity.ok().build();
     }
-
-    @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
-    @ExceptionHandler(Exception.class)
-    @ResponseBody
-    private ErrorInfo handleException(HttpServletRequest req, Exception ex) {
-        log.error("General file processing error", ex);
-        return new ErrorInfo(req.getRequestURL().toString(), ex.getMessage());
-    }
-
-    @ResponseStatus(HttpStatus.BAD_REQUEST)
-    @ExceptionHandler(FileServiceException.class)
-    @ResponseBody
-    private ErrorInfo handleApiException(HttpServletRequest req, Exception ex) {
-        log.error("API processing error", ex);
-        return new ErrorInfo(req.getRequestURL().toString(), ex.getMessage());
-    }
 }
@@ -0,0 +1,55 @@
+package com.github.gepi.filestorage.controller;
+
+import com.github.gepi.filestorage.dto.ErrorInfo;
+import com.github.gepi.filestorage.exception.FileServiceException;
+import com.github.gepi.filestorage.exception.InsufficientStorage;
+import com.github.gepi.filestorage.exception.OperationLimitExceeded;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+@RestControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@Slf4j
+public class ReactiveControllerExceptionHandler {
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
+    @ExceptionHandler(Exception.class)
+    @ResponseBody
+    private ErrorInfo handleException(ServerHttpRequest req, Exception ex) {
+        log.error("General file processing error", ex);
+        return new ErrorInfo(req.getURI().toString(), ex.getMessage());
+    }
+
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(FileServiceException.class)
+    @ResponseBody
+    private ErrorInfo handleApiException(ServerHttpRequest req, Exception ex) {
+        log.error("API processing error", ex);
+        return new ErrorInfo(req.getURI().toString(), ex.getMessage());
+    }
+
+    @ExceptionHandler(OperationLimitExceeded.class)
+    private ResponseEntity<ErrorInfo> handleOperationLimitExceeded(ServerHttpRequest req, Exception ex) {
+        log.warn("Operation rejected: {}", req.getURI());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(new ErrorInfo(req.getURI().toString(), ex.getMessage()));
+    }
+
+    @ExceptionHandler(InsufficientStorage.class)
+    private ResponseEntity<ErrorInfo> handleInsufficientStorage(ServerHttpRequest req, Exception ex) {
+        log.warn("Upload rejected for lack of space: {}", req.getURI());
+        return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(new ErrorInfo(req.getURI().toString(), ex.getMessage()));
+    }
+}
@@ -0,0 +1,187 @@
+package com.github.gepi.filestorage.controller;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.FileInfoPage;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import com.github.gepi.filestorage.exception.FileNameNotSpecified;
+import com.github.gepi.filestorage.exception.LimitIsNegative;
+import com.github.gepi.filestorage.exception.PageLimitIsNotPositive;
+import com.github.gepi.filestorage.service.ChecksumVerifier;
+import com.github.gepi.filestorage.service.FileService;
+import com.github.gepi.filestorage.service.UploadAdmission;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * WebFlux counterpart of {@link FileOperationsController} for listing, download and upload,
+ * active when the application runs as a reactive web application. No thread is held while a
+ * client is slow: request bodies are written to disk through an asynchronous file channel,
+ * files are sent with zero-copy where the server supports it, and listings are pulled from
+ * the lazily walked tree only as fast as the client reads them. The remaining blocking
+ * {@link FileService} calls run on the bounded elastic scheduler.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequestMapping("/")
+@Slf4j
+public class ReactiveFileOperationsController {
+    private static final int MAX_PAGE_SIZE = 10_000;
+
+    private final FileService fileService;
+    private final Path stagingPath;
+    private final UploadAdmission stagingAdmission;
+
+    public ReactiveFileOperationsController(FileService fileService,
+                                            @Value("${fileService.uploadSessions.stagingPath}") String stagingPathString,
+                                            ObjectProvider<UploadAdmission> stagingAdmissionProvider) {
+        this.fileService = fileService;
+        this.stagingPath = Path.of(stagingPathString);
+        this.stagingAdmission = stagingAdmissionProvider.getIfAvailable();
+    }
+
+    /**
+     * A JSON array, or newline-delimited JSON when asked for; either way written as the tree is walked.
+     */
+    @GetMapping(value = "/list/{*path}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<FileInfo> getFiles(@PathVariable String path,
+                                   @RequestParam(required = false) Long limit,
+                                   @RequestParam(required = false) String cursor,
+                                   @RequestParam(defaultValue = "true") boolean deepDive,
+                                   @RequestParam(required = false) Integer maxDepth,
+                                   @RequestParam(required = false) String glob) {
+        if (limit != null && limit < 0) {
+            throw new LimitIsNegative();
+        }
+        Flux<FileInfo> files = listFiles(path, ListingOptions.of(deepDive, maxDepth, glob, cursor));
+        return limit == null ? files : files.take(limit, true);
+    }
+
+    @GetMapping(value = "/list/{*path}", params = "limit", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<FileInfoPage> getFilePage(@PathVariable String path,
+                                          @RequestParam int limit,
+                                          @RequestParam(required = false) String cursor,
+                                          @RequestParam(defaultValue = "true") boolean deepDive,
+                                          @RequestParam(required = false) Integer maxDepth,
+                                          @RequestParam(required = false) String glob) {
+        if (limit < 1) {
+            throw new PageLimitIsNotPositive();
+        }
+        int pageSize = Math.min(limit, MAX_PAGE_SIZE);
+        return listFiles(path, ListingOptions.of(deepDive, maxDepth, glob, cursor))
+                .take(pageSize + 1L, true)
+                .collectList()
+                .map(files -> toPage(files, pageSize));
+    }
+
+    @GetMapping("/download/{*path}")
+    public Mono<ResponseEntity<Resource>> download(@PathVariable String path,
+                                                   @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return Mono.fromCallable(() -> {
+            if (DownloadResponses.acceptsGzip(acceptEncoding)) {
+                Optional<Resource> compressed = fileService.loadCompressed(path);
+                if (compressed.isPresent()) {
+                    return DownloadResponses.of(compressed.get(), true);
+                }
+            }
+            return DownloadResponses.of(fileService.load(path), false);
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * The body is written to a staging file as it arrives, then handed over to the
+     * {@link FileService}, which renames it into place. The upload is admitted into the staging
+     * directory like one of the servlet API: the Content-Length, when sent, is reserved up front,
+     * a chunked body reserves space as it arrives, and a rejected upload gets 503 or 507.
+     * Checksums are checked and reported as for the servlet PUT; the body is checksummed as it is
+     * written, and a file that does not match is not handed over.
+     */
+    @PutMapping("/files/{*path}")
+    public Mono<ResponseEntity<FileInfo>> uploadFileStream(@PathVariable String path,
+                                                           @RequestParam(required = false) String crc32c,
+                                                           @RequestParam(required = false) String sha256,
+                                                           @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength,
+                                                           @RequestBody(required = false) Flux<DataBuffer> body) {
+        int fileNameIndex = path.lastIndexOf('/') + 1;
+        if (fileNameIndex == path.length()) {
+            return Mono.error(new FileNameNotSpecified());
+        }
+        Path stagingFile = stagingPath.resolve(UUID.randomUUID() + ".upload");
+        ChecksumVerifier verifier = ChecksumVerifier.of(crc32c, sha256);
+        return Mono.using(() -> admit(contentLength), ticket -> Mono.fromCallable(() -> Files.createDirectories(stagingPath))
+                                .then(DataBufferUtils.write(meter(body, ticket, verifier), stagingFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+                                .publishOn(Schedulers.boundedElastic())
+                                .then(Mono.fromCallable(() -> {
+                                    if (verifier != null) {
+                                        verifier.verify();
+                                    }
+                                    return fileService.saveAndDescribe(stagingFile, path.substring(0, fileNameIndex), path.substring(fileNameIndex));
+                                })),
+                        ticket -> ticket.ifPresent(UploadAdmission.Ticket::close))
+                .subscribeOn(Schedulers.boundedElastic())
+                .doFinally(signal -> deleteStagingFile(stagingFile))
+                .map(savedFile -> ResponseEntity.ok().body(savedFile));
+    }
+
+    private Optional<UploadAdmission.Ticket> admit(Long contentLength) {
+        return stagingAdmission == null ? Optional.empty() : Optional.ofNullable(stagingAdmission.admit(contentLength == null ? -1 : contentLength));
+    }
+
+    /**
+     * Reports every buffer to the ticket and the verifier before it is written.
+     */
+    private static Flux<DataBuffer> meter(Flux<DataBuffer> body, Optional<UploadAdmission.Ticket> ticket, ChecksumVerifier verifier) {
+        if (ticket.isEmpty() && verifier == null) {
+            return body;
+        }
+        return body.doOnNext(buffer -> {
+            ticket.ifPresent(admitted -> admitted.written(buffer.readableByteCount()));
+            if (verifier != null) {
+                try (DataBuffer.ByteBufferIterator byteBuffers = buffer.readableByteBuffers()) {
+                    byteBuffers.forEachRemaining(verifier::update);
+                }
+            }
+        });
+    }
+
+    private Flux<FileInfo> listFiles(String path, ListingOptions options) {
+        return Flux.using(() -> fileService.getFileStream(path, options), Flux::fromStream, Stream::close)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static FileInfoPage toPage(List<FileInfo> files, int pageSize) {
+        if (files.size() <= pageSize) {
+            return new FileInfoPage(files, null);
+        }
+        List<FileInfo> page = files.subList(0, pageSize);
+        return new FileInfoPage(page, page.get(pageSize - 1).getFullFileName());
+    }
+
+    private static void deleteStagingFile(Path stagingFile) {
+        try {
+            Files.deleteIfExists(stagingFile);
+        } catch (IOException e) {
+            log.warn("Cannot delete staging file {}", stagingFile, e);
+        }
+    }
+}
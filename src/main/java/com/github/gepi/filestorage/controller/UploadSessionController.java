@@ -0,0 +1,53 @@
+package com.github.gepi.filestorage.controller;
+
+import com.github.gepi.filestorage.dto.UploadSessionInfo;
+import com.github.gepi.filestorage.service.UploadSessionService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping("/uploads")
+public class UploadSessionController {
+    private final UploadSessionService uploadSessionService;
+
+    public UploadSessionController(UploadSessionService uploadSessionService) {
+        this.uploadSessionService = uploadSessionService;
+    }
+
+    @PostMapping
+    public ResponseEntity<UploadSessionInfo> initiate(@RequestParam String destinationFilePath,
+                                                      @RequestParam String destinationFileName,
+                                                      @RequestParam long partSize) throws IOException {
+        return ResponseEntity.ok().body(uploadSessionService.initiate(destinationFilePath, destinationFileName, partSize));
+    }
+
+    @PutMapping("/{uploadId}/parts/{partNumber}")
+    public ResponseEntity<Void> uploadPart(@PathVariable String uploadId,
+                                           @PathVariable int partNumber,
+                                           HttpServletRequest request) throws IOException {
+        uploadSessionService.uploadPart(uploadId, partNumber, request.getInputStream());
+        return ResponseEntity.ok().build();
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<UploadSessionInfo> getInfo(@PathVariable String uploadId) {
+        return ResponseEntity.ok().body(uploadSessionService.getInfo(uploadId));
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<Void> complete(@PathVariable String uploadId) throws IOException {
+        uploadSessionService.complete(uploadId);
+        return ResponseEntity.ok().build();
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abort(@PathVariable String uploadId) throws IOException {
+        uploadSessionService.abort(uploadId);
+        return ResponseEntity.ok().build();
+    }
+}
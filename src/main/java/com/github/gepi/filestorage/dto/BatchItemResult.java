@@ -0,0 +1,30 @@
+package com.github.gepi.filestorage.dto;
+
+/**
+ * Outcome of one item of a batch.
+ *
+ * @param file the file as stored, for uploads and stats that succeeded
+ */
+public record BatchItemResult(String path,
+                              Status status,
+                              String error,
+                              FileInfo file) {
+    public enum Status {
+        /**
+         * Done.
+         */
+        OK,
+        /**
+         * The item itself is wrong (path outside the root, empty file, missing path...), retrying does not help.
+         */
+        INVALID,
+        /**
+         * Rejected because the storage is busy, the item may be retried later.
+         */
+        REJECTED,
+        /**
+         * Failed on the storage side.
+         */
+        FAILED
+    }
+}
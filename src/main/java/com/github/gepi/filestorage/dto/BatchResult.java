@@ -0,0 +1,13 @@
+package com.github.gepi.filestorage.dto;
+
+import java.util.List;
+
+/**
+ * @param items results in the order of the request, or of the archive entries
+ */
+public record BatchResult(long succeeded, long failed, List<BatchItemResult> items) {
+    public static BatchResult of(List<BatchItemResult> items) {
+        long succeeded = items.stream().filter(item -> item.status() == BatchItemResult.Status.OK).count();
+        return new BatchResult(succeeded, items.size() - succeeded, items);
+    }
+}
@@ -0,0 +1,23 @@
+package com.github.gepi.filestorage.dto;
+
+/**
+ * @param sequence  position in the change journal, greater than that of every earlier change
+ * @param path      the changed path relative to the root
+ * @param timestamp when the change was recorded, in milliseconds since the epoch
+ */
+public record ChangeEvent(long sequence, Type type, String path, long timestamp) {
+    public enum Type {
+        /**
+         * The file was created or its content replaced.
+         */
+        SAVED,
+        /**
+         * The path was removed together with everything below it.
+         */
+        DELETED,
+        /**
+         * Changes below the path may have been missed, it has to be listed again.
+         */
+        RESCAN
+    }
+}
@@ -0,0 +1,12 @@
+package com.github.gepi.filestorage.dto;
+
+public record DeleteJobInfo(String jobId,
+                            String path,
+                            Status status,
+                            long filesDeleted,
+                            long bytesReclaimed,
+                            String error) {
+    public enum Status {
+        RUNNING, COMPLETED, FAILED
+    }
+}
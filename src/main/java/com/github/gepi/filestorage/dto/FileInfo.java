@@ -1,5 +1,6 @@
 package com.github.gepi.filestorage.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Getter;
 
 import java.nio.file.Path;
@@ -9,11 +10,35 @@ public class FileInfo {
     private final String fullFileName;
     private final String fileName;
     private final long size;
+    private final long storedSize;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final String crc32c;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final String sha256;
 
     public FileInfo(String fullFileName, String fileName, long size) {
+        this(fullFileName, fileName, size, size);
+    }
+
+    /**
+     * @param size       logical size of the content
+     * @param storedSize size the file takes in the storage, smaller than {@code size} for compressed files
+     */
+    public FileInfo(String fullFileName, String fileName, long size, long storedSize) {
+        this(fullFileName, fileName, size, storedSize, null, null);
+    }
+
+    /**
+     * @param crc32c hex CRC32C of the content computed when it was saved, null when unknown
+     * @param sha256 hex SHA-256 of the content computed when it was saved, null when unknown
+     */
+    public FileInfo(String fullFileName, String fileName, long size, long storedSize, String crc32c, String sha256) {
         this.fullFileName = fullFileName.replace("\\", "/");
         this.fileName = fileName;
         this.size = size;
+        this.storedSize = storedSize;
+        this.crc32c = crc32c;
+        this.sha256 = sha256;
     }
 
     public FileInfo(Path path, long size) {
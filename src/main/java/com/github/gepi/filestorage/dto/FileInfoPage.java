@@ -0,0 +1,6 @@
+package com.github.gepi.filestorage.dto;
+
+import java.util.List;
+
+public record FileInfoPage(List<FileInfo> files, String nextCursor) {
+}
@@ -0,0 +1,20 @@
+package com.github.gepi.filestorage.dto;
+
+/**
+ * @param maxDepth how many directory levels below the listed path to descend, 1 means direct children only
+ * @param glob     optional filter; matched against the relative path when it contains a slash, against the file name otherwise
+ * @param cursor   optional relative path of the last file already received, the listing continues after it
+ */
+public record ListingOptions(int maxDepth, String glob, String cursor) {
+    public static final int UNLIMITED_DEPTH = Integer.MAX_VALUE;
+
+    /**
+     * Options of a listing request; an explicit {@code maxDepth} takes precedence over {@code deepDive}.
+     * Without it {@code deepDive=false} means depth 0, as in {@code FileService.getFileList}: only
+     * the listed path itself, when it is a file.
+     */
+    public static ListingOptions of(boolean deepDive, Integer maxDepth, String glob, String cursor) {
+        int depth = maxDepth != null ? maxDepth : deepDive ? UNLIMITED_DEPTH : 0;
+        return new ListingOptions(depth, glob, cursor);
+    }
+}
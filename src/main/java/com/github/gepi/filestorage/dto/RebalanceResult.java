@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.dto;
+
+/**
+ * @param staleCopiesRemoved files dropped from a shard because a newer version already was on the owning shard
+ */
+public record RebalanceResult(long filesMoved, long bytesMoved, long staleCopiesRemoved) {
+}
@@ -0,0 +1,9 @@
+package com.github.gepi.filestorage.dto;
+
+import java.util.List;
+
+/**
+ * @param corruptedFiles absolute paths of the files whose content no longer matches the checksums stored with them
+ */
+public record ScrubResult(long filesVerified, long bytesVerified, List<String> corruptedFiles) {
+}
@@ -0,0 +1,4 @@
+package com.github.gepi.filestorage.dto;
+
+public record ShardInfo(String root, long totalSpace, long usableSpace) {
+}
@@ -0,0 +1,10 @@
+package com.github.gepi.filestorage.dto;
+
+import java.util.SortedSet;
+
+public record UploadSessionInfo(String uploadId,
+                                String destinationFilePath,
+                                String destinationFileName,
+                                long partSize,
+                                SortedSet<Integer> receivedParts) {
+}
@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class ArchiveFormatNotSupported extends FileServiceException {
+    public ArchiveFormatNotSupported() {
+        super("Archive format is not supported");
+    }
+}
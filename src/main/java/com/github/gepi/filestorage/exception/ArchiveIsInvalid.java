@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class ArchiveIsInvalid extends FileServiceException {
+    public ArchiveIsInvalid() {
+        super("Archive is invalid");
+    }
+}
@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class BatchIsTooLarge extends FileServiceException {
+    public BatchIsTooLarge() {
+        super("Batch has too many items");
+    }
+}
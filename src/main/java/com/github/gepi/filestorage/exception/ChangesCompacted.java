@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class ChangesCompacted extends FileServiceException {
+    public ChangesCompacted() {
+        super("Changes since the given sequence are no longer in the journal, list the storage again");
+    }
+}
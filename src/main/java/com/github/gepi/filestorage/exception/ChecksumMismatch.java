@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class ChecksumMismatch extends FileServiceException {
+    public ChecksumMismatch() {
+        super("Uploaded content does not match the expected checksum");
+    }
+}
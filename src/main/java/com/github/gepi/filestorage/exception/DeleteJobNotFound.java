@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class DeleteJobNotFound extends FileServiceException {
+    public DeleteJobNotFound() {
+        super("Delete job not found");
+    }
+}
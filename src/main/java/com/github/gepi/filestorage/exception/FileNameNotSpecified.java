@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class FileNameNotSpecified extends FileServiceException {
+    public FileNameNotSpecified() {
+        super("File name is not specified");
+    }
+}
@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class InsufficientStorage extends FileServiceException {
+    public InsufficientStorage() {
+        super("Not enough free space for the upload, retry later");
+    }
+}
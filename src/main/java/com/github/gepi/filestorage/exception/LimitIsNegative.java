@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class LimitIsNegative extends FileServiceException {
+    public LimitIsNegative() {
+        super("The limit must not be negative");
+    }
+}
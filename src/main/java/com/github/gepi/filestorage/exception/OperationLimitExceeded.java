@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class OperationLimitExceeded extends FileServiceException {
+    public OperationLimitExceeded() {
+        super("Too many concurrent operations, retry later");
+    }
+}
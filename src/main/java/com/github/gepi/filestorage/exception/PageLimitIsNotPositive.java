@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class PageLimitIsNotPositive extends FileServiceException {
+    public PageLimitIsNotPositive() {
+        super("The page limit must be positive");
+    }
+}
@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class PathSpansSeveralRoots extends FileServiceException {
+    public PathSpansSeveralRoots() {
+        super("Path is spread over several storage roots");
+    }
+}
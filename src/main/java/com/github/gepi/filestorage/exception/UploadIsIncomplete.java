@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class UploadIsIncomplete extends FileServiceException {
+    public UploadIsIncomplete() {
+        super("Upload is missing some parts");
+    }
+}
@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class UploadPartIsInvalid extends FileServiceException {
+    public UploadPartIsInvalid() {
+        super("Upload part number or size is invalid");
+    }
+}
@@ -0,0 +1,7 @@
+package com.github.gepi.filestorage.exception;
+
+public class UploadSessionNotFound extends FileServiceException {
+    public UploadSessionNotFound() {
+        super("Upload session not found");
+    }
+}
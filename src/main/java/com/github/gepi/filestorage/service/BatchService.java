@@ -0,0 +1,25 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.BatchResult;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+public interface BatchService {
+    /**
+     * Stores the regular file entries of a tar stream below the destination path, keeping their relative paths.
+     * Entries past the item limit are not stored; the first of them is reported and the rest of the stream is not read.
+     */
+    BatchResult uploadTar(InputStream tarInputStream, String destinationFilePath) throws IOException;
+
+    /**
+     * Stores the files below the destination path, under their original file names, which may contain relative paths.
+     */
+    BatchResult upload(List<MultipartFile> files, String destinationFilePath);
+
+    BatchResult delete(List<String> paths, boolean hard);
+
+    BatchResult stat(List<String> paths);
+}
@@ -0,0 +1,214 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.BatchItemResult;
+import com.github.gepi.filestorage.dto.BatchResult;
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import com.github.gepi.filestorage.exception.ArchiveIsInvalid;
+import com.github.gepi.filestorage.exception.BatchIsTooLarge;
+import com.github.gepi.filestorage.exception.FileNameNotSpecified;
+import com.github.gepi.filestorage.exception.FileServiceException;
+import com.github.gepi.filestorage.exception.InsufficientStorage;
+import com.github.gepi.filestorage.exception.OperationLimitExceeded;
+import com.github.gepi.filestorage.exception.PathNotExist;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Runs the items of a batch on a shared pool of a bounded number of threads, each item through
+ * the {@link FileService} like a single request, and reports the outcome of every item instead
+ * of failing the batch on the first error.
+ * <p>
+ * A tar stream is read on the calling thread. Entries up to {@code maxBufferedEntrySize} are
+ * read into memory and stored by the pool while the next entries are read; at most twice the
+ * parallelism of them are held at a time, so memory stays bounded whatever the archive size.
+ * Larger entries are streamed into the storage by the calling thread.
+ * <p>
+ * The number of items is checked as the archive is read: the entry past the limit is reported
+ * as invalid and neither it nor any later entry is stored, while the items stored before it
+ * are kept and reported as usual.
+ */
+@Slf4j
+public class BatchServiceImpl implements BatchService, Closeable {
+    private final FileService fileService;
+    private final int maxItems;
+    private final int maxBufferedEntrySize;
+    private final int maxBufferedEntries;
+    private final ExecutorService batchPool;
+
+    public BatchServiceImpl(FileService fileService, int parallelism, int maxItems, int maxBufferedEntrySize) {
+        this.fileService = Objects.requireNonNull(fileService);
+        this.maxItems = maxItems;
+        this.maxBufferedEntrySize = maxBufferedEntrySize;
+        this.maxBufferedEntries = 2 * parallelism;
+        this.batchPool = Executors.newFixedThreadPool(parallelism);
+    }
+
+    @Override
+    public BatchResult uploadTar(InputStream tarInputStream, String destinationFilePath) throws IOException {
+        log.debug("uploadTar {}", destinationFilePath);
+
+        List<CompletableFuture<BatchItemResult>> results = new ArrayList<>();
+        Semaphore bufferedEntries = new Semaphore(maxBufferedEntries);
+        TarArchiveInputStream tar = new TarArchiveInputStream(tarInputStream);
+        try {
+            TarArchiveEntry entry;
+            while ((entry = nextEntry(tar)) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String path = joinPath(destinationFilePath, entry.getName());
+                if (results.size() == maxItems) {
+                    results.add(CompletableFuture.completedFuture(
+                            new BatchItemResult(path, BatchItemResult.Status.INVALID, new BatchIsTooLarge().getMessage(), null)));
+                    break;
+                }
+                if (!entry.isFile()) {
+                    results.add(CompletableFuture.completedFuture(
+                            new BatchItemResult(path, BatchItemResult.Status.INVALID, "Not a regular file", null)));
+                } else if (entry.getSize() > maxBufferedEntrySize) {
+                    results.add(CompletableFuture.completedFuture(save(tar, path, entry.getSize())));
+                } else {
+                    bufferedEntries.acquireUninterruptibly();
+                    byte[] content = tar.readNBytes((int) entry.getSize());
+                    results.add(CompletableFuture.supplyAsync(() -> save(new ByteArrayInputStream(content), path, content.length), batchPool)
+                            .whenComplete((result, failure) -> bufferedEntries.release()));
+                }
+            }
+        } finally {
+            CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).join();
+        }
+        return BatchResult.of(results.stream().map(CompletableFuture::join).toList());
+    }
+
+    @Override
+    public BatchResult upload(List<MultipartFile> files, String destinationFilePath) {
+        log.debug("upload batch {}, {}", destinationFilePath, files.size());
+
+        checkItemCount(files.size());
+        return runAll(files, file -> {
+            String path = joinPath(destinationFilePath, Objects.requireNonNullElse(file.getOriginalFilename(), ""));
+            return run(path, () -> {
+                fileService.save(file, parentOf(path), fileNameOf(path));
+                return new FileInfo(trimSlashes(path), fileNameOf(path), file.getSize());
+            });
+        });
+    }
+
+    @Override
+    public BatchResult delete(List<String> paths, boolean hard) {
+        log.debug("delete batch {}, {}", paths.size(), hard);
+
+        checkItemCount(paths.size());
+        return runAll(paths, path -> run(path, () -> {
+            if (hard) {
+                fileService.hardDelete(path);
+            } else {
+                fileService.delete(path);
+            }
+            return null;
+        }));
+    }
+
+    @Override
+    public BatchResult stat(List<String> paths) {
+        log.debug("stat batch {}", paths.size());
+
+        checkItemCount(paths.size());
+        return runAll(paths, path -> run(path, () -> {
+            try (Stream<FileInfo> files = fileService.getFileStream(path, new ListingOptions(0, null, null))) {
+                FileInfo file = files.findFirst().orElseThrow(PathNotExist::new);
+                return new FileInfo(trimSlashes(path), fileNameOf(path), file.getSize(), file.getStoredSize(), file.getCrc32c(), file.getSha256());
+            }
+        }));
+    }
+
+    @Override
+    public void close() {
+        batchPool.shutdownNow();
+    }
+
+    private <T> BatchResult runAll(List<T> items, Function<T, BatchItemResult> action) {
+        List<CompletableFuture<BatchItemResult>> results = items.stream()
+                .map(item -> CompletableFuture.supplyAsync(() -> action.apply(item), batchPool))
+                .toList();
+        return BatchResult.of(results.stream().map(CompletableFuture::join).toList());
+    }
+
+    private BatchItemResult save(InputStream inputStream, String path, long size) {
+        return run(path, () -> {
+            fileService.save(inputStream, size, parentOf(path), fileNameOf(path));
+            return new FileInfo(trimSlashes(path), fileNameOf(path), size);
+        });
+    }
+
+    private static BatchItemResult run(String path, Item item) {
+        try {
+            return new BatchItemResult(path, BatchItemResult.Status.OK, null, item.run());
+        } catch (OperationLimitExceeded | InsufficientStorage e) {
+            return new BatchItemResult(path, BatchItemResult.Status.REJECTED, e.getMessage(), null);
+        } catch (FileServiceException e) {
+            return new BatchItemResult(path, BatchItemResult.Status.INVALID, e.getMessage(), null);
+        } catch (IOException | RuntimeException e) {
+            log.error("Batch item {} failed", path, e);
+            return new BatchItemResult(path, BatchItemResult.Status.FAILED, e.toString(), null);
+        }
+    }
+
+    private void checkItemCount(int count) {
+        if (count > maxItems) {
+            throw new BatchIsTooLarge();
+        }
+    }
+
+    private static TarArchiveEntry nextEntry(TarArchiveInputStream tar) {
+        try {
+            return tar.getNextTarEntry();
+        } catch (IOException e) {
+            log.warn("Cannot read tar entry", e);
+            throw new ArchiveIsInvalid();
+        }
+    }
+
+    private static String joinPath(String directory, String relativePath) {
+        String entryPath = relativePath.startsWith("./") ? relativePath.substring(2) : relativePath;
+        return directory.endsWith("/") ? directory + entryPath : directory + "/" + entryPath;
+    }
+
+    private static String parentOf(String path) {
+        return path.substring(0, path.lastIndexOf('/') + 1);
+    }
+
+    private static String fileNameOf(String path) {
+        String fileName = path.substring(path.lastIndexOf('/') + 1);
+        if (fileName.isEmpty() || fileName.equals(".") || fileName.equals("..")) {
+            throw new FileNameNotSpecified();
+        }
+        return fileName;
+    }
+
+    private static String trimSlashes(String path) {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    @FunctionalInterface
+    private interface Item {
+        FileInfo run() throws IOException;
+    }
+}
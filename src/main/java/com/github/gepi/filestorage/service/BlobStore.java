@@ -0,0 +1,159 @@
+package com.github.gepi.filestorage.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Content-addressed store of file contents. Every distinct content is kept once, named after
+ * its SHA-256 digest; storage paths are hard links to these blobs. The link count maintained by
+ * the file system is the reference count: deleting a storage path just drops a link, and
+ * {@link #collectGarbage()} removes blobs nobody links to any more.
+ * <p>
+ * Hard links require the store to be on the same volume as the storage root and a file system
+ * exposing the {@code unix} attribute view.
+ */
+@Slf4j
+public class BlobStore {
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String OBJECTS_DIRECTORY = "objects";
+    private static final String TEMP_DIRECTORY = "tmp";
+    private static final int MAX_LINK_ATTEMPTS = 3;
+
+    private final Path objects;
+    private final Path temp;
+    private final Duration gracePeriod;
+    private final Clock clock;
+
+    public BlobStore(Path storePath, Duration gracePeriod) throws IOException {
+        this(storePath, gracePeriod, Clock.systemUTC());
+    }
+
+    public BlobStore(Path storePath, Duration gracePeriod, Clock clock) throws IOException {
+        if (!storePath.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+            throw new IllegalArgumentException("The blob store requires a file system with hard link counts");
+        }
+        this.objects = Files.createDirectories(storePath.resolve(OBJECTS_DIRECTORY));
+        this.temp = Files.createDirectories(storePath.resolve(TEMP_DIRECTORY));
+        this.gracePeriod = Objects.requireNonNull(gracePeriod);
+        this.clock = Objects.requireNonNull(clock);
+    }
+
+    /**
+     * Checks that links can be created from the store to the given directory.
+     */
+    void checkSameVolume(Path directory) throws IOException {
+        if (!Files.getFileStore(directory).equals(Files.getFileStore(objects))) {
+            throw new IllegalArgumentException("The blob store must be on the same volume as " + directory);
+        }
+    }
+
+    /**
+     * Stores the content, hashing it while it is written, and links it to {@code linkPath}
+     * atomically replacing whatever was there. Returns the number of bytes of the content.
+     * The stream is left open, it belongs to the caller.
+     *
+     * @param publisher atomically renames the new link over {@code linkPath}
+     */
+    long store(InputStream inputStream, Path linkPath, Publisher publisher) throws IOException {
+        Path tempFile = Files.createTempFile(temp, "", ".blob");
+        try {
+            MessageDigest digest = newDigest();
+            long size = Files.copy(new DigestInputStream(inputStream, digest), tempFile, StandardCopyOption.REPLACE_EXISTING);
+            if (size > 0) {
+                link(tempFile, HexFormat.of().formatHex(digest.digest()), linkPath, publisher);
+            }
+            return size;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Removes blobs that are no longer linked from the storage. Blobs younger than the grace
+     * period are kept, they may be about to be linked by a save in progress.
+     */
+    @Scheduled(fixedDelayString = "${fileService.dedup.gcInterval:PT1H}")
+    public void collectGarbage() throws IOException {
+        Instant expiration = clock.instant().minus(gracePeriod);
+        Files.walkFileTree(objects, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.lastModifiedTime().toInstant().isBefore(expiration)
+                        && ((Number) Files.getAttribute(file, "unix:nlink")).intValue() <= 1) {
+                    log.debug("remove unreferenced blob {}", file);
+                    Files.deleteIfExists(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if (exc instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw exc;
+            }
+        });
+    }
+
+    /**
+     * The blob may be collected between being found and being linked, in which case it is
+     * published again from the still existing temporary file. The directory of the link is
+     * created if missing, and created again if it is deleted before the temporary link is in it.
+     */
+    private void link(Path tempFile, String hash, Path linkPath, Publisher publisher) throws IOException {
+        Path blob = objects.resolve(hash.substring(0, 2)).resolve(hash);
+        Path tempLink = linkPath.resolveSibling("." + UUID.randomUUID() + FileServiceImpl.UPLOAD_TEMP_FILE_SUFFIX);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (!Files.exists(blob)) {
+                    Files.createDirectories(blob.getParent());
+                    try {
+                        Files.createLink(blob, tempFile);
+                    } catch (FileAlreadyExistsException e) {
+                        // the same content has just been stored concurrently
+                    }
+                }
+                if (!Files.exists(linkPath.getParent())) {
+                    Files.createDirectories(linkPath.getParent());
+                }
+                Files.createLink(tempLink, blob);
+                publisher.publish(tempLink, linkPath);
+                return;
+            } catch (NoSuchFileException e) {
+                if (attempt == MAX_LINK_ATTEMPTS) {
+                    throw e;
+                }
+            } finally {
+                Files.deleteIfExists(tempLink);
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @FunctionalInterface
+    interface Publisher {
+        void publish(Path link, Path linkPath) throws IOException;
+    }
+}
@@ -0,0 +1,223 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import com.github.gepi.filestorage.exception.OperationLimitExceeded;
+import org.springframework.core.io.Resource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Decorates a {@link FileService} with a separate concurrency limit per kind of operation, so
+ * that a burst of one kind (say, deep listings) cannot take all the threads or disk bandwidth
+ * from the others. A call waits for a permit up to {@code maxWait} and is then rejected with
+ * {@link OperationLimitExceeded}. A listing stream holds its permit until it is closed.
+ */
+public class BulkheadFileService implements FileService, Closeable {
+    private final FileService delegate;
+    private final Bulkhead listBulkhead;
+    private final Bulkhead saveBulkhead;
+    private final Bulkhead loadBulkhead;
+    private final Bulkhead deleteBulkhead;
+
+    /**
+     * Maximal numbers of concurrent operations of each kind, 0 for no limit.
+     */
+    public record Limits(int list, int save, int load, int delete) {
+    }
+
+    public BulkheadFileService(FileService delegate, Limits limits, Duration maxWait) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.listBulkhead = new Bulkhead(limits.list(), maxWait);
+        this.saveBulkhead = new Bulkhead(limits.save(), maxWait);
+        this.loadBulkhead = new Bulkhead(limits.load(), maxWait);
+        this.deleteBulkhead = new Bulkhead(limits.delete(), maxWait);
+    }
+
+    @Override
+    public List<FileInfo> getFileList(String pathString, Boolean deepDive) {
+        listBulkhead.acquire();
+        try {
+            return delegate.getFileList(pathString, deepDive);
+        } finally {
+            listBulkhead.release();
+        }
+    }
+
+    @Override
+    public Stream<FileInfo> getFileStream(String pathString, ListingOptions options) {
+        listBulkhead.acquire();
+        try {
+            return delegate.getFileStream(pathString, options).onClose(listBulkhead::release);
+        } catch (RuntimeException e) {
+            listBulkhead.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Path save(MultipartFile multipartFile, String destinationFilePath, String destinationFileName) throws IOException {
+        saveBulkhead.acquire();
+        try {
+            return delegate.save(multipartFile, destinationFilePath, destinationFileName);
+        } finally {
+            saveBulkhead.release();
+        }
+    }
+
+    @Override
+    public Path save(InputStream inputStream, String destinationFilePath, String destinationFileName) throws IOException {
+        saveBulkhead.acquire();
+        try {
+            return delegate.save(inputStream, destinationFilePath, destinationFileName);
+        } finally {
+            saveBulkhead.release();
+        }
+    }
+
+    @Override
+    public Path save(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        saveBulkhead.acquire();
+        try {
+            return delegate.save(inputStream, size, destinationFilePath, destinationFileName);
+        } finally {
+            saveBulkhead.release();
+        }
+    }
+
+    @Override
+    public FileInfo saveAndDescribe(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        saveBulkhead.acquire();
+        try {
+            return delegate.saveAndDescribe(inputStream, size, destinationFilePath, destinationFileName);
+        } finally {
+            saveBulkhead.release();
+        }
+    }
+
+    @Override
+    public Path save(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException {
+        saveBulkhead.acquire();
+        try {
+            return delegate.save(sourceFile, destinationFilePath, destinationFileName);
+        } finally {
+            saveBulkhead.release();
+        }
+    }
+
+    @Override
+    public FileInfo saveAndDescribe(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException {
+        saveBulkhead.acquire();
+        try {
+            return delegate.saveAndDescribe(sourceFile, destinationFilePath, destinationFileName);
+        } finally {
+            saveBulkhead.release();
+        }
+    }
+
+    /**
+     * Only looking the file up is limited, the content is streamed afterwards by the caller.
+     */
+    @Override
+    public Resource load(String path) {
+        loadBulkhead.acquire();
+        try {
+            return delegate.load(path);
+        } finally {
+            loadBulkhead.release();
+        }
+    }
+
+    @Override
+    public Optional<Resource> loadCompressed(String path) {
+        loadBulkhead.acquire();
+        try {
+            return delegate.loadCompressed(path);
+        } finally {
+            loadBulkhead.release();
+        }
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return delegate.exists(path);
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        deleteBulkhead.acquire();
+        try {
+            delegate.delete(path);
+        } finally {
+            deleteBulkhead.release();
+        }
+    }
+
+    @Override
+    public void hardDelete(String path) throws IOException {
+        deleteBulkhead.acquire();
+        try {
+            delegate.hardDelete(path);
+        } finally {
+            deleteBulkhead.release();
+        }
+    }
+
+    @Override
+    public void moveOut(String path, Path destination) throws IOException {
+        deleteBulkhead.acquire();
+        try {
+            delegate.moveOut(path, destination);
+        } finally {
+            deleteBulkhead.release();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+
+    private static final class Bulkhead {
+        private final Semaphore permits;
+        private final long maxWaitNanos;
+
+        private Bulkhead(int limit, Duration maxWait) {
+            this.permits = limit > 0 ? new Semaphore(limit) : null;
+            this.maxWaitNanos = maxWait.toNanos();
+        }
+
+        private void acquire() {
+            if (permits == null) {
+                return;
+            }
+            try {
+                if (!permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                    throw new OperationLimitExceeded();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new OperationLimitExceeded();
+            }
+        }
+
+        private void release() {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Decorates a {@link FileService} with a read-through cache of small, frequently read files. The
+ * content is held off-heap in direct buffers, so a hit is served by copying memory straight
+ * into the response without opening the file.
+ * <p>
+ * The cache is bounded by the total size of the cached content. Eviction follows the CLOCK
+ * approximation of LRU: a hit only marks its entry as referenced, without taking a lock, and
+ * the eviction hand gives referenced entries a second chance. Files larger than
+ * {@code maxFileSize} are not cached.
+ * <p>
+ * Saving, deleting or moving out a path through this service invalidates it and everything
+ * below it. A file that was being read into the cache while it was changed is not cached.
+ * Changes made behind the service are picked up once an entry is older than {@code maxAge}.
+ * Compressed content sent as it is to gzip clients is not cached.
+ */
+@Slf4j
+public class CachingFileService implements FileService, Closeable {
+    private final FileService delegate;
+    private final long maxSize;
+    private final int maxFileSize;
+    private final long maxAgeNanos;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Deque<Entry> clock = new ArrayDeque<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final AtomicLong generation = new AtomicLong();
+    private long size;
+    private int removedInClock;
+
+    /**
+     * @param maxSize     total size of the cached content in bytes
+     * @param maxFileSize size of the largest file to cache, at most {@code maxSize}
+     * @param maxAge      time after which an entry is read again from the storage
+     */
+    public CachingFileService(FileService delegate, long maxSize, int maxFileSize, Duration maxAge) {
+        if (maxFileSize > maxSize) {
+            throw new IllegalArgumentException("The largest cached file must fit into the cache");
+        }
+        this.delegate = Objects.requireNonNull(delegate);
+        this.maxSize = maxSize;
+        this.maxFileSize = maxFileSize;
+        this.maxAgeNanos = maxAge.toNanos();
+    }
+
+    @Override
+    public List<FileInfo> getFileList(String pathString, Boolean deepDive) {
+        return delegate.getFileList(pathString, deepDive);
+    }
+
+    @Override
+    public Stream<FileInfo> getFileStream(String pathString, ListingOptions options) {
+        return delegate.getFileStream(pathString, options);
+    }
+
+    @Override
+    public Path save(MultipartFile multipartFile, String destinationFilePath, String destinationFileName) throws IOException {
+        try {
+            return delegate.save(multipartFile, destinationFilePath, destinationFileName);
+        } finally {
+            invalidateFile(destinationFilePath + "/" + destinationFileName);
+        }
+    }
+
+    @Override
+    public Path save(InputStream inputStream, String destinationFilePath, String destinationFileName) throws IOException {
+        try {
+            return delegate.save(inputStream, destinationFilePath, destinationFileName);
+        } finally {
+            invalidateFile(destinationFilePath + "/" + destinationFileName);
+        }
+    }
+
+    @Override
+    public Path save(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        try {
+            return delegate.save(inputStream, size, destinationFilePath, destinationFileName);
+        } finally {
+            invalidateFile(destinationFilePath + "/" + destinationFileName);
+        }
+    }
+
+    @Override
+    public FileInfo saveAndDescribe(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        try {
+            return delegate.saveAndDescribe(inputStream, size, destinationFilePath, destinationFileName);
+        } finally {
+            invalidateFile(destinationFilePath + "/" + destinationFileName);
+        }
+    }
+
+    @Override
+    public Path save(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException {
+        try {
+            return delegate.save(sourceFile, destinationFilePath, destinationFileName);
+        } finally {
+            invalidateFile(destinationFilePath + "/" + destinationFileName);
+        }
+    }
+
+    @Override
+    public FileInfo saveAndDescribe(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException {
+        try {
+            return delegate.saveAndDescribe(sourceFile, destinationFilePath, destinationFileName);
+        } finally {
+            invalidateFile(destinationFilePath + "/" + destinationFileName);
+        }
+    }
+
+    @Override
+    public Resource load(String path) {
+        String key = cacheKey(path);
+        if (key == null) {
+            return delegate.load(path);
+        }
+        Entry entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.loadedAtNanos < maxAgeNanos) {
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            hits.increment();
+            return new CachedResource(entry);
+        }
+        misses.increment();
+
+        long loadGeneration = generation.get();
+        Resource resource = delegate.load(path);
+        try {
+            long contentLength = resource.contentLength();
+            if (contentLength > maxFileSize) {
+                return resource;
+            }
+            entry = read(key, resource, (int) contentLength);
+        } catch (IOException e) {
+            log.debug("cannot cache {}", path, e);
+            return resource;
+        }
+        if (entry == null) {
+            return delegate.load(path);
+        }
+        put(entry, loadGeneration);
+        return new CachedResource(entry);
+    }
+
+    @Override
+    public Optional<Resource> loadCompressed(String path) {
+        return delegate.loadCompressed(path);
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return delegate.exists(path);
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        try {
+            delegate.delete(path);
+        } finally {
+            invalidateTree(path);
+        }
+    }
+
+    @Override
+    public void hardDelete(String path) throws IOException {
+        try {
+            delegate.hardDelete(path);
+        } finally {
+            invalidateTree(path);
+        }
+    }
+
+    @Override
+    public void moveOut(String path, Path destination) throws IOException {
+        try {
+            delegate.moveOut(path, destination);
+        } finally {
+            invalidateTree(path);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("filestorage.cache.hits", hits, LongAdder::sum)
+                .description("Loads served from the hot file cache")
+                .register(registry);
+        FunctionCounter.builder("filestorage.cache.misses", misses, LongAdder::sum)
+                .description("Loads that had to read the file from the storage")
+                .register(registry);
+        FunctionCounter.builder("filestorage.cache.evictions", evictions, LongAdder::sum)
+                .description("Entries evicted to make room for others")
+                .register(registry);
+        Gauge.builder("filestorage.cache.size", this, CachingFileService::getSize)
+                .description("Bytes of content held by the hot file cache")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("filestorage.cache.entries", entries, Map::size)
+                .description("Files held by the hot file cache")
+                .register(registry);
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Reads the content into a direct buffer; returns null when the file turns out to be of
+     * another length than announced, that is, it was replaced in between.
+     */
+    private static Entry read(String key, Resource resource, int contentLength) throws IOException {
+        long lastModified = resource.lastModified();
+        ByteBuffer content = ByteBuffer.allocateDirect(contentLength + 1);
+        try (ReadableByteChannel channel = resource.readableChannel()) {
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+                // until the end of the file or one byte more than announced
+            }
+        }
+        if (content.position() != contentLength) {
+            return null;
+        }
+        return new Entry(key, content.flip().asReadOnlyBuffer(), lastModified, resource.getFilename(), System.nanoTime());
+    }
+
+    /**
+     * Adds the entry unless the storage changed since it started to be read, then evicts until the content fits.
+     * The entry is added before the generation is checked: an invalidation that finds no entry
+     * has already moved the generation on, so the entry is taken out again here.
+     */
+    private synchronized void put(Entry entry, long loadGeneration) {
+        Entry replaced = entries.put(entry.key, entry);
+        if (replaced != null) {
+            remove(replaced);
+        }
+        if (generation.get() != loadGeneration) {
+            entries.remove(entry.key, entry);
+            return;
+        }
+        clock.addLast(entry);
+        size += entry.size();
+        while (size > maxSize) {
+            Entry candidate = clock.pollFirst();
+            if (candidate.removed) {
+                removedInClock--;
+            } else if (candidate.referenced) {
+                candidate.referenced = false;
+                clock.addLast(candidate);
+            } else {
+                entries.remove(candidate.key, candidate);
+                candidate.removed = true;
+                size -= candidate.size();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * A saved path can only be cached as a file, so the cache is locked only when it holds that very entry.
+     */
+    private void invalidateFile(String path) {
+        generation.incrementAndGet();
+        String key = ShardedFileService.key(path);
+        if (entries.containsKey(key)) {
+            invalidate(key, false);
+        }
+    }
+
+    /**
+     * A deleted or moved out path may be a directory, whose cached files are found by a scan of
+     * the whole cache; a path cached as a file has nothing below it and is removed on its own.
+     */
+    private void invalidateTree(String path) {
+        generation.incrementAndGet();
+        if (entries.isEmpty()) {
+            return;
+        }
+        String key = ShardedFileService.key(path);
+        invalidate(key, !entries.containsKey(key));
+    }
+
+    private synchronized void invalidate(String key, boolean below) {
+        Entry invalidated = entries.remove(key);
+        if (invalidated != null) {
+            remove(invalidated);
+        }
+        if (below) {
+            String prefix = key.isEmpty() ? "" : key + "/";
+            for (Entry entry : entries.values()) {
+                if (entry.key.startsWith(prefix)) {
+                    entries.remove(entry.key, entry);
+                    remove(entry);
+                }
+            }
+        }
+        if (removedInClock > clock.size() / 2) {
+            clock.removeIf(entry -> entry.removed);
+            removedInClock = 0;
+        }
+    }
+
+    /**
+     * Accounts for an entry taken out of the map; it stays in the clock until the hand or a compaction reaches it.
+     */
+    private void remove(Entry entry) {
+        entry.removed = true;
+        size -= entry.size();
+        removedInClock++;
+    }
+
+    /**
+     * Paths stepping up with {@code ..} are left to the storage, which rejects those leaving the root.
+     */
+    private static String cacheKey(String path) {
+        for (String segment : path.replace('\\', '/').split("/")) {
+            if (segment.equals("..")) {
+                return null;
+            }
+        }
+        return ShardedFileService.key(path);
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final ByteBuffer content;
+        private final long lastModified;
+        private final String fileName;
+        private final long loadedAtNanos;
+        private volatile boolean referenced;
+        private boolean removed;
+
+        private Entry(String key, ByteBuffer content, long lastModified, String fileName, long loadedAtNanos) {
+            this.key = key;
+            this.content = content;
+            this.lastModified = lastModified;
+            this.fileName = fileName;
+            this.loadedAtNanos = loadedAtNanos;
+        }
+
+        private int size() {
+            return content.limit();
+        }
+    }
+
+    private static final class CachedResource extends AbstractResource {
+        private final Entry entry;
+
+        private CachedResource(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteBufferInputStream(entry.content.duplicate());
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long contentLength() {
+            return entry.content.remaining();
+        }
+
+        @Override
+        public long lastModified() {
+            return entry.lastModified;
+        }
+
+        @Override
+        public String getFilename() {
+            return entry.fileName;
+        }
+
+        @Override
+        public String getDescription() {
+            return "cached file [" + entry.key + "]";
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return length == 0 ? 0 : -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.ChangeEvent;
+import com.github.gepi.filestorage.exception.ChangesCompacted;
+
+import java.io.IOException;
+import java.util.stream.Stream;
+
+/**
+ * Append-only record of the changes made to the storage, numbered by a sequence that only grows,
+ * so that a client can fetch what changed since the last change it has seen instead of listing
+ * the whole tree again.
+ */
+public interface ChangeJournal {
+    ChangeEvent record(ChangeEvent.Type type, String path) throws IOException;
+
+    /**
+     * The changes with a sequence greater than {@code since}, oldest first. The stream has to be closed.
+     *
+     * @throws ChangesCompacted when deletions made after {@code since} are no longer in the journal
+     */
+    Stream<ChangeEvent> getChanges(long since);
+
+    long getLastSequence();
+}
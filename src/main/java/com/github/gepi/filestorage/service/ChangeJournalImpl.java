@@ -0,0 +1,476 @@
+package com.github.gepi.filestorage.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.gepi.filestorage.dto.ChangeEvent;
+import com.github.gepi.filestorage.exception.ChangesCompacted;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Stream;
+
+/**
+ * {@link ChangeJournal} kept as newline-delimited JSON in segment files named after the
+ * sequence of their first change. Changes are appended to the last segment, which is sealed
+ * once it grows past {@code maxSegmentSize}; a reader finds its starting segment by the name
+ * and reads on from there.
+ * <p>
+ * Sealed segments are compacted in the background: of the changes to a path only the latest
+ * is kept, and deletions older than {@code deletionRetention} are dropped. Everything a client
+ * can derive from the journal stays correct, except for a client whose cursor precedes a
+ * dropped deletion; it gets {@link ChangesCompacted} and has to list the storage again.
+ * <p>
+ * Changes made behind the service can be picked up with {@link #watch}.
+ */
+@Slf4j
+public class ChangeJournalImpl implements ChangeJournal, Closeable {
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final String COMPACTED_SUFFIX = ".compacted";
+    private static final String HORIZON_FILE_NAME = "horizon";
+    private static final int RECENT_PATHS = 10_000;
+    private static final long SWAP_TIMEOUT_SECONDS = 1;
+
+    private final Path directory;
+    private final long maxSegmentSize;
+    private final Duration deletionRetention;
+    private final ObjectWriter eventWriter;
+    private final ObjectReader eventReader;
+    private final NavigableMap<Long, Path> segments = new TreeMap<>();
+    private final Map<String, ChangeEvent> recentByPath = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ChangeEvent> eldest) {
+            return size() > RECENT_PATHS;
+        }
+    };
+    private final Map<String, ChangeWatcher.FileIdentity> savedIdentityByPath = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ChangeWatcher.FileIdentity> eldest) {
+            return size() > RECENT_PATHS;
+        }
+    };
+    private final StampedLock readers = new StampedLock();
+    private final AtomicLong eventsCompacted = new AtomicLong();
+    private OutputStream activeSegment;
+    private long activeSegmentSize;
+    private long lastSequence;
+    private long horizon;
+    private ChangeWatcher watcher;
+
+    /**
+     * @param maxSegmentSize    size in bytes after which a segment is sealed and a new one started
+     * @param deletionRetention time for which deletions are kept once their segment is sealed
+     */
+    public ChangeJournalImpl(Path directory, long maxSegmentSize, Duration deletionRetention) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxSegmentSize = maxSegmentSize;
+        this.deletionRetention = Objects.requireNonNull(deletionRetention);
+        ObjectMapper objectMapper = new ObjectMapper();
+        this.eventWriter = objectMapper.writerFor(ChangeEvent.class);
+        this.eventReader = objectMapper.readerFor(ChangeEvent.class);
+        recover();
+    }
+
+    /**
+     * Watches the roots for changes made behind the service and records them as well.
+     */
+    public synchronized void watch(List<Path> roots) throws IOException {
+        if (watcher == null) {
+            watcher = new ChangeWatcher(roots, this);
+            watcher.start();
+        }
+    }
+
+    /**
+     * While the roots are watched, the file a save published is remembered, so that the watcher
+     * seeing that very file does not record the save again. A save the watcher has already seen
+     * on the disk, before the service got to record it, is not recorded again either.
+     */
+    @Override
+    public synchronized ChangeEvent record(ChangeEvent.Type type, String path) throws IOException {
+        log.debug("record {} {}", type, path);
+
+        if (type != ChangeEvent.Type.SAVED || watcher == null) {
+            return append(type, path);
+        }
+        ChangeWatcher.FileIdentity identity = watcher.identify(path);
+        if (identity != null && identity.equals(savedIdentityByPath.get(path))) {
+            return recentByPath.get(path);
+        }
+        ChangeEvent event = append(type, path);
+        if (identity != null) {
+            savedIdentityByPath.put(path, identity);
+        }
+        return event;
+    }
+
+    private ChangeEvent append(ChangeEvent.Type type, String path) throws IOException {
+        ChangeEvent event = new ChangeEvent(lastSequence + 1, type, path, System.currentTimeMillis());
+        byte[] line = (eventWriter.writeValueAsString(event) + "\n").getBytes(StandardCharsets.UTF_8);
+        if (activeSegment == null) {
+            openSegment(event.sequence());
+        }
+        try {
+            activeSegment.write(line);
+        } catch (IOException e) {
+            closeActiveSegment();
+            throw e;
+        }
+        activeSegmentSize += line.length;
+        lastSequence = event.sequence();
+        recentByPath.remove(path);
+        recentByPath.put(path, event);
+        savedIdentityByPath.remove(path);
+        if (activeSegmentSize >= maxSegmentSize) {
+            closeActiveSegment();
+        }
+        return event;
+    }
+
+    /**
+     * Records a change seen on the disk unless it is the echo of one already recorded: the very
+     * file whose save was recorded last, or a path gone along with one already recorded as deleted.
+     *
+     * @param identity the file seen, null for a deletion
+     */
+    synchronized ChangeEvent recordObserved(ChangeEvent.Type type, String path, ChangeWatcher.FileIdentity identity) throws IOException {
+        if (type == ChangeEvent.Type.SAVED && identity.equals(savedIdentityByPath.get(path))) {
+            return null;
+        } else if (type == ChangeEvent.Type.DELETED && isRecentlyDeleted(path)) {
+            return null;
+        }
+        ChangeEvent event = append(type, path);
+        if (type == ChangeEvent.Type.SAVED) {
+            savedIdentityByPath.put(path, identity);
+        }
+        return event;
+    }
+
+    /**
+     * Changes recorded after the call has started are not returned, so that the stream ends even
+     * while changes keep coming.
+     */
+    @Override
+    public Stream<ChangeEvent> getChanges(long since) {
+        log.debug("getChanges {}", since);
+
+        long stamp = readers.readLock();
+        try {
+            List<Path> segmentsToRead;
+            long through;
+            synchronized (this) {
+                if (since < horizon) {
+                    throw new ChangesCompacted();
+                }
+                through = lastSequence;
+                Long first = segments.floorKey(since + 1);
+                segmentsToRead = new ArrayList<>(first == null ? segments.values() : segments.tailMap(first).values());
+            }
+            return segmentsToRead.stream()
+                    .flatMap(this::readSegment)
+                    .dropWhile(event -> event.sequence() <= since)
+                    .takeWhile(event -> event.sequence() <= through)
+                    .onClose(() -> readers.unlockRead(stamp));
+        } catch (RuntimeException e) {
+            readers.unlockRead(stamp);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    synchronized long getHorizon() {
+        return horizon;
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Rewrites the sealed segments into one, without the changes superseded by a later change
+     * to the same path and without expired deletions. The new segment is swapped in only while
+     * no reader is open; otherwise the compaction is left to the next run.
+     */
+    @Scheduled(initialDelayString = "${fileService.changes.compactionInterval:PT10M}",
+            fixedDelayString = "${fileService.changes.compactionInterval:PT10M}")
+    public void compact() throws IOException {
+        List<Path> allSegments;
+        NavigableMap<Long, Path> sealed;
+        long lastSealedSequence;
+        long through;
+        synchronized (this) {
+            if (segments.size() < 2) {
+                return;
+            }
+            allSegments = new ArrayList<>(segments.values());
+            sealed = new TreeMap<>(segments.headMap(segments.lastKey()));
+            lastSealedSequence = segments.lastKey() - 1;
+            through = lastSequence;
+        }
+        log.debug("compact {} segments", sealed.size());
+
+        Map<String, Long> latestByKey = new HashMap<>();
+        try (Stream<ChangeEvent> events = allSegments.stream().flatMap(this::readSegment)
+                .takeWhile(event -> event.sequence() <= through)) {
+            events.forEach(event -> latestByKey.put(compactionKey(event), event.sequence()));
+        }
+
+        long firstSequence = sealed.firstKey();
+        long expiredBefore = System.currentTimeMillis() - deletionRetention.toMillis();
+        long newHorizon = getHorizon();
+        long dropped = 0;
+        Path compacting = directory.resolve(firstSequence + COMPACTING_SUFFIX);
+        try (FileChannel channel = FileChannel.open(compacting, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+             OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(channel))) {
+            for (Path segment : sealed.values()) {
+                try (Stream<ChangeEvent> events = readSegment(segment)) {
+                    for (Iterator<ChangeEvent> iterator = events.iterator(); iterator.hasNext(); ) {
+                        ChangeEvent event = iterator.next();
+                        if (latestByKey.get(compactionKey(event)) != event.sequence()) {
+                            dropped++;
+                        } else if (event.type() != ChangeEvent.Type.SAVED && event.timestamp() <= expiredBefore) {
+                            dropped++;
+                            newHorizon = Math.max(newHorizon, event.sequence());
+                        } else {
+                            outputStream.write((eventWriter.writeValueAsString(event) + "\n").getBytes(StandardCharsets.UTF_8));
+                        }
+                    }
+                }
+            }
+            outputStream.flush();
+            channel.force(true);
+        }
+        if (dropped == 0 && sealed.size() == 1) {
+            Files.delete(compacting);
+            return;
+        }
+
+        long stamp;
+        try {
+            stamp = readers.tryWriteLock(SWAP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stamp = 0;
+        }
+        if (stamp == 0) {
+            log.debug("Change journal is being read, compaction postponed");
+            Files.delete(compacting);
+            return;
+        }
+        try {
+            if (newHorizon > getHorizon()) {
+                writeHorizon(newHorizon);
+            }
+            Path compacted = Files.move(compacting, directory.resolve(firstSequence + "-" + lastSealedSequence + COMPACTED_SUFFIX),
+                    StandardCopyOption.ATOMIC_MOVE);
+            Path segment = finishCompaction(compacted, firstSequence, lastSealedSequence);
+            synchronized (this) {
+                horizon = newHorizon;
+                segments.subMap(firstSequence, true, lastSealedSequence, true).clear();
+                segments.put(firstSequence, segment);
+            }
+        } finally {
+            readers.unlockWrite(stamp);
+        }
+        eventsCompacted.addAndGet(dropped);
+        log.info("Change journal compacted, {} segments merged, {} changes dropped", sealed.size(), dropped);
+    }
+
+    @Override
+    public void close() throws IOException {
+        ChangeWatcher watcherToClose;
+        synchronized (this) {
+            watcherToClose = watcher;
+            watcher = null;
+            closeActiveSegment();
+        }
+        if (watcherToClose != null) {
+            watcherToClose.close();
+        }
+    }
+
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("filestorage.changes.sequence", this, ChangeJournalImpl::getLastSequence)
+                .description("Sequence of the last recorded change")
+                .register(registry);
+        Gauge.builder("filestorage.changes.segments", this, ChangeJournalImpl::getSegmentCount)
+                .description("Segment files of the change journal")
+                .register(registry);
+        FunctionCounter.builder("filestorage.changes.compacted", eventsCompacted, AtomicLong::get)
+                .description("Changes dropped from the journal by compaction")
+                .register(registry);
+    }
+
+    /**
+     * Completes a compaction interrupted after its result was written, drops leftovers of those
+     * interrupted before, and cuts off a change that was only partly written.
+     */
+    private void recover() throws IOException {
+        Path horizonFile = directory.resolve(HORIZON_FILE_NAME);
+        if (Files.exists(horizonFile)) {
+            horizon = Long.parseLong(Files.readString(horizonFile).trim());
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                if (fileName.endsWith(COMPACTING_SUFFIX)) {
+                    Files.delete(file);
+                } else if (fileName.endsWith(COMPACTED_SUFFIX)) {
+                    String[] range = fileName.substring(0, fileName.length() - COMPACTED_SUFFIX.length()).split("-");
+                    finishCompaction(file, Long.parseLong(range[0]), Long.parseLong(range[1]));
+                }
+            }
+        }
+        segments.putAll(listSegments());
+
+        lastSequence = horizon;
+        if (segments.isEmpty()) {
+            return;
+        }
+        Map.Entry<Long, Path> last = segments.lastEntry();
+        lastSequence = Math.max(lastSequence, last.getKey() - 1);
+        byte[] content = Files.readAllBytes(last.getValue());
+        int end = content.length;
+        while (end > 0 && content[end - 1] != '\n') {
+            end--;
+        }
+        if (end < content.length) {
+            log.warn("Dropping a partly written change at the end of {}", last.getValue());
+            try (FileChannel channel = FileChannel.open(last.getValue(), StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+            }
+        }
+        try (Stream<ChangeEvent> events = readSegment(last.getValue())) {
+            events.reduce((first, second) -> second)
+                    .ifPresent(event -> lastSequence = Math.max(lastSequence, event.sequence()));
+        }
+    }
+
+    /**
+     * Replaces the segments covering the sequences from {@code firstSequence} to {@code lastSequence} with the compacted one.
+     */
+    private Path finishCompaction(Path compacted, long firstSequence, long lastSequence) throws IOException {
+        for (Path segment : listSegments().subMap(firstSequence, true, lastSequence, true).values()) {
+            Files.delete(segment);
+        }
+        return Files.move(compacted, directory.resolve(segmentName(firstSequence)), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private NavigableMap<Long, Path> listSegments() throws IOException {
+        NavigableMap<Long, Path> segmentsBySequence = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                segmentsBySequence.put(Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        return segmentsBySequence;
+    }
+
+    private void writeHorizon(long sequence) throws IOException {
+        Path temporaryFile = Files.writeString(directory.resolve(HORIZON_FILE_NAME + COMPACTING_SUFFIX), Long.toString(sequence));
+        Files.move(temporaryFile, directory.resolve(HORIZON_FILE_NAME), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void openSegment(long firstSequence) throws IOException {
+        Path segment = directory.resolve(segmentName(firstSequence));
+        activeSegment = Files.newOutputStream(segment, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        activeSegmentSize = Files.size(segment);
+        segments.putIfAbsent(firstSequence, segment);
+    }
+
+    private void closeActiveSegment() throws IOException {
+        if (activeSegment != null) {
+            OutputStream segment = activeSegment;
+            activeSegment = null;
+            segment.close();
+        }
+    }
+
+    private Stream<ChangeEvent> readSegment(Path segment) {
+        try {
+            return Files.lines(segment, StandardCharsets.UTF_8)
+                    .map(this::parse)
+                    .filter(Objects::nonNull);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A line is incomplete only while it is being appended or after a failed write; either way it is skipped.
+     */
+    private ChangeEvent parse(String line) {
+        try {
+            return eventReader.readValue(line);
+        } catch (JsonProcessingException e) {
+            log.debug("Skipping an incomplete change journal line: {}", line);
+            return null;
+        }
+    }
+
+    /**
+     * Whether the latest recent change to the path or one of its ancestors removed it.
+     */
+    private boolean isRecentlyDeleted(String path) {
+        ChangeEvent latest = null;
+        for (String ancestor = path; ; ancestor = ancestor.substring(0, ancestor.lastIndexOf('/'))) {
+            ChangeEvent recorded = recentByPath.get(ancestor);
+            if (recorded != null && (latest == null || recorded.sequence() > latest.sequence())) {
+                latest = recorded;
+            }
+            if (ancestor.indexOf('/') < 0) {
+                break;
+            }
+        }
+        return latest != null && latest.type() == ChangeEvent.Type.DELETED;
+    }
+
+    /**
+     * A rescan is not superseded by changes to the path itself, only by a later rescan.
+     */
+    private static String compactionKey(ChangeEvent event) {
+        return event.type() == ChangeEvent.Type.RESCAN ? "\0" + event.path() : event.path();
+    }
+
+    private static String segmentName(long firstSequence) {
+        return String.format("%020d%s", firstSequence, SEGMENT_SUFFIX);
+    }
+}
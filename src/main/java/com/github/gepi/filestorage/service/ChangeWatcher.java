@@ -0,0 +1,206 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.ChangeEvent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Records the changes made to the roots behind the service in a {@link ChangeJournalImpl}, through
+ * a {@link WatchService} registered on every directory of the trees. The service's own changes
+ * show up here as well and are recognized by the journal as already recorded. A directory
+ * appearing with content, moved in for example, is recorded file by file; a watch overflow is
+ * recorded as a rescan of the directory.
+ */
+@Slf4j
+class ChangeWatcher implements Closeable {
+    private static final long WATCH_POLL_TIMEOUT_MILLIS = 1000;
+
+    private final List<Path> roots;
+    private final ChangeJournalImpl journal;
+    private final Map<WatchKey, Path> rootsByKey = new HashMap<>();
+    private WatchService watchService;
+    private Thread watchThread;
+
+    ChangeWatcher(List<Path> roots, ChangeJournalImpl journal) {
+        this.roots = List.copyOf(roots);
+        this.journal = journal;
+    }
+
+    /**
+     * Registers the trees before returning, so that no change made afterwards is missed.
+     */
+    synchronized void start() throws IOException {
+        if (watchThread != null) {
+            return;
+        }
+        watchService = roots.get(0).getFileSystem().newWatchService();
+        for (Path root : roots) {
+            register(root, root, false);
+        }
+        watchThread = new Thread(this::run, "change-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchThread == null) {
+            return;
+        }
+        watchThread.interrupt();
+        watchService.close();
+        watchThread = null;
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                processWatchEvents();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("Change watcher stopped");
+        }
+    }
+
+    private void processWatchEvents() throws InterruptedException {
+        WatchKey key = watchService.poll(WATCH_POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (key == null) {
+            return;
+        }
+        Path root = rootsByKey.get(key);
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            try {
+                if (event.kind() == OVERFLOW) {
+                    log.warn("Change watch overflow in {}", directory);
+                    journal.record(ChangeEvent.Type.RESCAN, relativePath(root, directory));
+                    register(root, directory, false);
+                } else {
+                    Path path = directory.resolve((Path) event.context());
+                    if (!FileServiceImpl.isTemporaryFile(path)) {
+                        observe(root, path, event.kind());
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Cannot record a change in {}", directory, e);
+            }
+        }
+        if (!key.reset()) {
+            rootsByKey.remove(key);
+        }
+    }
+
+    private void observe(Path root, Path path, WatchEvent.Kind<?> kind) throws IOException {
+        if (kind == ENTRY_DELETE) {
+            String relativePath = relativePath(root, path);
+            if (!existsInAnyRoot(relativePath)) {
+                journal.recordObserved(ChangeEvent.Type.DELETED, relativePath, null);
+            }
+            return;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        if (attributes.isDirectory()) {
+            if (kind == ENTRY_CREATE) {
+                register(root, path, true);
+            }
+        } else if (attributes.isRegularFile()) {
+            journal.recordObserved(ChangeEvent.Type.SAVED, relativePath(root, path), FileIdentity.of(attributes));
+        }
+    }
+
+    private void register(Path root, Path start, boolean recordFiles) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                rootsByKey.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), root);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (recordFiles && attrs.isRegularFile() && !FileServiceImpl.isTemporaryFile(file)) {
+                    journal.recordObserved(ChangeEvent.Type.SAVED, relativePath(root, file), FileIdentity.of(attrs));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if (exc instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw exc;
+            }
+        });
+    }
+
+    /**
+     * A copy deleted from one shard while the path lives on in another, left behind by a
+     * rebalance for example, is not a deletion of the path.
+     */
+    private boolean existsInAnyRoot(String relativePath) {
+        for (Path root : roots) {
+            if (Files.exists(root.resolve(relativePath), LinkOption.NOFOLLOW_LINKS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The identity of the latest modified copy of the path over the roots, or null if it exists in none.
+     */
+    FileIdentity identify(String relativePath) {
+        BasicFileAttributes latest = null;
+        for (Path root : roots) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(root.resolve(relativePath), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (latest == null || attributes.lastModifiedTime().compareTo(latest.lastModifiedTime()) > 0) {
+                    latest = attributes;
+                }
+            } catch (IOException e) {
+                // not in this root
+            }
+        }
+        return latest == null ? null : FileIdentity.of(latest);
+    }
+
+    private static String relativePath(Path root, Path path) {
+        return ShardedFileService.key(root.relativize(path).toString());
+    }
+
+    /**
+     * What tells one published file from another at the same path: a file moved in, copied with
+     * its times preserved or extracted from an archive may carry any modification time, but it
+     * is a different file with a modification time and size of its own.
+     */
+    record FileIdentity(Object fileKey, long lastModified, long size) {
+        static FileIdentity of(BasicFileAttributes attributes) {
+            return new FileIdentity(attributes.fileKey(), attributes.lastModifiedTime().toMillis(), attributes.size());
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.ScrubResult;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Re-reads the stored files in the background and compares their content with the checksums
+ * stored when they were saved, to find bit rot before a client does. Files without checksums,
+ * saved before checksums were enabled, are skipped.
+ * <p>
+ * Reading is throttled to {@code maxBytesPerSecond} so that a pass does not compete with client
+ * traffic for the disks. A file replaced while it is read is skipped rather than reported.
+ * <p>
+ * At that rate a pass over a large store takes hours, so {@link #start(Duration)} runs the passes on
+ * a thread of the scrubber's own rather than on the shared scheduler, whose single thread also
+ * runs the clean-ups of upload sessions, trash, blobs and the change journal.
+ */
+@Slf4j
+public class ChecksumScrubber implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final List<Path> roots;
+    private final long maxBytesPerSecond;
+    private final AtomicLong filesVerified = new AtomicLong();
+    private final AtomicLong bytesVerified = new AtomicLong();
+    private final AtomicLong corruptedFiles = new AtomicLong();
+    private final ScheduledExecutorService scrubPool = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+            .name("checksum-scrubber").daemon().factory());
+
+    /**
+     * @param maxBytesPerSecond read rate limit, 0 for none
+     */
+    public ChecksumScrubber(List<Path> roots, long maxBytesPerSecond) {
+        this.roots = List.copyOf(Objects.requireNonNull(roots));
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * Starts scrubbing every {@code interval}, counted from the end of the previous pass.
+     */
+    public void start(Duration interval) {
+        log.debug("start {}", interval);
+
+        scrubPool.scheduleWithFixedDelay(() -> {
+            try {
+                scrub();
+            } catch (InterruptedIOException e) {
+                log.debug("Scrubbing stopped");
+            } catch (IOException | RuntimeException e) {
+                log.error("Scrubbing failed", e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public ScrubResult scrub() throws IOException {
+        log.debug("scrub {}", roots);
+
+        Throttle throttle = new Throttle(maxBytesPerSecond);
+        long[] totals = new long[2];
+        List<String> corrupted = new ArrayList<>();
+        for (Path root : roots) {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    if (!attributes.isRegularFile() || FileServiceImpl.isTemporaryFile(file)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    long bytes = verify(file, attributes, throttle, corrupted);
+                    if (bytes >= 0) {
+                        totals[0]++;
+                        totals[1] += bytes;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                    if (e instanceof NoSuchFileException) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    throw e;
+                }
+            });
+        }
+        filesVerified.addAndGet(totals[0]);
+        bytesVerified.addAndGet(totals[1]);
+        corruptedFiles.addAndGet(corrupted.size());
+        log.info("scrubbed {} files, {} bytes, {} corrupted", totals[0], totals[1], corrupted.size());
+        return new ScrubResult(totals[0], totals[1], corrupted);
+    }
+
+    /**
+     * Stops the scheduled passes, interrupting a pass in progress.
+     */
+    @Override
+    public void close() {
+        scrubPool.shutdownNow();
+    }
+
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("filestorage.scrub.files", filesVerified, AtomicLong::get)
+                .description("Number of stored files whose checksums were verified")
+                .register(registry);
+        FunctionCounter.builder("filestorage.scrub.bytes", bytesVerified, AtomicLong::get)
+                .description("Bytes of content read to verify checksums")
+                .register(registry);
+        FunctionCounter.builder("filestorage.scrub.corrupted", corruptedFiles, AtomicLong::get)
+                .description("Number of stored files found not to match their checksums")
+                .register(registry);
+    }
+
+    /**
+     * A compressed file whose stored content no longer decompresses is reported as corrupted as well.
+     * Returns the number of bytes verified, -1 when the file has no checksums or was replaced while it was read.
+     */
+    private static long verify(Path file, BasicFileAttributes attributes, Throttle throttle, List<String> corrupted) throws IOException {
+        FileChecksums expected = FileChecksums.readFrom(file);
+        if (expected == null) {
+            return -1;
+        }
+        FileChecksums actual;
+        long size;
+        try (InputStream stored = throttle.wrap(Files.newInputStream(file));
+             ChecksummingInputStream content = new ChecksummingInputStream(
+                     GzipCompression.getLogicalSize(file) < 0 ? stored : new GZIPInputStream(stored, BUFFER_SIZE))) {
+            size = content.transferTo(OutputStream.nullOutputStream());
+            actual = content.getChecksums();
+        } catch (NoSuchFileException e) {
+            return -1;
+        } catch (ZipException | EOFException e) {
+            if (isReplaced(file, attributes)) {
+                return -1;
+            }
+            log.error("{} cannot be decompressed: {}", file, e.getMessage());
+            corrupted.add(file.toString());
+            return attributes.size();
+        }
+        if (!actual.equals(expected) && !isReplaced(file, attributes)) {
+            log.error("{} does not match its checksums: stored {}, actual {}", file, expected, actual);
+            corrupted.add(file.toString());
+        }
+        return size;
+    }
+
+    private static boolean isReplaced(Path file, BasicFileAttributes attributes) {
+        try {
+            BasicFileAttributes current = Files.readAttributes(file, BasicFileAttributes.class);
+            return !Objects.equals(current.fileKey(), attributes.fileKey())
+                    || !current.lastModifiedTime().equals(attributes.lastModifiedTime());
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Holds the reads of a pass back to the rate limit, measured from the start of the pass.
+     */
+    private static final class Throttle {
+        private final long maxBytesPerSecond;
+        private final long startNanos = System.nanoTime();
+        private long bytes;
+
+        private Throttle(long maxBytesPerSecond) {
+            this.maxBytesPerSecond = maxBytesPerSecond;
+        }
+
+        private InputStream wrap(InputStream inputStream) {
+            if (maxBytesPerSecond <= 0) {
+                return inputStream;
+            }
+            return new FilterInputStream(inputStream) {
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = in.read(buffer, offset, Math.min(length, BUFFER_SIZE));
+                    if (read > 0) {
+                        acquire(read);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        private void acquire(int count) throws InterruptedIOException {
+            bytes += count;
+            long aheadNanos = (long) (bytes * 1e9 / maxBytesPerSecond) - (System.nanoTime() - startNanos);
+            if (aheadNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(aheadNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Scrubbing interrupted");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.exception.ChecksumMismatch;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.zip.CRC32C;
+
+/**
+ * The counterpart of {@link ChecksummingInputStream#verifying} for content that arrives in
+ * buffers rather than through a stream, such as a reactive request body: the buffers are
+ * checksummed as they are written and {@link #verify} is called once the content is complete.
+ */
+public class ChecksumVerifier {
+    private final CRC32C crc32c;
+    private final MessageDigest sha256;
+    private final String expectedCrc32c;
+    private final String expectedSha256;
+
+    private ChecksumVerifier(String expectedCrc32c, String expectedSha256) {
+        this.crc32c = expectedCrc32c == null ? null : new CRC32C();
+        this.sha256 = expectedSha256 == null ? null : ChecksummingInputStream.newSha256();
+        this.expectedCrc32c = ChecksummingInputStream.normalize(expectedCrc32c);
+        this.expectedSha256 = ChecksummingInputStream.normalize(expectedSha256);
+    }
+
+    /**
+     * A verifier of the given hex checksums, a null checksum is not checked; null when both are null.
+     */
+    public static ChecksumVerifier of(String expectedCrc32c, String expectedSha256) {
+        if (expectedCrc32c == null && expectedSha256 == null) {
+            return null;
+        }
+        return new ChecksumVerifier(expectedCrc32c, expectedSha256);
+    }
+
+    /**
+     * Checksums the remaining bytes of the buffer, leaving its position as it is.
+     */
+    public void update(ByteBuffer buffer) {
+        if (crc32c != null) {
+            crc32c.update(buffer.duplicate());
+        }
+        if (sha256 != null) {
+            sha256.update(buffer.duplicate());
+        }
+    }
+
+    public void verify() {
+        if (expectedCrc32c != null && !expectedCrc32c.equals(String.format("%08x", crc32c.getValue()))
+                || expectedSha256 != null && !expectedSha256.equals(HexFormat.of().formatHex(sha256.digest()))) {
+            throw new ChecksumMismatch();
+        }
+    }
+}
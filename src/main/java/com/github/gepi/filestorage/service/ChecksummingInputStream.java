@@ -0,0 +1,175 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.exception.ChecksumMismatch;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.zip.CRC32C;
+
+/**
+ * Computes CRC32C and SHA-256 of the bytes read through it, so the content is checksummed while
+ * it is copied instead of being read a second time.
+ * <p>
+ * A stream created by {@link #verifying} computes only the checksums it was given and throws
+ * {@link ChecksumMismatch} when the end of the content is reached with different ones. Saving
+ * from such a stream therefore fails before the file is published.
+ */
+public class ChecksummingInputStream extends FilterInputStream {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CRC32C crc32c;
+    private final MessageDigest sha256;
+    private final String expectedCrc32c;
+    private final String expectedSha256;
+    private boolean verified;
+
+    public ChecksummingInputStream(InputStream inputStream) {
+        this(inputStream, true, true, null, null);
+    }
+
+    private ChecksummingInputStream(InputStream inputStream, boolean crc32c, boolean sha256,
+                                    String expectedCrc32c, String expectedSha256) {
+        super(inputStream);
+        this.crc32c = crc32c ? new CRC32C() : null;
+        this.sha256 = sha256 ? newSha256() : null;
+        this.expectedCrc32c = expectedCrc32c;
+        this.expectedSha256 = expectedSha256;
+    }
+
+    /**
+     * Wraps the stream to check its content against the given hex checksums; a null checksum is not checked
+     * and the stream is returned as it is when both are null.
+     */
+    public static InputStream verifying(InputStream inputStream, String expectedCrc32c, String expectedSha256) {
+        if (expectedCrc32c == null && expectedSha256 == null) {
+            return inputStream;
+        }
+        return new ChecksummingInputStream(inputStream, expectedCrc32c != null, expectedSha256 != null,
+                normalize(expectedCrc32c), normalize(expectedSha256));
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            onEnd();
+        } else {
+            update(new byte[]{(byte) b}, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = in.read(buffer, offset, length);
+        if (read < 0) {
+            onEnd();
+        } else {
+            update(buffer, offset, read);
+        }
+        return read;
+    }
+
+    /**
+     * Skipped bytes are part of the content too, so they are read rather than skipped.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(n, 0))];
+        long skipped = 0;
+        int read;
+        while (skipped < n && (read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) > 0) {
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public long transferTo(OutputStream outputStream) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long transferred = 0;
+        int read;
+        while ((read = read(buffer, 0, buffer.length)) >= 0) {
+            outputStream.write(buffer, 0, read);
+            transferred += read;
+        }
+        return transferred;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * The checksums of the content read so far; meant to be called once the end has been reached.
+     */
+    FileChecksums getChecksums() {
+        return new FileChecksums(crc32cHex(), sha256Hex());
+    }
+
+    private void update(byte[] buffer, int offset, int length) {
+        if (crc32c != null) {
+            crc32c.update(buffer, offset, length);
+        }
+        if (sha256 != null) {
+            sha256.update(buffer, offset, length);
+        }
+    }
+
+    private void onEnd() {
+        if (verified || expectedCrc32c == null && expectedSha256 == null) {
+            return;
+        }
+        verified = true;
+        if (expectedCrc32c != null && !expectedCrc32c.equals(crc32cHex())
+                || expectedSha256 != null && !expectedSha256.equals(sha256Hex())) {
+            throw new ChecksumMismatch();
+        }
+    }
+
+    private String crc32cHex() {
+        return crc32c == null ? null : String.format("%08x", crc32c.getValue());
+    }
+
+    /**
+     * Digests a clone, so that the checksum can be taken more than once.
+     */
+    private String sha256Hex() {
+        if (sha256 == null) {
+            return null;
+        }
+        try {
+            return HexFormat.of().formatHex(((MessageDigest) sha256.clone()).digest());
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String normalize(String checksum) {
+        return checksum == null ? null : checksum.trim().toLowerCase(Locale.ROOT);
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.gepi.filestorage.service;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The logical content of a file stored gzip-compressed. It is not a file resource, so that
+ * nobody transfers the compressed bytes as they are instead of reading the stream.
+ */
+class DecompressingResource extends AbstractResource {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final long logicalSize;
+
+    DecompressingResource(Path path, long logicalSize) {
+        this.path = path;
+        this.logicalSize = logicalSize;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new GZIPInputStream(Files.newInputStream(path), BUFFER_SIZE);
+    }
+
+    @Override
+    public boolean exists() {
+        return Files.exists(path);
+    }
+
+    @Override
+    public long contentLength() {
+        return logicalSize;
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return Files.getLastModifiedTime(path).toMillis();
+    }
+
+    @Override
+    public String getFilename() {
+        return path.getFileName().toString();
+    }
+
+    @Override
+    public String getDescription() {
+        return "compressed file [" + path + "]";
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.exception.FileIsEmpty;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * {@link FileServiceImpl} that keeps each distinct content once in a {@link BlobStore} and
+ * stores files as hard links to it. The hash is only known once the whole stream is read, so
+ * every upload is first written in full to a temporary file in the store, which is dropped when
+ * its content is already stored: a duplicate costs the write and, while it lasts, the space of
+ * one copy, but takes no space once saved. Deletes only remove links; unreferenced blobs are
+ * reclaimed by the store's garbage collection.
+ * <p>
+ * Saves are not subject to {@link UploadAdmission}: neither the number of concurrent writers nor
+ * the free space of the store is checked.
+ * <p>
+ * Linked files share their data, so they must never be modified in place. The service itself
+ * always replaces files by renaming.
+ */
+@Slf4j
+public class DeduplicatingFileService extends FileServiceImpl {
+    private final BlobStore blobStore;
+
+    public DeduplicatingFileService(Path rootAbsolutePath, BlobStore blobStore) throws IOException {
+        super(rootAbsolutePath);
+        this.blobStore = Objects.requireNonNull(blobStore);
+        blobStore.checkSameVolume(rootAbsolutePath);
+    }
+
+    /**
+     * The content is stored as a blob, the size is not needed.
+     */
+    @Override
+    public FileInfo saveAndDescribe(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        log.debug("upload deduplicated stream {}, {}", destinationFilePath, destinationFileName);
+
+        Path targetPath = getAbsoluteResolvedWithRoot(removeFirstSlash(destinationFilePath)).resolve(destinationFileName);
+        long storedSize = blobStore.store(inputStream, targetPath, this::publish);
+        if (storedSize == 0) {
+            throw new FileIsEmpty();
+        }
+        return new FileInfo(getRoot().relativize(targetPath).toString(), destinationFileName, storedSize);
+    }
+
+    /**
+     * The content has to be hashed anyway, so the file is read like any other upload and
+     * then removed.
+     */
+    @Override
+    public FileInfo saveAndDescribe(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException {
+        FileInfo savedFile;
+        try (var sourceInputStream = Files.newInputStream(sourceFile)) {
+            savedFile = saveAndDescribe(sourceInputStream, -1, destinationFilePath, destinationFileName);
+        }
+        Files.delete(sourceFile);
+        return savedFile;
+    }
+}
@@ -0,0 +1,13 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.DeleteJobInfo;
+
+import java.io.IOException;
+
+public interface DeleteJobService {
+    DeleteJobInfo submit(String path) throws IOException;
+
+    DeleteJobInfo getInfo(String jobId);
+
+    void removeFinishedJobs() throws IOException;
+}
@@ -0,0 +1,198 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.DeleteJobInfo;
+import com.github.gepi.filestorage.exception.DeleteJobNotFound;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Deletes subtrees without holding up the caller. A submitted path is first renamed into the
+ * trash directory, which is cheap, atomic and makes it disappear from the storage at once;
+ * the trash entry is then reclaimed by a pool of a bounded number of threads shared by all
+ * jobs, one task per directory. The trash directory must be on the same volume as the root.
+ */
+@Slf4j
+public class DeleteJobServiceImpl implements DeleteJobService, Closeable {
+    private final FileService fileService;
+    private final Path trashRoot;
+    private final Duration jobTtl;
+    private final Clock clock;
+    private final ForkJoinPool deletePool;
+    private final Map<String, DeleteJob> jobs = new ConcurrentHashMap<>();
+
+    public DeleteJobServiceImpl(FileService fileService, Path trashRoot, int parallelism, Duration jobTtl) throws IOException {
+        this(fileService, trashRoot, parallelism, jobTtl, Clock.systemUTC());
+    }
+
+    public DeleteJobServiceImpl(FileService fileService, Path trashRoot, int parallelism, Duration jobTtl, Clock clock) throws IOException {
+        this.fileService = Objects.requireNonNull(fileService);
+        this.trashRoot = Files.createDirectories(trashRoot);
+        this.jobTtl = Objects.requireNonNull(jobTtl);
+        this.clock = Objects.requireNonNull(clock);
+        this.deletePool = new ForkJoinPool(parallelism);
+    }
+
+    @Override
+    public DeleteJobInfo submit(String path) throws IOException {
+        log.debug("submit delete {}", path);
+
+        // registered before the rename so that the trash entry is never taken for an orphan
+        DeleteJob job = new DeleteJob(UUID.randomUUID().toString(), path);
+        Path trashPath = trashRoot.resolve(job.jobId);
+        jobs.put(job.jobId, job);
+        try {
+            fileService.moveOut(path, trashPath);
+        } catch (IOException | RuntimeException e) {
+            jobs.remove(job.jobId);
+            throw e;
+        }
+        start(job, trashPath);
+        return job.toInfo();
+    }
+
+    @Override
+    public DeleteJobInfo getInfo(String jobId) {
+        DeleteJob job = jobs.get(jobId);
+        if (job == null) {
+            throw new DeleteJobNotFound();
+        }
+        return job.toInfo();
+    }
+
+    /**
+     * Forgets jobs finished longer than the TTL ago and restarts the reclamation of trash
+     * entries left over by jobs that did not survive a restart.
+     */
+    @Override
+    @Scheduled(fixedDelayString = "${fileService.asyncDelete.cleanupInterval:PT10M}")
+    public void removeFinishedJobs() throws IOException {
+        Instant expiration = clock.instant().minus(jobTtl);
+        jobs.values().removeIf(job -> job.finishedAt != null && job.finishedAt.isBefore(expiration));
+
+        try (Stream<Path> trashPaths = Files.list(trashRoot)) {
+            for (Path trashPath : trashPaths.toList()) {
+                DeleteJob orphanJob = new DeleteJob(trashPath.getFileName().toString(), null);
+                if (jobs.putIfAbsent(orphanJob.jobId, orphanJob) == null) {
+                    log.info("resume reclaiming orphaned trash {}", trashPath);
+                    start(orphanJob, trashPath);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        deletePool.shutdownNow();
+    }
+
+    private void start(DeleteJob job, Path trashPath) {
+        deletePool.execute(() -> {
+            try {
+                new DeleteTask(trashPath, job).invoke();
+                job.finish(DeleteJobInfo.Status.COMPLETED, null, clock.instant());
+            } catch (RuntimeException e) {
+                Throwable cause = e instanceof UncheckedIOException ? e.getCause() : e;
+                log.error("Delete job {} failed", job.jobId, cause);
+                job.finish(DeleteJobInfo.Status.FAILED, cause.toString(), clock.instant());
+            }
+        });
+    }
+
+    /**
+     * Deletes the files of one directory and forks a task per subdirectory; the directory
+     * itself goes once all of them are done. Attributes are read once per entry, the size
+     * of a deleted file is taken from them.
+     */
+    private static final class DeleteTask extends RecursiveAction {
+        private final Path path;
+        private final DeleteJob job;
+
+        private DeleteTask(Path path, DeleteJob job) {
+            this.path = path;
+            this.job = job;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (!attributes.isDirectory()) {
+                    deleteFile(path, attributes);
+                    return;
+                }
+                List<DeleteTask> subdirectoryTasks = new ArrayList<>();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                    for (Path entry : entries) {
+                        BasicFileAttributes entryAttributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (entryAttributes.isDirectory()) {
+                            subdirectoryTasks.add(new DeleteTask(entry, job));
+                        } else {
+                            deleteFile(entry, entryAttributes);
+                        }
+                    }
+                }
+                invokeAll(subdirectoryTasks);
+                Files.deleteIfExists(path);
+            } catch (NoSuchFileException e) {
+                // already reclaimed
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void deleteFile(Path file, BasicFileAttributes attributes) throws IOException {
+            if (Files.deleteIfExists(file)) {
+                job.filesDeleted.increment();
+                job.bytesReclaimed.add(attributes.size());
+            }
+        }
+    }
+
+    private static final class DeleteJob {
+        private final String jobId;
+        private final String path;
+        private final LongAdder filesDeleted = new LongAdder();
+        private final LongAdder bytesReclaimed = new LongAdder();
+        private volatile DeleteJobInfo.Status status = DeleteJobInfo.Status.RUNNING;
+        private volatile String error;
+        private volatile Instant finishedAt;
+
+        private DeleteJob(String jobId, String path) {
+            this.jobId = jobId;
+            this.path = path;
+        }
+
+        private void finish(DeleteJobInfo.Status status, String error, Instant finishedAt) {
+            this.error = error;
+            this.finishedAt = finishedAt;
+            this.status = status;
+        }
+
+        private DeleteJobInfo toInfo() {
+            return new DeleteJobInfo(jobId, path, status, filesDeleted.sum(), bytesReclaimed.sum(), error);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import com.github.gepi.filestorage.exception.PathNotExist;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a subtree as a tar or zip archive straight into an output stream while the tree is
+ * walked; nothing but the read-ahead window is held in memory and no temporary file is made.
+ * <p>
+ * To keep the output busy while small files are opened and read, the contents of the next
+ * {@code readAheadFiles} files up to {@code maxReadAheadFileSize} are loaded by a pool shared by
+ * all downloads ahead of the writer. Larger files are streamed by the writer itself when their
+ * turn comes.
+ */
+@Slf4j
+public class FileArchiver implements Closeable {
+    public enum Format {
+        TAR("application/x-tar", ".tar"),
+        ZIP("application/zip", ".zip");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileService fileService;
+    private final int readAheadFiles;
+    private final int maxReadAheadFileSize;
+    private final ExecutorService readAheadPool;
+
+    public FileArchiver(FileService fileService, int parallelism, int readAheadFiles, int maxReadAheadFileSize) {
+        this.fileService = Objects.requireNonNull(fileService);
+        this.readAheadFiles = readAheadFiles;
+        this.maxReadAheadFileSize = maxReadAheadFileSize;
+        this.readAheadPool = Executors.newFixedThreadPool(parallelism);
+    }
+
+    /**
+     * Writes the files below the path, with names relative to it; a file path gives an archive of that one file.
+     * The output stream is finished but not closed.
+     */
+    public void write(String path, Format format, OutputStream outputStream) throws IOException {
+        log.debug("archive {}, {}", path, format);
+
+        String directory = path.endsWith("/") ? path : path + "/";
+        String fileName = path.substring(path.lastIndexOf('/') + 1);
+        try (Stream<FileInfo> files = fileService.getFileStream(path, new ListingOptions(ListingOptions.UNLIMITED_DEPTH, null, null));
+             ArchiveWriter writer = format == Format.TAR ? new TarWriter(outputStream) : new ZipWriter(outputStream)) {
+            Iterator<FileInfo> iterator = files.iterator();
+            Deque<PendingFile> window = new ArrayDeque<>();
+            while (iterator.hasNext() || !window.isEmpty()) {
+                while (iterator.hasNext() && window.size() < readAheadFiles + 1) {
+                    FileInfo file = iterator.next();
+                    boolean single = file.getFullFileName().isEmpty();
+                    window.add(readAhead(single ? path : directory + file.getFullFileName(),
+                            single ? fileName : file.getFullFileName(), file.getSize()));
+                }
+                write(window.poll(), writer);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        readAheadPool.shutdownNow();
+    }
+
+    private PendingFile readAhead(String path, String entryName, long size) {
+        if (size > maxReadAheadFileSize) {
+            return new PendingFile(path, entryName, null);
+        }
+        return new PendingFile(path, entryName, CompletableFuture.supplyAsync(() -> {
+            Resource resource = fileService.load(path);
+            try (InputStream inputStream = resource.getInputStream()) {
+                return new LoadedFile(inputStream.readAllBytes(), resource.lastModified());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, readAheadPool));
+    }
+
+    private void write(PendingFile file, ArchiveWriter writer) throws IOException {
+        try {
+            if (file.content != null) {
+                LoadedFile loaded = file.content.join();
+                writer.write(file.entryName, loaded.content.length, loaded.lastModified, new ByteArrayInputStream(loaded.content));
+                return;
+            }
+            Resource resource = fileService.load(file.path);
+            try (InputStream inputStream = resource.getInputStream()) {
+                writer.write(file.entryName, resource.contentLength(), resource.lastModified(), inputStream);
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException cause) {
+                throw cause.getCause();
+            }
+            if (!(e.getCause() instanceof PathNotExist)) {
+                throw e;
+            }
+            log.debug("skip {} deleted while archiving", file.path);
+        } catch (PathNotExist e) {
+            log.debug("skip {} deleted while archiving", file.path);
+        }
+    }
+
+    private record PendingFile(String path, String entryName, CompletableFuture<LoadedFile> content) {
+    }
+
+    private record LoadedFile(byte[] content, long lastModified) {
+    }
+
+    private interface ArchiveWriter extends Closeable {
+        void write(String entryName, long size, long lastModified, InputStream content) throws IOException;
+    }
+
+    private static final class TarWriter implements ArchiveWriter {
+        private final TarArchiveOutputStream tar;
+
+        private TarWriter(OutputStream outputStream) {
+            tar = new TarArchiveOutputStream(new NonClosingOutputStream(outputStream));
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        }
+
+        /**
+         * The size goes into the entry header before the content, so a file that changed in between
+         * is cut or padded with zeros to the announced size rather than corrupting the archive.
+         */
+        @Override
+        public void write(String entryName, long size, long lastModified, InputStream content) throws IOException {
+            TarArchiveEntry entry = new TarArchiveEntry(entryName);
+            entry.setSize(size);
+            entry.setModTime(new Date(lastModified));
+            tar.putArchiveEntry(entry);
+            long written = copy(content, tar, size);
+            for (; written < size; written++) {
+                tar.write(0);
+            }
+            tar.closeArchiveEntry();
+        }
+
+        @Override
+        public void close() throws IOException {
+            tar.close();
+        }
+    }
+
+    private static final class ZipWriter implements ArchiveWriter {
+        private final ZipOutputStream zip;
+
+        private ZipWriter(OutputStream outputStream) {
+            zip = new ZipOutputStream(new NonClosingOutputStream(outputStream));
+            zip.setLevel(Deflater.BEST_SPEED);
+        }
+
+        @Override
+        public void write(String entryName, long size, long lastModified, InputStream content) throws IOException {
+            ZipEntry entry = new ZipEntry(entryName);
+            entry.setTime(lastModified);
+            zip.putNextEntry(entry);
+            copy(content, zip, Long.MAX_VALUE);
+            zip.closeEntry();
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    private static long copy(InputStream inputStream, OutputStream outputStream, long limit) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long copied = 0;
+        int read;
+        while (copied < limit && (read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, limit - copied))) > 0) {
+            outputStream.write(buffer, 0, read);
+            copied += read;
+        }
+        return copied;
+    }
+
+    /**
+     * Lets the archive streams write their trailer on close while the response stream stays open.
+     */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        private NonClosingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
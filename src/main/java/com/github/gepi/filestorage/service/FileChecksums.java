@@ -0,0 +1,71 @@
+package com.github.gepi.filestorage.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.List;
+
+/**
+ * Checksums of the logical content of a stored file, kept in user-defined file attributes. Like
+ * the compression mark they are set on the temporary file before it is renamed into place, so
+ * a stored file never carries the checksums of another content.
+ */
+record FileChecksums(String crc32c, String sha256) {
+    private static final String CRC32C_ATTRIBUTE = "filestorage.crc32c";
+    private static final String SHA256_ATTRIBUTE = "filestorage.sha256";
+
+    /**
+     * Reads the whole content once to checksum it, for files that were not written through a {@link ChecksummingInputStream}.
+     */
+    static FileChecksums compute(Path file) throws IOException {
+        try (ChecksummingInputStream inputStream = new ChecksummingInputStream(Files.newInputStream(file))) {
+            inputStream.transferTo(OutputStream.nullOutputStream());
+            return inputStream.getChecksums();
+        }
+    }
+
+    void writeTo(Path file) throws IOException {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        view.write(CRC32C_ATTRIBUTE, StandardCharsets.US_ASCII.encode(crc32c));
+        view.write(SHA256_ATTRIBUTE, StandardCharsets.US_ASCII.encode(sha256));
+    }
+
+    /**
+     * Returns the stored checksums of the file, null when it has none or does not exist.
+     */
+    static FileChecksums readFrom(Path file) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return null;
+        }
+        try {
+            return readFrom(view, view.list());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the checksums from an already listed attribute view, null when it has none.
+     */
+    static FileChecksums readFrom(UserDefinedFileAttributeView view, List<String> attributes) throws IOException {
+        if (!attributes.contains(CRC32C_ATTRIBUTE) || !attributes.contains(SHA256_ATTRIBUTE)) {
+            return null;
+        }
+        return new FileChecksums(read(view, CRC32C_ATTRIBUTE), read(view, SHA256_ATTRIBUTE));
+    }
+
+    private static String read(UserDefinedFileAttributeView view, String attribute) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(view.size(attribute));
+        view.read(attribute, buffer);
+        return StandardCharsets.US_ASCII.decode(buffer.flip()).toString();
+    }
+}
@@ -0,0 +1,200 @@
+package com.github.gepi.filestorage.service;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory trie of the storage tree keyed by path components. Directory nodes only hold their
+ * children, file nodes only hold size, modification time and the attributes of a compressed or checksummed file, so an entry costs one small object
+ * plus a map slot in its parent. All operations take paths relative to the storage root and are
+ * safe to call concurrently; readers see a weakly consistent view while the tree is updated.
+ */
+class FileIndex {
+    private final Node root = Node.directory();
+    private final AtomicLong fileCount = new AtomicLong();
+    private final AtomicLong directoryCount = new AtomicLong();
+
+    interface FileVisitor {
+        void visitFile(Path relativePath, long size, long lastModified, StoredAttributes attributes);
+    }
+
+    void putFile(Path relativePath, long size, long lastModified) {
+        putFile(relativePath, size, lastModified, null);
+    }
+
+    /**
+     * @param attributes compression mark and checksums of the file, null when it has none
+     */
+    void putFile(Path relativePath, long size, long lastModified, StoredAttributes attributes) {
+        Node parent = getOrCreateParentDirectory(relativePath);
+        if (parent == null) {
+            return;
+        }
+        Node previous = parent.children.put(relativePath.getFileName().toString(), Node.file(size, lastModified, attributes));
+        if (previous == null) {
+            fileCount.incrementAndGet();
+        } else if (previous.isDirectory()) {
+            fileCount.incrementAndGet();
+            uncount(previous);
+        }
+    }
+
+    void putDirectory(Path relativePath) {
+        Node parent = getOrCreateParentDirectory(relativePath);
+        if (parent == null) {
+            return;
+        }
+        getOrCreateDirectory(parent, relativePath.getFileName().toString());
+    }
+
+    void remove(Path relativePath) {
+        if (isRoot(relativePath)) {
+            clear();
+            return;
+        }
+        Node parent = find(relativePath.getParent());
+        if (parent == null || !parent.isDirectory()) {
+            return;
+        }
+        Node removed = parent.children.remove(relativePath.getFileName().toString());
+        if (removed != null) {
+            uncount(removed);
+        }
+    }
+
+    boolean contains(Path relativePath) {
+        return find(relativePath) != null;
+    }
+
+    /**
+     * Reports files under the given path (or the path itself when it is a file) down to
+     * {@code maxDepth} levels, passing paths relative to the starting point.
+     */
+    void forEachFile(Path relativePath, int maxDepth, FileVisitor visitor) {
+        Node start = find(relativePath);
+        if (start == null) {
+            return;
+        }
+        Path empty = relativePath.getFileSystem().getPath("");
+        if (!start.isDirectory()) {
+            visitor.visitFile(empty, start.size, start.lastModified, start.attributes);
+        } else if (maxDepth > 0) {
+            visitChildren(start, empty, 1, maxDepth, visitor);
+        }
+    }
+
+    long getFileCount() {
+        return fileCount.get();
+    }
+
+    long getDirectoryCount() {
+        return directoryCount.get();
+    }
+
+    void clear() {
+        root.children.clear();
+        fileCount.set(0);
+        directoryCount.set(0);
+    }
+
+    private void visitChildren(Node directory, Path directoryPath, int depth, int maxDepth, FileVisitor visitor) {
+        for (Map.Entry<String, Node> child : directory.children.entrySet()) {
+            Node node = child.getValue();
+            Path childPath = directoryPath.resolve(child.getKey());
+            if (!node.isDirectory()) {
+                visitor.visitFile(childPath, node.size, node.lastModified, node.attributes);
+            } else if (depth < maxDepth) {
+                visitChildren(node, childPath, depth + 1, maxDepth, visitor);
+            }
+        }
+    }
+
+    private Node find(Path relativePath) {
+        if (relativePath == null || isRoot(relativePath)) {
+            return root;
+        }
+        Node node = root;
+        for (Path name : relativePath) {
+            if (!node.isDirectory()) {
+                return null;
+            }
+            node = node.children.get(name.toString());
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private Node getOrCreateParentDirectory(Path relativePath) {
+        if (isRoot(relativePath)) {
+            return null;
+        }
+        Node node = root;
+        Path parent = relativePath.getParent();
+        if (parent != null) {
+            for (Path name : parent) {
+                node = getOrCreateDirectory(node, name.toString());
+            }
+        }
+        return node;
+    }
+
+    private Node getOrCreateDirectory(Node parent, String name) {
+        Node child;
+        while ((child = parent.children.get(name)) == null || !child.isDirectory()) {
+            Node directory = Node.directory();
+            if (child == null ? parent.children.putIfAbsent(name, directory) == null : parent.children.replace(name, child, directory)) {
+                directoryCount.incrementAndGet();
+                if (child != null) {
+                    fileCount.decrementAndGet();
+                }
+                return directory;
+            }
+        }
+        return child;
+    }
+
+    private void uncount(Node node) {
+        if (!node.isDirectory()) {
+            fileCount.decrementAndGet();
+            return;
+        }
+        directoryCount.decrementAndGet();
+        for (Node child : node.children.values()) {
+            uncount(child);
+        }
+    }
+
+    private static boolean isRoot(Path relativePath) {
+        return relativePath.toString().isEmpty();
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children;
+        private final long size;
+        private final long lastModified;
+        private final StoredAttributes attributes;
+
+        private Node(Map<String, Node> children, long size, long lastModified, StoredAttributes attributes) {
+            this.children = children;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.attributes = attributes;
+        }
+
+        static Node directory() {
+            return new Node(new ConcurrentHashMap<>(), 0, 0, null);
+        }
+
+        static Node file(long size, long lastModified, StoredAttributes attributes) {
+            return new Node(null, size, lastModified, attributes);
+        }
+
+        boolean isDirectory() {
+            return children != null;
+        }
+    }
+}
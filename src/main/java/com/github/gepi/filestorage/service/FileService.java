@@ -1,18 +1,64 @@
 package com.github.gepi.filestorage.service;
 
 import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import org.springframework.core.io.Resource;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface FileService {
     List<FileInfo> getFileList(String pathString, Boolean deepDive);
 
+    Stream<FileInfo> getFileStream(String pathString, ListingOptions options);
+
     Path save(MultipartFile multipartFile, String destinationFilePath, String destinationFileName) throws IOException;
 
+    Path save(InputStream inputStream, String destinationFilePath, String destinationFileName) throws IOException;
+
+    /**
+     * Saves content whose size is known before it is read, -1 when it is not, so that the upload
+     * can be admitted or rejected before anything is written.
+     */
+    default Path save(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        return save(inputStream, destinationFilePath, destinationFileName);
+    }
+
+    /**
+     * Saves the content like {@link #save(InputStream, long, String, String)} and describes the
+     * stored file with the sizes and checksums learned while writing it, so that it does not have
+     * to be looked up again.
+     */
+    FileInfo saveAndDescribe(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException;
+
+    Path save(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException;
+
+    /**
+     * Saves the file like {@link #save(Path, String, String)} and describes the stored file like
+     * {@link #saveAndDescribe(InputStream, long, String, String)}.
+     */
+    FileInfo saveAndDescribe(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException;
+
+    Resource load(String path);
+
+    /**
+     * The stored gzip-compressed bytes of the file, empty when the file is not stored compressed.
+     */
+    Optional<Resource> loadCompressed(String path);
+
+    /**
+     * Whether a file or directory exists at the path, as opposed to a listing of it coming out empty.
+     */
+    boolean exists(String path);
+
     void delete(String path) throws IOException;
 
     void hardDelete(String path) throws IOException;
+
+    void moveOut(String path, Path destination) throws IOException;
 }
@@ -1,37 +1,105 @@
 package com.github.gepi.filestorage.service;
 
 import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
 import com.github.gepi.filestorage.exception.DirectoryIsNotEmpty;
 import com.github.gepi.filestorage.exception.PathNotExist;
 import com.github.gepi.filestorage.exception.FileIsEmpty;
 import com.github.gepi.filestorage.exception.ViolationBoundariesRootDirectory;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.util.FileSystemUtils;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 @Slf4j
-public class FileServiceImpl implements FileService {
+public class FileServiceImpl implements FileService, Closeable {
+    static final String UPLOAD_TEMP_FILE_SUFFIX = ".filestorage-upload";
+    private static final int LOCK_STRIPES = 1024;
+
     private final Path root;
+    private final ForkJoinPool listingPool;
+    private final GzipCompression compression;
+    private final boolean checksums;
+    private final boolean userAttributes;
+    private final boolean storedAttributes;
+    private final UploadAdmission admission;
+    private final PathLocks locks = new PathLocks(LOCK_STRIPES);
 
     public FileServiceImpl(String rootAbsolutePathString) {
         this(Path.of(Objects.requireNonNull(rootAbsolutePathString)));
     }
 
     public FileServiceImpl(Path rootAbsolutePath) {
+        this(rootAbsolutePath, 0);
+    }
+
+    /**
+     * @param listingParallelism number of threads listing directories concurrently, 0 to walk the tree on the calling thread
+     */
+    public FileServiceImpl(Path rootAbsolutePath, int listingParallelism) {
+        this(rootAbsolutePath, listingParallelism, null);
+    }
+
+    /**
+     * @param listingParallelism number of threads listing directories concurrently, 0 to walk the tree on the calling thread
+     * @param compression        how to compress stored files, null to store them as they are
+     */
+    public FileServiceImpl(Path rootAbsolutePath, int listingParallelism, GzipCompression compression) {
+        this(rootAbsolutePath, listingParallelism, compression, false);
+    }
+
+    /**
+     * @param listingParallelism number of threads listing directories concurrently, 0 to walk the tree on the calling thread
+     * @param compression        how to compress stored files, null to store them as they are
+     * @param checksums          whether to store the CRC32C and SHA-256 of saved files and report them in listings
+     */
+    public FileServiceImpl(Path rootAbsolutePath, int listingParallelism, GzipCompression compression, boolean checksums) {
+        this(rootAbsolutePath, listingParallelism, compression, checksums, null);
+    }
+
+    /**
+     * @param listingParallelism number of threads listing directories concurrently, 0 to walk the tree on the calling thread
+     * @param compression        how to compress stored files, null to store them as they are
+     * @param checksums          whether to store the CRC32C and SHA-256 of saved files and report them in listings
+     * @param admission          limits on the uploads writing into the root, null for none
+     */
+    public FileServiceImpl(Path rootAbsolutePath, int listingParallelism, GzipCompression compression, boolean checksums,
+                           UploadAdmission admission) {
         if (!Files.exists(rootAbsolutePath)) {
             throw new IllegalArgumentException("The root path does not exist");
         }
         this.root = rootAbsolutePath;
+        this.listingPool = listingParallelism > 0 ? new ForkJoinPool(listingParallelism) : null;
+        this.userAttributes = supportsUserAttributes(rootAbsolutePath);
+        this.compression = compression != null && isEnabled(userAttributes, rootAbsolutePath, "files are stored uncompressed") ? compression : null;
+        this.checksums = checksums && isEnabled(userAttributes, rootAbsolutePath, "checksums are not stored");
+        this.storedAttributes = userAttributes && markStoredAttributes(rootAbsolutePath, this.compression != null || this.checksums);
+        this.admission = admission;
     }
 
     @Override
@@ -44,16 +112,32 @@ public class FileServiceImpl implements FileService {
         if (!Files.exists(path)) {
             return fileInfos;
         }
-        try (Stream<Path> pathStream = Files.walk(path, deepDive ? Integer.MAX_VALUE : 0)) {
-            fileInfos = pathStream.filter(Files::isRegularFile)
-                    .map(path1 -> new FileInfo(path.relativize(path1), fileSizeOrException(path1)))
-                    .toList();
+        int maxDepth = deepDive ? Integer.MAX_VALUE : 0;
+        try {
+            fileInfos = listingPool == null ? FileTreeLister.list(path, maxDepth) : FileTreeLister.listParallel(path, maxDepth, listingPool);
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new UncheckedIOException(e);
+        }
+        if (hasStoredAttributes()) {
+            fileInfos.replaceAll(fileInfo -> withStoredAttributes(path, fileInfo));
         }
         return fileInfos;
     }
 
+    /**
+     * Files are produced lazily while the tree is walked, in a stable order that allows the
+     * listing to be continued from {@link ListingOptions#cursor()}.
+     */
+    @Override
+    public Stream<FileInfo> getFileStream(String pathString, ListingOptions options) {
+        log.debug("getFileStream {}, {}", pathString, options);
+
+        Path path = getAbsoluteResolvedWithRoot(removeFirstSlash(pathString));
+        Stream<FileInfo> fileStream = StreamSupport.stream(Spliterators.spliteratorUnknownSize(new SortedFileTreeIterator(path, options),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+        return hasStoredAttributes() ? fileStream.map(fileInfo -> withStoredAttributes(path, fileInfo)) : fileStream;
+    }
+
     @Override
     public Path save(MultipartFile uploadedFile, String destinationFilePath, String destinationFileName) throws IOException {
         log.debug("upload {}, {}, {}, {}", uploadedFile.getOriginalFilename(), uploadedFile.getSize(), destinationFileName, destinationFileName);
@@ -62,32 +146,148 @@ public class FileServiceImpl implements FileService {
             throw new FileIsEmpty();
         }
 
+        try (var uploadedFileInputStream = uploadedFile.getInputStream()) {
+            return save(uploadedFileInputStream, uploadedFile.getSize(), destinationFilePath, destinationFileName);
+        }
+    }
+
+    /**
+     * Streams the content into a temporary file next to the target and atomically renames it,
+     * so readers never observe a partially written file and a failed upload leaves nothing behind.
+     * Only the rename is done under the lock of the target, the content is written without one.
+     * The upload is admitted before anything is created, so a rejected one leaves no trace either.
+     */
+    @Override
+    public Path save(InputStream inputStream, String destinationFilePath, String destinationFileName) throws IOException {
+        return save(inputStream, -1, destinationFilePath, destinationFileName);
+    }
+
+    @Override
+    public Path save(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        saveAndDescribe(inputStream, size, destinationFilePath, destinationFileName);
+        return getAbsoluteResolvedWithRoot(removeFirstSlash(destinationFilePath)).resolve(destinationFileName);
+    }
+
+    /**
+     * A known size is reserved up front; the space for content of unknown size is reserved as it is written.
+     */
+    @Override
+    public FileInfo saveAndDescribe(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        log.debug("upload stream {}, {}, {}", size, destinationFilePath, destinationFileName);
+
         Path targetPath = getAbsoluteResolvedWithRoot(removeFirstSlash(destinationFilePath));
+        FileInfo savedFile;
+
+        try (UploadAdmission.Ticket ticket = admission == null ? null : admission.admit(size)) {
+            targetPath = targetPath.resolve(destinationFileName);
+            Path tempPath = createTempFileFor(targetPath);
 
-        if (!Files.exists(targetPath)) {
-            Files.createDirectories(targetPath);
+            try {
+                savedFile = writeContent(ticket == null ? inputStream : ticket.meter(inputStream), tempPath, targetPath);
+                if (savedFile.getSize() == 0) {
+                    throw new FileIsEmpty();
+                }
+                publish(tempPath, targetPath);
+            } finally {
+                Files.deleteIfExists(tempPath);
+            }
         }
+        return savedFile;
+    }
 
-        targetPath = targetPath.resolve(destinationFileName);
+    /**
+     * Takes ownership of an already written file. When it lives on the same file store as the
+     * root it is simply renamed into place, after one read to checksum it if checksums are
+     * enabled; otherwise (or when the content may need to be compressed) its content is streamed
+     * like any upload.
+     */
+    @Override
+    public Path save(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException {
+        saveAndDescribe(sourceFile, destinationFilePath, destinationFileName);
+        return getAbsoluteResolvedWithRoot(removeFirstSlash(destinationFilePath)).resolve(destinationFileName);
+    }
 
-        try (var uploadedFileInputStream = uploadedFile.getInputStream()) {
-            Files.copy(uploadedFileInputStream, targetPath, StandardCopyOption.REPLACE_EXISTING);
+    @Override
+    public FileInfo saveAndDescribe(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException {
+        log.debug("upload file {}, {}, {}", sourceFile, destinationFilePath, destinationFileName);
+
+        long size = Files.size(sourceFile);
+        if (size == 0) {
+            throw new FileIsEmpty();
         }
-        return targetPath;
+
+        Path targetPath = getAbsoluteResolvedWithRoot(removeFirstSlash(destinationFilePath));
+
+        if (compression == null) {
+            try {
+                Path savedPath = targetPath.resolve(destinationFileName);
+                FileChecksums fileChecksums = checksums ? FileChecksums.compute(sourceFile) : null;
+                if (fileChecksums != null) {
+                    fileChecksums.writeTo(sourceFile);
+                }
+                publish(sourceFile, savedPath);
+                return new FileInfo(root.relativize(savedPath).toString(), destinationFileName, size, size,
+                        fileChecksums == null ? null : fileChecksums.crc32c(), fileChecksums == null ? null : fileChecksums.sha256());
+            } catch (AtomicMoveNotSupportedException e) {
+                log.debug("cannot rename {} into the storage, copying it", sourceFile);
+            }
+        }
+        FileInfo savedFile;
+        try (var sourceInputStream = Files.newInputStream(sourceFile)) {
+            savedFile = saveAndDescribe(sourceInputStream, size, destinationFilePath, destinationFileName);
+        }
+        Files.delete(sourceFile);
+        return savedFile;
     }
 
     @Override
-    public void delete(String requestPath) throws IOException {
-        log.debug("delete {}", requestPath);
+    public Resource load(String requestPath) {
+        log.debug("load {}", requestPath);
 
         Path path = getAbsoluteResolvedWithRoot(removeFirstSlash(requestPath));
-        if (Files.isDirectory(path) && hasFiles(path)) {
-            throw new DirectoryIsNotEmpty();
+        if (!Files.isRegularFile(path)) {
+            throw new PathNotExist();
         }
-        if (Files.notExists(path)) {
+        long logicalSize = storedAttributes ? GzipCompression.getLogicalSize(path) : -1;
+        return logicalSize < 0 ? new FileSystemResource(path) : new DecompressingResource(path, logicalSize);
+    }
+
+    @Override
+    public Optional<Resource> loadCompressed(String requestPath) {
+        log.debug("loadCompressed {}", requestPath);
+
+        Path path = getAbsoluteResolvedWithRoot(removeFirstSlash(requestPath));
+        if (!Files.isRegularFile(path)) {
             throw new PathNotExist();
         }
-        FileSystemUtils.deleteRecursively(path);
+        if (!storedAttributes || GzipCompression.getLogicalSize(path) < 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new FileSystemResource(path));
+    }
+
+    @Override
+    public boolean exists(String requestPath) {
+        log.debug("exists {}", requestPath);
+
+        return Files.exists(getAbsoluteResolvedWithRoot(removeFirstSlash(requestPath)));
+    }
+
+    @Override
+    public void delete(String requestPath) throws IOException {
+        log.debug("delete {}", requestPath);
+
+        Path path = getAbsoluteResolvedWithRoot(removeFirstSlash(requestPath));
+        try (PathLocks.Held ignored = locks.lockExclusive(root.relativize(path))) {
+            if (Files.isDirectory(path)) {
+                deleteIfHasNoFiles(path);
+                return;
+            }
+            if (Files.notExists(path)) {
+                throw new PathNotExist();
+            }
+            FileSystemUtils.deleteRecursively(path);
+        }
     }
 
     @Override
@@ -95,39 +295,227 @@ public class FileServiceImpl implements FileService {
         log.debug("hardDelete {}", requestPath);
 
         Path path = getAbsoluteResolvedWithRoot(removeFirstSlash(requestPath));
-        FileSystemUtils.deleteRecursively(path);
+        try (PathLocks.Held ignored = locks.lockExclusive(root.relativize(path))) {
+            FileSystemUtils.deleteRecursively(path);
+        }
     }
 
-    protected Path getAbsoluteResolvedWithRoot(String relativePathString) {
-        Path path = root.resolve(relativePathString).normalize().toAbsolutePath();
+    /**
+     * Detaches the path from the storage by renaming it to a destination outside of the root,
+     * after which it is no longer visible to listings. The destination must be on the same file
+     * store as the root.
+     */
+    @Override
+    public void moveOut(String requestPath, Path destination) throws IOException {
+        log.debug("moveOut {}, {}", requestPath, destination);
 
-        if (!path.startsWith(root)) {
+        Path path = getAbsoluteResolvedWithRoot(removeFirstSlash(requestPath));
+        if (path.equals(root)) {
             throw new ViolationBoundariesRootDirectory();
         }
-        return path;
+        try (PathLocks.Held ignored = locks.lockExclusive(root.relativize(path))) {
+            if (Files.notExists(path, LinkOption.NOFOLLOW_LINKS)) {
+                throw new PathNotExist();
+            }
+            Files.move(path, destination, StandardCopyOption.ATOMIC_MOVE);
+        }
     }
 
-    private boolean hasFiles(Path path) throws IOException {
-        if (!Files.isDirectory(path)) {
-            throw new RuntimeException("Path is not directory");
+    /**
+     * Stops the listing threads; a listing still running is left to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        if (listingPool != null) {
+            listingPool.shutdown();
         }
+    }
 
-        try (Stream<Path> fileStream = Files.walk(path)) {
-            return fileStream.anyMatch(Files::isRegularFile);
+    /**
+     * Atomically replaces the target, a path below the root, with the given file. The rename is
+     * done under the exclusive lock of the target, so it cannot land in a directory being deleted
+     * after the deletion has found it empty; a directory deleted before is created again.
+     */
+    protected void publish(Path file, Path targetPath) throws IOException {
+        try (PathLocks.Held ignored = locks.lockExclusive(root.relativize(targetPath))) {
+            if (!Files.exists(targetPath.getParent())) {
+                Files.createDirectories(targetPath.getParent());
+            }
+            Files.move(file, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         }
     }
 
-    private String removeFirstSlash(String pathString) {
-        return pathString.startsWith("/") ? pathString.substring(1) : pathString;
+    /**
+     * Creates the temporary file the content of the target is written to, next to the target.
+     * The directory is created, if missing, under the exclusive lock of the target along with the
+     * temporary file, so a concurrent deletion of the directory cannot remove it in between; once
+     * the temporary file is there, the deletion finds the directory not empty.
+     */
+    protected Path createTempFileFor(Path targetPath) throws IOException {
+        try (PathLocks.Held ignored = locks.lockExclusive(root.relativize(targetPath))) {
+            if (!Files.exists(targetPath.getParent())) {
+                Files.createDirectories(targetPath.getParent());
+            }
+            return Files.createTempFile(targetPath.getParent(), ".", UPLOAD_TEMP_FILE_SUFFIX);
+        }
     }
 
-    private long fileSizeOrException(Path path1) {
+    /**
+     * Renames the file to the target, a path below the root, unless the target exists, in which
+     * case it returns false and leaves both in place. The check, the creation of missing parent
+     * directories and the rename are all done under the exclusive lock of the target, so neither a
+     * save of the target nor a deletion of its directory can slip in between.
+     */
+    protected boolean publishIfAbsent(Path file, Path targetPath) throws IOException {
+        try (PathLocks.Held ignored = locks.lockExclusive(root.relativize(targetPath))) {
+            if (Files.exists(targetPath, LinkOption.NOFOLLOW_LINKS)) {
+                return false;
+            }
+            Files.createDirectories(targetPath.getParent());
+            Files.move(file, targetPath, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+    }
+
+    /**
+     * Listings take the size from the directory walk, which is the stored one; compressed files
+     * additionally report their logical size, and files saved with checksums enabled their checksums.
+     */
+    protected FileInfo withStoredAttributes(Path start, FileInfo fileInfo) {
+        StoredAttributes attributes = readStoredAttributes(start.resolve(fileInfo.getFullFileName()));
+        return attributes == null ? fileInfo : attributes.applyTo(fileInfo);
+    }
+
+    /**
+     * A file whose attributes cannot be read is listed as one without any.
+     */
+    protected static StoredAttributes readStoredAttributes(Path file) {
+        try {
+            return StoredAttributes.read(file);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot read the attributes of {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Whether files of the root can carry attributes: compression or checksums are enabled, or
+     * were once, files stored while they were keep them.
+     */
+    protected boolean hasStoredAttributes() {
+        return storedAttributes;
+    }
+
+    protected Path getRoot() {
+        return root;
+    }
+
+    protected Path getAbsoluteResolvedWithRoot(String relativePathString) {
+        return StoragePaths.resolveWithin(root, relativePathString);
+    }
+
+    /**
+     * Writes the content to the file, gzip-compressed when compression is enabled and the first
+     * block of the content compresses well, and checksums it on the way when checksums are
+     * enabled. Returns the file as it will be listed once published; only a compressed one needs
+     * a stat for its stored size.
+     */
+    private FileInfo writeContent(InputStream inputStream, Path file, Path targetPath) throws IOException {
+        ChecksummingInputStream checksummingInputStream = checksums ? new ChecksummingInputStream(inputStream) : null;
+        long size = writeContent(checksummingInputStream == null ? inputStream : checksummingInputStream, file, compression);
+        long storedSize = compression == null ? size : Files.size(file);
+        String fullFileName = root.relativize(targetPath).toString();
+        if (checksummingInputStream == null) {
+            return new FileInfo(fullFileName, targetPath.getFileName().toString(), size, storedSize);
+        }
+        FileChecksums fileChecksums = checksummingInputStream.getChecksums();
+        fileChecksums.writeTo(file);
+        return new FileInfo(fullFileName, targetPath.getFileName().toString(), size, storedSize,
+                fileChecksums.crc32c(), fileChecksums.sha256());
+    }
+
+    private static long writeContent(InputStream inputStream, Path file, GzipCompression compression) throws IOException {
+        if (compression == null) {
+            return Files.copy(inputStream, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        byte[] sample = inputStream.readNBytes(compression.getSampleSize());
+        boolean compressible = compression.isCompressible(sample);
         long size;
+        try (OutputStream outputStream = compressible
+                ? compression.compress(Files.newOutputStream(file))
+                : Files.newOutputStream(file)) {
+            outputStream.write(sample);
+            size = sample.length + inputStream.transferTo(outputStream);
+        }
+        if (compressible) {
+            GzipCompression.setLogicalSize(file, size);
+        }
+        return size;
+    }
+
+    private static boolean supportsUserAttributes(Path rootAbsolutePath) {
         try {
-            size = Files.size(path1);
+            return GzipCompression.isSupported(rootAbsolutePath);
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new UncheckedIOException(e);
         }
-        return size;
+    }
+
+    private static boolean markStoredAttributes(Path rootAbsolutePath, boolean enabled) {
+        try {
+            if (enabled) {
+                StoredAttributes.mark(rootAbsolutePath);
+                return true;
+            }
+            return StoredAttributes.isMarked(rootAbsolutePath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isEnabled(boolean userAttributes, Path rootAbsolutePath, String consequence) {
+        if (!userAttributes) {
+            log.warn("The file store of {} has no user-defined attributes, {}", rootAbsolutePath, consequence);
+        }
+        return userAttributes;
+    }
+
+    /**
+     * Deletes the directory tree unless it holds a regular file, in a single walk: the walk stops
+     * at the first file, otherwise the entries it has collected are deleted children first without
+     * listing any directory again. Temporary upload files count as files.
+     */
+    private static void deleteIfHasNoFiles(Path directory) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                if (attributes.isRegularFile() || attributes.isSymbolicLink() && Files.isRegularFile(file)) {
+                    throw new DirectoryIsNotEmpty();
+                }
+                entries.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                entries.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        for (Path entry : entries) {
+            Files.deleteIfExists(entry);
+        }
+    }
+
+    protected String removeFirstSlash(String pathString) {
+        return pathString.startsWith("/") ? pathString.substring(1) : pathString;
+    }
+
+    protected static boolean isTemporaryFile(Path path) {
+        return path.getFileName().toString().endsWith(UPLOAD_TEMP_FILE_SUFFIX);
     }
 }
@@ -0,0 +1,138 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Collects the regular files of a tree with one attribute read per entry: the attributes the
+ * directory walk already delivers are reused for the file type and size. Entries that vanish
+ * while the tree is walked are skipped instead of failing the whole listing.
+ */
+final class FileTreeLister {
+    private FileTreeLister() {
+    }
+
+    static List<FileInfo> list(Path start, int maxDepth) throws IOException {
+        List<FileInfo> fileInfos = new ArrayList<>();
+        Files.walkFileTree(start, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                BasicFileAttributes attributes = attrs.isSymbolicLink() ? readAttributes(file) : attrs;
+                if (attributes != null && attributes.isRegularFile() && !FileServiceImpl.isTemporaryFile(file)) {
+                    fileInfos.add(new FileInfo(start.relativize(file), attributes.size()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if (exc instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw exc;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc == null || exc instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw exc;
+            }
+        });
+        return fileInfos;
+    }
+
+    /**
+     * Same as {@link #list(Path, int)}, but every directory is read by its own fork-join task, so
+     * wide trees are listed by all threads of the pool at once.
+     */
+    static List<FileInfo> listParallel(Path start, int maxDepth, ForkJoinPool pool) throws IOException {
+        BasicFileAttributes attributes = readAttributes(start);
+        if (attributes == null) {
+            return new ArrayList<>();
+        }
+        if (!attributes.isDirectory()) {
+            return list(start, maxDepth);
+        }
+        if (maxDepth == 0) {
+            return new ArrayList<>();
+        }
+        try {
+            return pool.invoke(new DirectoryTask(start, start, 0, maxDepth));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Symbolic links to files are treated like the files themselves, links to directories are not
+     * followed. Returns null for entries that no longer exist.
+     */
+    static BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attributes.isSymbolicLink()) {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return attributes.isDirectory() ? null : attributes;
+            }
+            return attributes;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static final class DirectoryTask extends RecursiveTask<List<FileInfo>> {
+        private final Path start;
+        private final Path directory;
+        private final int depth;
+        private final int maxDepth;
+
+        private DirectoryTask(Path start, Path directory, int depth, int maxDepth) {
+            this.start = start;
+            this.directory = directory;
+            this.depth = depth;
+            this.maxDepth = maxDepth;
+        }
+
+        @Override
+        protected List<FileInfo> compute() {
+            List<FileInfo> fileInfos = new ArrayList<>();
+            List<DirectoryTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attributes = readAttributes(entry);
+                    if (attributes == null) {
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        if (depth + 1 < maxDepth) {
+                            DirectoryTask subtask = new DirectoryTask(start, entry, depth + 1, maxDepth);
+                            subtask.fork();
+                            subtasks.add(subtask);
+                        }
+                    } else if (attributes.isRegularFile() && !FileServiceImpl.isTemporaryFile(entry)) {
+                        fileInfos.add(new FileInfo(start.relativize(entry), attributes.size()));
+                    }
+                }
+            } catch (NoSuchFileException | NotDirectoryException e) {
+                // the directory vanished while the tree was walked
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (DirectoryTask subtask : subtasks) {
+                fileInfos.addAll(subtask.join());
+            }
+            return fileInfos;
+        }
+    }
+}
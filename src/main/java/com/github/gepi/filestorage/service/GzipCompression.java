@@ -0,0 +1,115 @@
+package com.github.gepi.filestorage.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decides whether content is worth storing gzip-compressed and marks the files stored that way.
+ * The decision is taken on the first block of the content, which is compressed once with the
+ * configured level and must shrink to at most {@code maxRatio} of its size; already compressed
+ * media fail this test cheaply and are stored as they are.
+ * <p>
+ * Compressed files keep their names. They are recognised by a user-defined file attribute
+ * holding the logical size, set on the temporary file before it is renamed into place, so a
+ * file is never visible compressed but unmarked.
+ */
+public class GzipCompression {
+    static final String CONTENT_ENCODING = "gzip";
+    private static final String LOGICAL_SIZE_ATTRIBUTE = "filestorage.logical-size";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int level;
+    private final int sampleSize;
+    private final double maxRatio;
+
+    public GzipCompression(int level, int sampleSize, double maxRatio) {
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException("The sample size must be positive");
+        }
+        this.level = level;
+        this.sampleSize = sampleSize;
+        this.maxRatio = maxRatio;
+    }
+
+    int getSampleSize() {
+        return sampleSize;
+    }
+
+    static boolean isSupported(Path directory) throws IOException {
+        return Files.getFileStore(directory).supportsFileAttributeView(UserDefinedFileAttributeView.class);
+    }
+
+    boolean isCompressible(byte[] sample) {
+        if (sample.length == 0) {
+            return false;
+        }
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] output = new byte[Math.min(sample.length, BUFFER_SIZE)];
+            long compressedSize = 0;
+            while (!deflater.finished()) {
+                compressedSize += deflater.deflate(output);
+                if (compressedSize > sample.length * maxRatio) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    OutputStream compress(OutputStream outputStream) throws IOException {
+        return new GZIPOutputStream(outputStream, BUFFER_SIZE) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    static void setLogicalSize(Path file, long logicalSize) throws IOException {
+        Files.getFileAttributeView(file, UserDefinedFileAttributeView.class)
+                .write(LOGICAL_SIZE_ATTRIBUTE, StandardCharsets.US_ASCII.encode(Long.toString(logicalSize)));
+    }
+
+    /**
+     * Returns the logical size of a compressed file, -1 when the file is stored uncompressed or does not exist.
+     */
+    static long getLogicalSize(Path file) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return -1;
+        }
+        try {
+            return getLogicalSize(view, view.list());
+        } catch (NoSuchFileException e) {
+            return -1;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the logical size from an already listed attribute view, -1 when the file is stored uncompressed.
+     */
+    static long getLogicalSize(UserDefinedFileAttributeView view, List<String> attributes) throws IOException {
+        if (!attributes.contains(LOGICAL_SIZE_ATTRIBUTE)) {
+            return -1;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(view.size(LOGICAL_SIZE_ATTRIBUTE));
+        view.read(LOGICAL_SIZE_ATTRIBUTE, buffer);
+        return Long.parseLong(StandardCharsets.US_ASCII.decode(buffer.flip()).toString());
+    }
+}
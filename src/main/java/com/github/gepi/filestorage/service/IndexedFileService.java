@@ -0,0 +1,319 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * {@link FileServiceImpl} that answers listings from an in-memory {@link FileIndex} instead of
+ * walking the disk. The index is built in the background on {@link #start()}; until it is ready
+ * listings fall back to the disk. Files are indexed with their compression mark and checksums, so
+ * a listing does not touch the disk at all. Changes made through this service are applied to the index
+ * directly, changes made by anybody else are picked up through a {@link WatchService} registered
+ * on every directory of the tree. A watch overflow triggers a full rebuild; the changes made
+ * through this service while a rebuild scans the disk are replayed onto the new index before it
+ * is swapped in, since the scan may have passed their paths already.
+ */
+@Slf4j
+public class IndexedFileService extends FileServiceImpl implements MeterBinder, Closeable {
+    private static final long WATCH_POLL_TIMEOUT_MILLIS = 1000;
+
+    private volatile FileIndex index = new FileIndex();
+    private final Object indexUpdateLock = new Object();
+    private List<Consumer<FileIndex>> updatesDuringRebuild;
+    private final boolean watchEnabled;
+    private final AtomicLong rebuildCount = new AtomicLong();
+    private volatile long lastSyncMillis;
+    private volatile boolean ready;
+    private volatile WatchService watchService;
+    private Thread indexThread;
+
+    public IndexedFileService(String rootAbsolutePathString, boolean watchEnabled) {
+        super(rootAbsolutePathString);
+        this.watchEnabled = watchEnabled;
+    }
+
+    public IndexedFileService(Path rootAbsolutePath, boolean watchEnabled) {
+        super(rootAbsolutePath);
+        this.watchEnabled = watchEnabled;
+    }
+
+    public IndexedFileService(Path rootAbsolutePath, boolean watchEnabled, GzipCompression compression) {
+        this(rootAbsolutePath, watchEnabled, compression, false);
+    }
+
+    public IndexedFileService(Path rootAbsolutePath, boolean watchEnabled, GzipCompression compression, boolean checksums) {
+        this(rootAbsolutePath, watchEnabled, compression, checksums, null);
+    }
+
+    public IndexedFileService(Path rootAbsolutePath, boolean watchEnabled, GzipCompression compression, boolean checksums,
+                              UploadAdmission admission) {
+        super(rootAbsolutePath, 0, compression, checksums, admission);
+        this.watchEnabled = watchEnabled;
+    }
+
+    public synchronized void start() {
+        if (indexThread != null) {
+            return;
+        }
+        indexThread = new Thread(this::run, "file-index");
+        indexThread.setDaemon(true);
+        indexThread.start();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        super.close();
+        if (indexThread == null) {
+            return;
+        }
+        indexThread.interrupt();
+        if (watchService != null) {
+            watchService.close();
+        }
+        indexThread = null;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public List<FileInfo> getFileList(String pathString, Boolean deepDive) {
+        if (!ready) {
+            return super.getFileList(pathString, deepDive);
+        }
+        log.debug("getFileList from index {}, {}", pathString, deepDive);
+
+        Path path = getAbsoluteResolvedWithRoot(removeFirstSlash(pathString));
+        List<FileInfo> fileInfos = new ArrayList<>();
+        index.forEachFile(getRoot().relativize(path), deepDive ? Integer.MAX_VALUE : 0, (relativePath, size, lastModified, attributes) -> {
+            FileInfo fileInfo = new FileInfo(relativePath, size);
+            fileInfos.add(attributes == null ? fileInfo : attributes.applyTo(fileInfo));
+        });
+        return fileInfos;
+    }
+
+    @Override
+    public FileInfo saveAndDescribe(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        FileInfo savedFile = super.saveAndDescribe(inputStream, size, destinationFilePath, destinationFileName);
+        putSaved(savedFile);
+        return savedFile;
+    }
+
+    @Override
+    public FileInfo saveAndDescribe(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException {
+        FileInfo savedFile = super.saveAndDescribe(sourceFile, destinationFilePath, destinationFileName);
+        putSaved(savedFile);
+        return savedFile;
+    }
+
+    @Override
+    public void delete(String requestPath) throws IOException {
+        super.delete(requestPath);
+        removeFromIndex(getRoot().relativize(getAbsoluteResolvedWithRoot(removeFirstSlash(requestPath))));
+    }
+
+    @Override
+    public void hardDelete(String requestPath) throws IOException {
+        super.hardDelete(requestPath);
+        removeFromIndex(getRoot().relativize(getAbsoluteResolvedWithRoot(removeFirstSlash(requestPath))));
+    }
+
+    @Override
+    public void moveOut(String requestPath, Path destination) throws IOException {
+        super.moveOut(requestPath, destination);
+        removeFromIndex(getRoot().relativize(getAbsoluteResolvedWithRoot(removeFirstSlash(requestPath))));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("filestorage.index.files", this, service -> service.index.getFileCount())
+                .description("Number of files in the in-memory index")
+                .register(registry);
+        Gauge.builder("filestorage.index.directories", this, service -> service.index.getDirectoryCount())
+                .description("Number of directories in the in-memory index")
+                .register(registry);
+        TimeGauge.builder("filestorage.index.staleness", this, TimeUnit.MILLISECONDS,
+                        service -> service.ready ? System.currentTimeMillis() - service.lastSyncMillis : Double.NaN)
+                .description("Time since the index was last known to be in sync with the disk")
+                .register(registry);
+        FunctionCounter.builder("filestorage.index.rebuilds", rebuildCount, AtomicLong::get)
+                .description("Number of full index rebuilds")
+                .register(registry);
+    }
+
+    private void run() {
+        try {
+            if (watchEnabled) {
+                watchService = getRoot().getFileSystem().newWatchService();
+            }
+            rebuild();
+            ready = true;
+            while (watchService != null && !Thread.currentThread().isInterrupted()) {
+                processWatchEvents();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("File index stopped");
+        } catch (IOException e) {
+            log.error("File index failed, falling back to disk listings", e);
+            ready = false;
+        }
+    }
+
+    private void processWatchEvents() throws IOException, InterruptedException {
+        WatchKey key = watchService.poll(WATCH_POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (key == null) {
+            lastSyncMillis = System.currentTimeMillis();
+            return;
+        }
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                log.warn("File index watch overflow, rebuilding");
+                rebuild();
+            } else {
+                Path path = directory.resolve((Path) event.context());
+                try {
+                    refresh(path, event.kind() == ENTRY_CREATE);
+                } catch (IOException e) {
+                    log.warn("Cannot refresh file index for {}", path, e);
+                }
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * Builds a fresh index off to the side and swaps it in, so listings never see a half-built tree.
+     */
+    private void rebuild() throws IOException {
+        rebuildCount.incrementAndGet();
+        FileIndex rebuiltIndex = new FileIndex();
+        synchronized (indexUpdateLock) {
+            updatesDuringRebuild = new ArrayList<>();
+        }
+        try {
+            scan(getRoot(), rebuiltIndex);
+            synchronized (indexUpdateLock) {
+                updatesDuringRebuild.forEach(update -> update.accept(rebuiltIndex));
+                index = rebuiltIndex;
+            }
+        } finally {
+            synchronized (indexUpdateLock) {
+                updatesDuringRebuild = null;
+            }
+        }
+        lastSyncMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Applies a change made through the service to the index, and to the index being rebuilt, if any, once its scan is done.
+     */
+    private void updateIndex(Consumer<FileIndex> update) {
+        synchronized (indexUpdateLock) {
+            update.accept(index);
+            if (updatesDuringRebuild != null) {
+                updatesDuringRebuild.add(update);
+            }
+        }
+    }
+
+    private void removeFromIndex(Path relativePath) {
+        updateIndex(targetIndex -> targetIndex.remove(relativePath));
+    }
+
+    /**
+     * Brings the index entry for the path in line with the disk: new directories are scanned
+     * (and watched), files are re-read and vanished paths are dropped. A modified directory
+     * only reports a change of its own entries, which arrive as separate events.
+     */
+    private void refresh(Path path, boolean scanDirectory) throws IOException {
+        Path relativePath = getRoot().relativize(path);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            index.remove(relativePath);
+            return;
+        }
+        if (attributes.isDirectory()) {
+            if (scanDirectory) {
+                scan(path, index);
+            } else {
+                index.putDirectory(relativePath);
+            }
+        } else if (attributes.isRegularFile() && !isTemporaryFile(path)) {
+            index.putFile(relativePath, attributes.size(), attributes.lastModifiedTime().toMillis(), readStoredAttributesIfAny(path));
+        }
+    }
+
+    /**
+     * Indexes a file saved through the service with the attributes it was saved with.
+     */
+    private void putSaved(FileInfo savedFile) throws IOException {
+        Path relativePath = getRoot().getFileSystem().getPath(savedFile.getFullFileName());
+        long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(getRoot().resolve(relativePath), LinkOption.NOFOLLOW_LINKS).toMillis();
+        } catch (NoSuchFileException e) {
+            removeFromIndex(relativePath);
+            return;
+        }
+        StoredAttributes attributes = StoredAttributes.of(savedFile);
+        updateIndex(targetIndex -> targetIndex.putFile(relativePath, savedFile.getStoredSize(), lastModified, attributes));
+    }
+
+    /**
+     * The attributes are read once, when the file enters the index, and listings take them from there.
+     */
+    private StoredAttributes readStoredAttributesIfAny(Path file) {
+        return hasStoredAttributes() ? readStoredAttributes(file) : null;
+    }
+
+    private void scan(Path start, FileIndex targetIndex) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (watchService != null) {
+                    dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                }
+                targetIndex.putDirectory(getRoot().relativize(dir));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !isTemporaryFile(file)) {
+                    targetIndex.putFile(getRoot().relativize(file), attrs.size(), attrs.lastModifiedTime().toMillis(), readStoredAttributesIfAny(file));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if (exc instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw exc;
+            }
+        });
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.ChangeEvent;
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import org.springframework.core.io.Resource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Decorates a {@link FileService} so that every change made through it is recorded in a
+ * {@link ChangeJournal} once it has succeeded. Paths are recorded relative to the root, in the
+ * normalized form the sharded storage hashes.
+ */
+public class JournalingFileService implements FileService, Closeable {
+    private final FileService delegate;
+    private final ChangeJournal journal;
+
+    public JournalingFileService(FileService delegate, ChangeJournal journal) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.journal = Objects.requireNonNull(journal);
+    }
+
+    @Override
+    public List<FileInfo> getFileList(String pathString, Boolean deepDive) {
+        return delegate.getFileList(pathString, deepDive);
+    }
+
+    @Override
+    public Stream<FileInfo> getFileStream(String pathString, ListingOptions options) {
+        return delegate.getFileStream(pathString, options);
+    }
+
+    @Override
+    public Path save(MultipartFile multipartFile, String destinationFilePath, String destinationFileName) throws IOException {
+        Path savedPath = delegate.save(multipartFile, destinationFilePath, destinationFileName);
+        recordSaved(destinationFilePath, destinationFileName);
+        return savedPath;
+    }
+
+    @Override
+    public Path save(InputStream inputStream, String destinationFilePath, String destinationFileName) throws IOException {
+        Path savedPath = delegate.save(inputStream, destinationFilePath, destinationFileName);
+        recordSaved(destinationFilePath, destinationFileName);
+        return savedPath;
+    }
+
+    @Override
+    public Path save(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        Path savedPath = delegate.save(inputStream, size, destinationFilePath, destinationFileName);
+        recordSaved(destinationFilePath, destinationFileName);
+        return savedPath;
+    }
+
+    @Override
+    public FileInfo saveAndDescribe(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        FileInfo savedFile = delegate.saveAndDescribe(inputStream, size, destinationFilePath, destinationFileName);
+        recordSaved(destinationFilePath, destinationFileName);
+        return savedFile;
+    }
+
+    @Override
+    public Path save(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException {
+        Path savedPath = delegate.save(sourceFile, destinationFilePath, destinationFileName);
+        recordSaved(destinationFilePath, destinationFileName);
+        return savedPath;
+    }
+
+    @Override
+    public FileInfo saveAndDescribe(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException {
+        FileInfo savedFile = delegate.saveAndDescribe(sourceFile, destinationFilePath, destinationFileName);
+        recordSaved(destinationFilePath, destinationFileName);
+        return savedFile;
+    }
+
+    @Override
+    public Resource load(String path) {
+        return delegate.load(path);
+    }
+
+    @Override
+    public Optional<Resource> loadCompressed(String path) {
+        return delegate.loadCompressed(path);
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return delegate.exists(path);
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        delegate.delete(path);
+        journal.record(ChangeEvent.Type.DELETED, ShardedFileService.key(path));
+    }
+
+    @Override
+    public void hardDelete(String path) throws IOException {
+        delegate.hardDelete(path);
+        journal.record(ChangeEvent.Type.DELETED, ShardedFileService.key(path));
+    }
+
+    @Override
+    public void moveOut(String path, Path destination) throws IOException {
+        delegate.moveOut(path, destination);
+        journal.record(ChangeEvent.Type.DELETED, ShardedFileService.key(path));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+
+    private void recordSaved(String destinationFilePath, String destinationFileName) throws IOException {
+        journal.record(ChangeEvent.Type.SAVED, ShardedFileService.key(destinationFilePath + "/" + destinationFileName));
+    }
+}
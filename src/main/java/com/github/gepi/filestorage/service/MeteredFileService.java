@@ -0,0 +1,304 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Decorates a {@link FileService} with Micrometer metrics:
+ * <ul>
+ *     <li>{@code filestorage.operation} - latency histogram per operation, tagged with the outcome and the exception type;</li>
+ *     <li>{@code filestorage.operation.active} - operations in flight;</li>
+ *     <li>{@code filestorage.bytes.written} and {@code filestorage.bytes.read} - payload sizes;</li>
+ *     <li>{@code filestorage.files.listed} - files returned per listing.</li>
+ * </ul>
+ */
+public class MeteredFileService implements FileService, Closeable {
+    private static final String OPERATION_TIMER = "filestorage.operation";
+    private static final String ACTIVE_OPERATION_TIMER = "filestorage.operation.active";
+
+    private final FileService delegate;
+    private final MeterRegistry registry;
+    private final DistributionSummary bytesWritten;
+    private final DistributionSummary bytesRead;
+    private final DistributionSummary filesListed;
+
+    public MeteredFileService(FileService delegate, MeterRegistry registry) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.registry = Objects.requireNonNull(registry);
+        this.bytesWritten = DistributionSummary.builder("filestorage.bytes.written")
+                .description("Bytes stored per saved file")
+                .baseUnit("bytes")
+                .register(registry);
+        this.bytesRead = DistributionSummary.builder("filestorage.bytes.read")
+                .description("Bytes read per loaded file")
+                .baseUnit("bytes")
+                .register(registry);
+        this.filesListed = DistributionSummary.builder("filestorage.files.listed")
+                .description("Files returned per listing")
+                .register(registry);
+    }
+
+    @Override
+    public List<FileInfo> getFileList(String pathString, Boolean deepDive) {
+        List<FileInfo> fileInfos = recordUnchecked("list", () -> delegate.getFileList(pathString, deepDive));
+        filesListed.record(fileInfos.size());
+        return fileInfos;
+    }
+
+    /**
+     * The stream is produced lazily, so only opening it is timed; the number of files is
+     * recorded when the stream is closed.
+     */
+    @Override
+    public Stream<FileInfo> getFileStream(String pathString, ListingOptions options) {
+        Stream<FileInfo> fileStream = recordUnchecked("stream", () -> delegate.getFileStream(pathString, options));
+        LongAdder count = new LongAdder();
+        return fileStream.peek(fileInfo -> count.increment())
+                .onClose(() -> filesListed.record(count.sum()));
+    }
+
+    @Override
+    public Path save(MultipartFile multipartFile, String destinationFilePath, String destinationFileName) throws IOException {
+        Path savedPath = record("save", () -> delegate.save(multipartFile, destinationFilePath, destinationFileName));
+        bytesWritten.record(multipartFile.getSize());
+        return savedPath;
+    }
+
+    @Override
+    public Path save(InputStream inputStream, String destinationFilePath, String destinationFileName) throws IOException {
+        return save(inputStream, -1, destinationFilePath, destinationFileName);
+    }
+
+    @Override
+    public Path save(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        CountingInputStream countingInputStream = new CountingInputStream(inputStream);
+        Path savedPath = record("save", () -> delegate.save(countingInputStream, size, destinationFilePath, destinationFileName));
+        bytesWritten.record(countingInputStream.count);
+        return savedPath;
+    }
+
+    @Override
+    public FileInfo saveAndDescribe(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        CountingInputStream countingInputStream = new CountingInputStream(inputStream);
+        FileInfo savedFile = record("save", () -> delegate.saveAndDescribe(countingInputStream, size, destinationFilePath, destinationFileName));
+        bytesWritten.record(countingInputStream.count);
+        return savedFile;
+    }
+
+    @Override
+    public Path save(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException {
+        long size = Files.size(sourceFile);
+        Path savedPath = record("save", () -> delegate.save(sourceFile, destinationFilePath, destinationFileName));
+        bytesWritten.record(size);
+        return savedPath;
+    }
+
+    @Override
+    public FileInfo saveAndDescribe(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException {
+        long size = Files.size(sourceFile);
+        FileInfo savedFile = record("save", () -> delegate.saveAndDescribe(sourceFile, destinationFilePath, destinationFileName));
+        bytesWritten.record(size);
+        return savedFile;
+    }
+
+    @Override
+    public Resource load(String path) {
+        Resource resource = recordUnchecked("load", () -> delegate.load(path));
+        return new CountingResource(resource, bytesRead);
+    }
+
+    @Override
+    public Optional<Resource> loadCompressed(String path) {
+        Optional<Resource> resource = recordUnchecked("load", () -> delegate.loadCompressed(path));
+        return resource.map(compressed -> new CountingResource(compressed, bytesRead));
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return delegate.exists(path);
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        record("delete", () -> {
+            delegate.delete(path);
+            return null;
+        });
+    }
+
+    @Override
+    public void hardDelete(String path) throws IOException {
+        record("hardDelete", () -> {
+            delegate.hardDelete(path);
+            return null;
+        });
+    }
+
+    @Override
+    public void moveOut(String path, Path destination) throws IOException {
+        record("moveOut", () -> {
+            delegate.moveOut(path, destination);
+            return null;
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+
+    private <T> T record(String operation, IOCallable<T> callable) throws IOException {
+        LongTaskTimer.Sample activeSample = LongTaskTimer.builder(ACTIVE_OPERATION_TIMER)
+                .description("FileService operations in flight")
+                .tag("operation", operation)
+                .register(registry)
+                .start();
+        Timer.Sample sample = Timer.start(registry);
+        String exception = "none";
+        try {
+            return callable.call();
+        } catch (IOException | RuntimeException e) {
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            sample.stop(Timer.builder(OPERATION_TIMER)
+                    .description("FileService operation latency")
+                    .tag("operation", operation)
+                    .tag("outcome", "none".equals(exception) ? "success" : "error")
+                    .tag("exception", exception)
+                    .publishPercentileHistogram()
+                    .register(registry));
+            activeSample.stop();
+        }
+    }
+
+    private <T> T recordUnchecked(String operation, IOCallable<T> callable) {
+        try {
+            return record(operation, callable);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface IOCallable<T> {
+        T call() throws IOException;
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private final LongConsumer onClose;
+        private long count;
+        private boolean closed;
+
+        private CountingInputStream(InputStream in) {
+            this(in, count -> {
+            });
+        }
+
+        private CountingInputStream(InputStream in, LongConsumer onClose) {
+            super(in);
+            this.onClose = onClose;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result != -1) {
+                count++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result != -1) {
+                count += result;
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (!closed) {
+                closed = true;
+                onClose.accept(count);
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes actually sent to the client, which for range requests is less than the file size.
+     * The file itself is exposed too, so that the reactive stack can transfer it without copying; such
+     * transfers bypass the stream and are not counted.
+     */
+    private static final class CountingResource extends AbstractResource {
+        private final Resource resource;
+        private final DistributionSummary bytesRead;
+
+        private CountingResource(Resource resource, DistributionSummary bytesRead) {
+            this.resource = resource;
+            this.bytesRead = bytesRead;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new CountingInputStream(resource.getInputStream(), bytesRead::record);
+        }
+
+        @Override
+        public boolean exists() {
+            return resource.exists();
+        }
+
+        @Override
+        public boolean isFile() {
+            return resource.isFile();
+        }
+
+        @Override
+        public File getFile() throws IOException {
+            return resource.getFile();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return resource.contentLength();
+        }
+
+        @Override
+        public long lastModified() throws IOException {
+            return resource.lastModified();
+        }
+
+        @Override
+        public String getFilename() {
+            return resource.getFilename();
+        }
+
+        @Override
+        public String getDescription() {
+            return resource.getDescription();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.gepi.filestorage.service;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read/write locks on the paths below a root, striped so that memory does not grow with the
+ * number of paths. Locking a path exclusively also takes intention locks, the shared side of
+ * the stripe lock, on all its ancestors: operations on different files of a directory proceed
+ * in parallel, while an operation on the directory itself waits for them and holds them off.
+ * <p>
+ * The stripes needed by one operation are locked in ascending order, each in the strongest
+ * mode any of its paths needs, so two operations never wait for each other.
+ */
+class PathLocks {
+    private final ReadWriteLock[] stripes;
+    private final int mask;
+
+    PathLocks(int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        this.stripes = new ReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Locks the path, relative to the root, exclusively and its ancestors for intention.
+     */
+    Held lockExclusive(Path relativePath) {
+        TreeMap<Integer, Boolean> exclusiveByStripe = new TreeMap<>();
+        String path = relativePath.toString();
+        exclusiveByStripe.put(stripe(""), path.isEmpty());
+        int nameCount = path.isEmpty() ? 0 : relativePath.getNameCount();
+        for (int i = 1; i < nameCount; i++) {
+            exclusiveByStripe.putIfAbsent(stripe(relativePath.subpath(0, i).toString()), false);
+        }
+        if (!path.isEmpty()) {
+            exclusiveByStripe.put(stripe(path), true);
+        }
+
+        Lock[] locks = new Lock[exclusiveByStripe.size()];
+        int locked = 0;
+        try {
+            for (Map.Entry<Integer, Boolean> entry : exclusiveByStripe.entrySet()) {
+                ReadWriteLock stripe = stripes[entry.getKey()];
+                Lock lock = entry.getValue() ? stripe.writeLock() : stripe.readLock();
+                lock.lock();
+                locks[locked++] = lock;
+            }
+        } catch (RuntimeException | Error e) {
+            unlock(locks, locked);
+            throw e;
+        }
+        return () -> unlock(locks, locks.length);
+    }
+
+    private int stripe(String path) {
+        int hash = path.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static void unlock(Lock[] locks, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,449 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import com.github.gepi.filestorage.dto.RebalanceResult;
+import com.github.gepi.filestorage.exception.PathNotExist;
+import com.github.gepi.filestorage.exception.PathSpansSeveralRoots;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Spreads the files over several roots, typically one per disk. Every file lives on the shard
+ * its logical path hashes to on a consistent hash ring, so adding a root moves only about its
+ * share of the files; directories exist on every shard holding some of their files. Each shard
+ * is a {@link FileServiceImpl} of its own and keeps checking the paths against its root.
+ * <p>
+ * Listings query all shards, in parallel for full lists and merged in the listing order for
+ * streams. Until {@link #rebalance()} has moved the files of a changed ring to their new
+ * owners, a file missing on its owner is looked up on the other shards.
+ */
+@Slf4j
+public class ShardedFileService implements FileService, Closeable {
+    private static final Comparator<String> LISTING_ORDER = ShardedFileService::compareListingOrder;
+
+    private final List<FileServiceImpl> shards;
+    private final NavigableMap<Long, FileServiceImpl> ring = new TreeMap<>();
+    private final ExecutorService listingPool;
+
+    /**
+     * @param virtualNodes points of each shard on the hash ring; more points spread the files more evenly
+     */
+    public ShardedFileService(List<FileServiceImpl> shards, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = List.copyOf(shards);
+        for (FileServiceImpl shard : shards) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(shard.getRoot().toString() + "#" + i), shard);
+            }
+        }
+        this.listingPool = Executors.newFixedThreadPool(shards.size());
+    }
+
+    public List<Path> getRoots() {
+        return shards.stream().map(FileServiceImpl::getRoot).toList();
+    }
+
+    @Override
+    public List<FileInfo> getFileList(String pathString, Boolean deepDive) {
+        log.debug("getFileList {}, {}", pathString, deepDive);
+
+        List<CompletableFuture<List<FileInfo>>> shardLists = shards.stream()
+                .map(shard -> CompletableFuture.supplyAsync(() -> shard.getFileList(pathString, deepDive), listingPool))
+                .toList();
+        Set<String> seen = new HashSet<>();
+        List<FileInfo> fileInfos = new ArrayList<>();
+        for (CompletableFuture<List<FileInfo>> shardList : shardLists) {
+            for (FileInfo fileInfo : shardList.join()) {
+                if (seen.add(fileInfo.getFullFileName())) {
+                    fileInfos.add(fileInfo);
+                }
+            }
+        }
+        return fileInfos;
+    }
+
+    /**
+     * The shard streams come in the listing order already, so they are merged lazily; a file
+     * present on two shards in the middle of a rebalance is listed once.
+     */
+    @Override
+    public Stream<FileInfo> getFileStream(String pathString, ListingOptions options) {
+        log.debug("getFileStream {}, {}", pathString, options);
+
+        List<Stream<FileInfo>> shardStreams = new ArrayList<>();
+        try {
+            for (FileServiceImpl shard : shards) {
+                shardStreams.add(shard.getFileStream(pathString, options));
+            }
+        } catch (RuntimeException e) {
+            shardStreams.forEach(Stream::close);
+            throw e;
+        }
+        Iterator<FileInfo> merged = new MergingIterator(shardStreams.stream().map(Stream::iterator).toList());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> shardStreams.forEach(Stream::close));
+    }
+
+    @Override
+    public Path save(MultipartFile multipartFile, String destinationFilePath, String destinationFileName) throws IOException {
+        String key = key(destinationFilePath + "/" + destinationFileName);
+        Path savedPath = owner(key).save(multipartFile, destinationFilePath, destinationFileName);
+        removeStaleCopies(key, destinationFilePath + "/" + destinationFileName);
+        return savedPath;
+    }
+
+    @Override
+    public Path save(InputStream inputStream, String destinationFilePath, String destinationFileName) throws IOException {
+        String key = key(destinationFilePath + "/" + destinationFileName);
+        Path savedPath = owner(key).save(inputStream, destinationFilePath, destinationFileName);
+        removeStaleCopies(key, destinationFilePath + "/" + destinationFileName);
+        return savedPath;
+    }
+
+    @Override
+    public Path save(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        String key = key(destinationFilePath + "/" + destinationFileName);
+        Path savedPath = owner(key).save(inputStream, size, destinationFilePath, destinationFileName);
+        removeStaleCopies(key, destinationFilePath + "/" + destinationFileName);
+        return savedPath;
+    }
+
+    @Override
+    public FileInfo saveAndDescribe(InputStream inputStream, long size, String destinationFilePath, String destinationFileName) throws IOException {
+        String key = key(destinationFilePath + "/" + destinationFileName);
+        FileInfo savedFile = owner(key).saveAndDescribe(inputStream, size, destinationFilePath, destinationFileName);
+        removeStaleCopies(key, destinationFilePath + "/" + destinationFileName);
+        return savedFile;
+    }
+
+    @Override
+    public Path save(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException {
+        String key = key(destinationFilePath + "/" + destinationFileName);
+        Path savedPath = owner(key).save(sourceFile, destinationFilePath, destinationFileName);
+        removeStaleCopies(key, destinationFilePath + "/" + destinationFileName);
+        return savedPath;
+    }
+
+    @Override
+    public FileInfo saveAndDescribe(Path sourceFile, String destinationFilePath, String destinationFileName) throws IOException {
+        String key = key(destinationFilePath + "/" + destinationFileName);
+        FileInfo savedFile = owner(key).saveAndDescribe(sourceFile, destinationFilePath, destinationFileName);
+        removeStaleCopies(key, destinationFilePath + "/" + destinationFileName);
+        return savedFile;
+    }
+
+    @Override
+    public Resource load(String path) {
+        return holder(path).load(path);
+    }
+
+    @Override
+    public Optional<Resource> loadCompressed(String path) {
+        return holder(path).loadCompressed(path);
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return !holders(path).isEmpty();
+    }
+
+    /**
+     * A directory is deleted from every shard, provided it is empty on all of them.
+     */
+    @Override
+    public void delete(String path) throws IOException {
+        log.debug("delete {}", path);
+
+        List<FileServiceImpl> holders = holders(path);
+        if (holders.isEmpty()) {
+            throw new PathNotExist();
+        }
+        for (FileServiceImpl shard : holders) {
+            shard.delete(path);
+        }
+    }
+
+    @Override
+    public void hardDelete(String path) throws IOException {
+        log.debug("hardDelete {}", path);
+
+        for (FileServiceImpl shard : shards) {
+            shard.hardDelete(path);
+        }
+    }
+
+    /**
+     * Only a path held by a single shard can be moved out, as the parts held by different
+     * shards are on different volumes and cannot be renamed to one destination.
+     */
+    @Override
+    public void moveOut(String path, Path destination) throws IOException {
+        log.debug("moveOut {}, {}", path, destination);
+
+        List<FileServiceImpl> holders = holders(path);
+        if (holders.isEmpty()) {
+            throw new PathNotExist();
+        }
+        if (holders.size() > 1) {
+            throw new PathSpansSeveralRoots();
+        }
+        holders.get(0).moveOut(path, destination);
+    }
+
+    /**
+     * Moves every file not on its owning shard to the owner, renaming it when both shards are on
+     * the same volume and copying it otherwise. A file already present on the owner was written
+     * after the ring changed and wins over the stale copy, which is dropped; the owner is checked
+     * and the file published under the owner's lock of the path, so a save racing the move either
+     * lands first and wins or lands after the move and replaces it. Files written while the
+     * rebalance runs always go to their owner, so it may run on a live storage.
+     */
+    public RebalanceResult rebalance() throws IOException {
+        log.info("rebalance {} shards", shards.size());
+
+        AtomicLong filesMoved = new AtomicLong();
+        AtomicLong bytesMoved = new AtomicLong();
+        AtomicLong staleCopiesRemoved = new AtomicLong();
+        for (FileServiceImpl shard : shards) {
+            try (Stream<FileInfo> files = shard.getFileStream("/", new ListingOptions(ListingOptions.UNLIMITED_DEPTH, null, null))) {
+                Iterator<FileInfo> iterator = files.iterator();
+                while (iterator.hasNext()) {
+                    String key = key(iterator.next().getFullFileName());
+                    FileServiceImpl owner = owner(key);
+                    if (owner == shard) {
+                        continue;
+                    }
+                    Path source = shard.getAbsoluteResolvedWithRoot(key);
+                    Path target = owner.getAbsoluteResolvedWithRoot(key);
+                    long size;
+                    try {
+                        size = moveFile(source, owner, target);
+                    } catch (NoSuchFileException e) {
+                        if (Files.exists(source, LinkOption.NOFOLLOW_LINKS)) {
+                            throw e;
+                        }
+                        log.debug("{} was removed from {} by a save to its owner", key, shard.getRoot());
+                        continue;
+                    }
+                    shard.hardDelete(key);
+                    if (size < 0) {
+                        staleCopiesRemoved.incrementAndGet();
+                    } else {
+                        bytesMoved.addAndGet(size);
+                        filesMoved.incrementAndGet();
+                    }
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        log.info("rebalance moved {} files, {} bytes, removed {} stale copies", filesMoved, bytesMoved, staleCopiesRemoved);
+        return new RebalanceResult(filesMoved.get(), bytesMoved.get(), staleCopiesRemoved.get());
+    }
+
+    @Override
+    public void close() throws IOException {
+        listingPool.shutdownNow();
+        for (FileServiceImpl shard : shards) {
+            shard.close();
+        }
+    }
+
+    private FileServiceImpl owner(String key) {
+        Long point = ring.ceilingKey(hash(key));
+        return ring.get(point != null ? point : ring.firstKey());
+    }
+
+    /**
+     * The owner when it holds the file, otherwise any shard that does, for files not yet rebalanced.
+     */
+    private FileServiceImpl holder(String path) {
+        FileServiceImpl owner = owner(key(path));
+        if (isFile(owner, path)) {
+            return owner;
+        }
+        return shards.stream().filter(shard -> isFile(shard, path)).findFirst().orElse(owner);
+    }
+
+    private List<FileServiceImpl> holders(String path) {
+        return shards.stream()
+                .filter(shard -> Files.exists(shard.getAbsoluteResolvedWithRoot(shard.removeFirstSlash(path)), LinkOption.NOFOLLOW_LINKS))
+                .toList();
+    }
+
+    private void removeStaleCopies(String key, String path) throws IOException {
+        FileServiceImpl owner = owner(key);
+        for (FileServiceImpl shard : shards) {
+            if (shard != owner && isFile(shard, path)) {
+                log.debug("remove stale copy of {} from {}", path, shard.getRoot());
+                shard.hardDelete(path);
+            }
+        }
+    }
+
+    private static boolean isFile(FileServiceImpl shard, String path) {
+        return Files.isRegularFile(shard.getAbsoluteResolvedWithRoot(shard.removeFirstSlash(path)), LinkOption.NOFOLLOW_LINKS);
+    }
+
+    /**
+     * Renames or copies the file next to the target first, so that the target never shows a
+     * partial copy. Returns the size moved, or -1 when the owner already holds the file, in which
+     * case it is left as it is: it was saved after the ring changed, possibly while the copy ran.
+     */
+    private static long moveFile(Path source, FileServiceImpl owner, Path target) throws IOException {
+        long size = Files.size(source);
+        try {
+            return owner.publishIfAbsent(source, target) ? size : -1;
+        } catch (AtomicMoveNotSupportedException e) {
+            log.debug("cannot rename {} to another volume, copying it", source);
+        }
+        Path tempPath = owner.createTempFileFor(target);
+        try {
+            Files.copy(source, tempPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            long logicalSize = GzipCompression.getLogicalSize(source);
+            if (logicalSize >= 0) {
+                GzipCompression.setLogicalSize(tempPath, logicalSize);
+            }
+            FileChecksums checksums = FileChecksums.readFrom(source);
+            if (checksums != null) {
+                checksums.writeTo(tempPath);
+            }
+            return owner.publishIfAbsent(tempPath, target) ? size : -1;
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * The path relative to the root with redundant separators and dot segments removed, so that
+     * all spellings of a path hash alike.
+     */
+    static String key(String path) {
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : path.replace('\\', '/').split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                segments.pollLast();
+            } else {
+                segments.addLast(segment);
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                hash = hash << 8 | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The order of {@link SortedFileTreeIterator}: names compared directory by directory, which
+     * is the string order with the separator sorting before any other character.
+     */
+    private static int compareListingOrder(String first, String second) {
+        int length = Math.min(first.length(), second.length());
+        for (int i = 0; i < length; i++) {
+            char a = first.charAt(i);
+            char b = second.charAt(i);
+            if (a != b) {
+                return a == '/' ? -1 : b == '/' ? 1 : Character.compare(a, b);
+            }
+        }
+        return Integer.compare(first.length(), second.length());
+    }
+
+    private static final class MergingIterator implements Iterator<FileInfo> {
+        private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) ->
+                LISTING_ORDER.compare(a.current.getFullFileName(), b.current.getFullFileName()));
+        private String lastReturned;
+
+        private MergingIterator(List<Iterator<FileInfo>> iterators) {
+            iterators.forEach(iterator -> advance(new Head(iterator)));
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!heads.isEmpty() && heads.peek().current.getFullFileName().equals(lastReturned)) {
+                advance(heads.poll());
+            }
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public FileInfo next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Head head = heads.poll();
+            FileInfo result = head.current;
+            lastReturned = result.getFullFileName();
+            advance(head);
+            return result;
+        }
+
+        private void advance(Head head) {
+            if (head.iterator.hasNext()) {
+                head.current = head.iterator.next();
+                heads.add(head);
+            }
+        }
+
+        private static final class Head {
+            private final Iterator<FileInfo> iterator;
+            private FileInfo current;
+
+            private Head(Iterator<FileInfo> iterator) {
+                this.iterator = iterator;
+            }
+        }
+    }
+}
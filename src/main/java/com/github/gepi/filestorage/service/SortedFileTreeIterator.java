@@ -0,0 +1,123 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Lazily walks a directory tree depth-first with the entries of every directory sorted by name.
+ * The stable order makes it possible to resume a listing after any previously returned file:
+ * subtrees that sort before the cursor are skipped without being opened. Only the listings of
+ * the directories on the current path are held in memory, never the whole result.
+ */
+class SortedFileTreeIterator implements Iterator<FileInfo> {
+    private final Path start;
+    private final int maxDepth;
+    private final PathMatcher matcher;
+    private final boolean matchFullPath;
+    private final List<String> cursor;
+    private final Deque<DirectoryFrame> stack = new ArrayDeque<>();
+    private FileInfo next;
+
+    SortedFileTreeIterator(Path start, ListingOptions options) {
+        this.start = start;
+        this.maxDepth = options.maxDepth();
+        this.matchFullPath = options.glob() != null && options.glob().contains("/");
+        this.matcher = options.glob() == null ? null : start.getFileSystem().getPathMatcher("glob:" + options.glob());
+        this.cursor = options.cursor() == null ? null : List.of(options.cursor().replace("\\", "/").split("/"));
+
+        BasicFileAttributes attributes = readAttributes(start);
+        if (attributes == null) {
+            return;
+        }
+        if (attributes.isDirectory()) {
+            if (maxDepth > 0) {
+                stack.push(new DirectoryFrame(listSorted(start), 1, cursor != null));
+            }
+        } else if (attributes.isRegularFile() && cursor == null) {
+            next = new FileInfo(start.relativize(start), attributes.size());
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public FileInfo next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        FileInfo result = next;
+        next = null;
+        return result;
+    }
+
+    private void advance() {
+        while (next == null && !stack.isEmpty()) {
+            DirectoryFrame frame = stack.peek();
+            if (!frame.entries.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            Path entry = frame.entries.next();
+            boolean onCursorPath = false;
+            if (frame.onCursorPath) {
+                int comparison = entry.getFileName().toString().compareTo(cursor.get(frame.depth - 1));
+                if (comparison < 0 || (comparison == 0 && cursor.size() == frame.depth)) {
+                    continue;
+                }
+                onCursorPath = comparison == 0;
+            }
+
+            BasicFileAttributes attributes = readAttributes(entry);
+            if (attributes == null) {
+                continue;
+            }
+            if (attributes.isDirectory()) {
+                if (frame.depth < maxDepth) {
+                    stack.push(new DirectoryFrame(listSorted(entry), frame.depth + 1, onCursorPath));
+                }
+            } else if (attributes.isRegularFile() && !FileServiceImpl.isTemporaryFile(entry) && matches(entry)) {
+                next = new FileInfo(start.relativize(entry), attributes.size());
+            }
+        }
+    }
+
+    private boolean matches(Path entry) {
+        return matcher == null || matcher.matches(matchFullPath ? start.relativize(entry) : entry.getFileName());
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return FileTreeLister.readAttributes(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Iterator<Path> listSorted(Path directory) {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+            directoryStream.forEach(entries::add);
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            return Collections.emptyIterator();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        entries.sort(Comparator.comparing(path -> path.getFileName().toString()));
+        return entries.iterator();
+    }
+
+    private record DirectoryFrame(Iterator<Path> entries, int depth, boolean onCursorPath) {
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.exception.ViolationBoundariesRootDirectory;
+
+import java.nio.file.Path;
+
+/**
+ * Resolution of request paths against a root, shared by the services that have to check a path
+ * the way the storage resolves it.
+ */
+final class StoragePaths {
+    private StoragePaths() {
+    }
+
+    /**
+     * Resolves a relative path against an absolute root, refusing one that leads outside of it.
+     */
+    static Path resolveWithin(Path root, String relativePathString) {
+        Path path = root.resolve(relativePathString).normalize().toAbsolutePath();
+
+        if (!path.startsWith(root)) {
+            throw new ViolationBoundariesRootDirectory();
+        }
+        return path;
+    }
+
+    /**
+     * Refuses a destination that would lead outside of the storage root once saved. Whether a
+     * relative path leaves a root does not depend on the root, so any absolute directory will do.
+     */
+    static void checkDestination(Path anyRoot, String destinationFilePath, String destinationFileName) {
+        String relativePath = destinationFilePath.startsWith("/") ? destinationFilePath.substring(1) : destinationFilePath;
+        resolveWithin(anyRoot.toAbsolutePath(), relativePath.isEmpty() ? destinationFileName : relativePath + "/" + destinationFileName);
+    }
+}
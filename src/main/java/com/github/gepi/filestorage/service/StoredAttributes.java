@@ -0,0 +1,73 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.List;
+
+/**
+ * The compression mark and checksums of a stored file, read with a single listing of its
+ * user-defined attributes. A root on which a file was ever stored with either of them carries a
+ * mark of its own, so that a root that never had any is listed without reading attributes at all.
+ *
+ * @param logicalSize size of the content of a compressed file, -1 for a file stored as it is
+ * @param checksums   checksums stored with the file, null when it has none
+ */
+record StoredAttributes(long logicalSize, FileChecksums checksums) {
+    private static final String ROOT_MARK_ATTRIBUTE = "filestorage.stored-attributes";
+
+    /**
+     * Returns the attributes of the file, null when it has none or does not exist.
+     */
+    static StoredAttributes read(Path file) throws IOException {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return null;
+        }
+        try {
+            List<String> attributes = view.list();
+            if (attributes.isEmpty()) {
+                return null;
+            }
+            return of(GzipCompression.getLogicalSize(view, attributes), FileChecksums.readFrom(view, attributes));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the attributes a file was saved with, as described by the save, null when it has none.
+     */
+    static StoredAttributes of(FileInfo savedFile) {
+        FileChecksums checksums = savedFile.getCrc32c() == null ? null : new FileChecksums(savedFile.getCrc32c(), savedFile.getSha256());
+        return of(savedFile.getSize() == savedFile.getStoredSize() ? -1 : savedFile.getSize(), checksums);
+    }
+
+    static boolean isMarked(Path root) throws IOException {
+        return Files.getFileAttributeView(root, UserDefinedFileAttributeView.class).list().contains(ROOT_MARK_ATTRIBUTE);
+    }
+
+    static void mark(Path root) throws IOException {
+        if (!isMarked(root)) {
+            Files.getFileAttributeView(root, UserDefinedFileAttributeView.class)
+                    .write(ROOT_MARK_ATTRIBUTE, StandardCharsets.US_ASCII.encode("1"));
+        }
+    }
+
+    /**
+     * The listed file, which carries the stored size, with its logical size and checksums.
+     */
+    FileInfo applyTo(FileInfo fileInfo) {
+        return new FileInfo(fileInfo.getFullFileName(), fileInfo.getFileName(), logicalSize < 0 ? fileInfo.getSize() : logicalSize,
+                fileInfo.getSize(), checksums == null ? null : checksums.crc32c(), checksums == null ? null : checksums.sha256());
+    }
+
+    private static StoredAttributes of(long logicalSize, FileChecksums checksums) {
+        return logicalSize < 0 && checksums == null ? null : new StoredAttributes(logicalSize, checksums);
+    }
+}
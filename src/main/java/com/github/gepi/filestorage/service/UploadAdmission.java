@@ -0,0 +1,154 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.exception.InsufficientStorage;
+import com.github.gepi.filestorage.exception.OperationLimitExceeded;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Admits uploads into one root: at most {@code maxWriters} of them write at a time, and each
+ * one reserves the space it is going to take so that concurrent uploads cannot together fill
+ * the disk. An upload that cannot start is rejected at once rather than queued, with
+ * {@link OperationLimitExceeded} when all writers are busy and {@link InsufficientStorage}
+ * when its declared size does not fit.
+ * <p>
+ * The space counted as free is the usable space of the file store, less {@code minFreeSpace}
+ * and less what in-flight uploads have reserved but not written yet. Content of unknown or
+ * understated size reserves space in chunks as it is read and fails as soon as a chunk does not fit.
+ */
+@Slf4j
+public class UploadAdmission {
+    private static final long RESERVATION_CHUNK = 1024 * 1024;
+
+    private final FileStore fileStore;
+    private final Semaphore writers;
+    private final long minFreeSpace;
+    private long outstanding;
+
+    /**
+     * @param maxWriters   uploads writing into the root at the same time, 0 for no limit
+     * @param minFreeSpace bytes of the file store that uploads must leave free
+     */
+    public UploadAdmission(Path root, int maxWriters, long minFreeSpace) throws IOException {
+        this.fileStore = Files.getFileStore(root);
+        this.writers = maxWriters > 0 ? new Semaphore(maxWriters) : null;
+        this.minFreeSpace = minFreeSpace;
+    }
+
+    /**
+     * Takes a writer slot and reserves the declared size, -1 when it is unknown.
+     */
+    public Ticket admit(long declaredSize) {
+        if (writers != null && !writers.tryAcquire()) {
+            throw new OperationLimitExceeded();
+        }
+        try {
+            reserve(Math.max(declaredSize, 0));
+        } catch (RuntimeException e) {
+            releaseWriter();
+            throw e;
+        }
+        return new Ticket(Math.max(declaredSize, 0));
+    }
+
+    synchronized long getOutstanding() {
+        return outstanding;
+    }
+
+    private synchronized void reserve(long size) {
+        if (size == 0) {
+            return;
+        }
+        long free;
+        try {
+            free = fileStore.getUsableSpace() - minFreeSpace - outstanding;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (size > free) {
+            log.warn("Upload of {} bytes rejected, {} bytes free", size, free);
+            throw new InsufficientStorage();
+        }
+        outstanding += size;
+    }
+
+    private synchronized void release(long size) {
+        outstanding -= size;
+    }
+
+    private void releaseWriter() {
+        if (writers != null) {
+            writers.release();
+        }
+    }
+
+    /**
+     * An admitted upload. Its content must be read through {@link #meter} so that the reservation
+     * follows the bytes written; closing the ticket gives back the writer slot and what is left of the reservation.
+     */
+    public final class Ticket implements AutoCloseable {
+        private long reserved;
+        private boolean closed;
+
+        private Ticket(long reserved) {
+            this.reserved = reserved;
+        }
+
+        public InputStream meter(InputStream inputStream) {
+            return new FilterInputStream(inputStream) {
+                @Override
+                public int read() throws IOException {
+                    int b = in.read();
+                    if (b >= 0) {
+                        written(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = in.read(buffer, offset, length);
+                    if (read > 0) {
+                        written(read);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        /**
+         * Bytes read are about to be on disk, where the usable space accounts for them, so they
+         * leave the reservation; past its end a new chunk is reserved first. Content that is not
+         * read through {@link #meter}, such as buffers written asynchronously, is reported here
+         * before each buffer is written.
+         */
+        public void written(int count) {
+            if (count > reserved) {
+                long chunk = Math.max(RESERVATION_CHUNK, count - reserved);
+                reserve(chunk);
+                reserved += chunk;
+            }
+            reserved -= count;
+            release(count);
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            release(reserved);
+            reserved = 0;
+            releaseWriter();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.UploadSessionInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+public interface UploadSessionService {
+    UploadSessionInfo initiate(String destinationFilePath, String destinationFileName, long partSize) throws IOException;
+
+    void uploadPart(String uploadId, int partNumber, InputStream inputStream) throws IOException;
+
+    UploadSessionInfo getInfo(String uploadId);
+
+    Path complete(String uploadId) throws IOException;
+
+    void abort(String uploadId) throws IOException;
+
+    void removeStaleSessions() throws IOException;
+}
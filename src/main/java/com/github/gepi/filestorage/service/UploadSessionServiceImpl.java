@@ -0,0 +1,293 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.UploadSessionInfo;
+import com.github.gepi.filestorage.exception.FileNameNotSpecified;
+import com.github.gepi.filestorage.exception.UploadIsIncomplete;
+import com.github.gepi.filestorage.exception.UploadPartIsInvalid;
+import com.github.gepi.filestorage.exception.UploadSessionNotFound;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Multipart upload sessions. Every session owns a staging directory with a single data file;
+ * parts of a fixed size are written concurrently at their own offsets with positional writes,
+ * so a dropped connection costs one part rather than the whole transfer. On completion the data
+ * file is handed over to the {@link FileService}, which renames it into place when the staging
+ * directory is on the same volume as the storage root.
+ * <p>
+ * With an {@link UploadAdmission} for the staging directory every part is admitted like an
+ * upload of unknown size and reserves space as it is written, so that staged parts cannot fill
+ * the disk either, while a short last part does not need the space of a whole one.
+ */
+@Slf4j
+public class UploadSessionServiceImpl implements UploadSessionService {
+    private static final String DATA_FILE_NAME = "data";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private final FileService fileService;
+    private final Path stagingRoot;
+    private final Duration sessionTtl;
+    private final Clock clock;
+    private final UploadAdmission admission;
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+    private final BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    public UploadSessionServiceImpl(FileService fileService, Path stagingRoot, Duration sessionTtl) {
+        this(fileService, stagingRoot, sessionTtl, null);
+    }
+
+    /**
+     * @param admission admission of the parts into the staging directory, null for none
+     */
+    public UploadSessionServiceImpl(FileService fileService, Path stagingRoot, Duration sessionTtl, UploadAdmission admission) {
+        this(fileService, stagingRoot, sessionTtl, admission, Clock.systemUTC());
+    }
+
+    public UploadSessionServiceImpl(FileService fileService, Path stagingRoot, Duration sessionTtl, UploadAdmission admission,
+                                    Clock clock) {
+        this.fileService = Objects.requireNonNull(fileService);
+        this.stagingRoot = Objects.requireNonNull(stagingRoot);
+        this.sessionTtl = Objects.requireNonNull(sessionTtl);
+        this.admission = admission;
+        this.clock = Objects.requireNonNull(clock);
+    }
+
+    @Override
+    public UploadSessionInfo initiate(String destinationFilePath, String destinationFileName, long partSize) throws IOException {
+        log.debug("initiate upload {}, {}, {}", destinationFilePath, destinationFileName, partSize);
+
+        if (partSize <= 0) {
+            throw new UploadPartIsInvalid();
+        }
+        if (destinationFileName == null || destinationFileName.isEmpty()) {
+            throw new FileNameNotSpecified();
+        }
+        StoragePaths.checkDestination(stagingRoot, destinationFilePath, destinationFileName);
+        String uploadId = UUID.randomUUID().toString();
+        Path directory = Files.createDirectories(stagingRoot.resolve(uploadId));
+        Files.createFile(directory.resolve(DATA_FILE_NAME));
+
+        UploadSession session = new UploadSession(uploadId, directory, destinationFilePath, destinationFileName, partSize, clock.instant());
+        sessions.put(uploadId, session);
+        return session.toInfo();
+    }
+
+    @Override
+    public void uploadPart(String uploadId, int partNumber, InputStream inputStream) throws IOException {
+        log.debug("upload part {}, {}", uploadId, partNumber);
+
+        if (partNumber < 1) {
+            throw new UploadPartIsInvalid();
+        }
+        UploadSession session = getSession(uploadId);
+        session.lock.readLock().lock();
+        try {
+            if (session.closed) {
+                throw new UploadSessionNotFound();
+            }
+            session.lastAccess = clock.instant();
+            long offset = (partNumber - 1) * session.partSize;
+            session.receivedParts.remove(partNumber);
+            long written;
+            try (UploadAdmission.Ticket ticket = admission == null ? null : admission.admit(-1);
+                 FileChannel channel = FileChannel.open(session.dataFile(), StandardOpenOption.WRITE)) {
+                written = writePart(Channels.newChannel(ticket == null ? inputStream : ticket.meter(inputStream)), channel, offset, session.partSize);
+            }
+            if (written == 0) {
+                throw new UploadPartIsInvalid();
+            }
+            session.receivedParts.put(partNumber, written);
+        } finally {
+            session.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public UploadSessionInfo getInfo(String uploadId) {
+        return getSession(uploadId).toInfo();
+    }
+
+    @Override
+    public Path complete(String uploadId) throws IOException {
+        log.debug("complete upload {}", uploadId);
+
+        UploadSession session = getSession(uploadId);
+        session.lock.writeLock().lock();
+        try {
+            if (session.closed) {
+                throw new UploadSessionNotFound();
+            }
+            long size = session.completedSize();
+            try (FileChannel channel = FileChannel.open(session.dataFile(), StandardOpenOption.WRITE)) {
+                channel.truncate(size);
+            }
+            Path savedPath = fileService.save(session.dataFile(), session.destinationFilePath, session.destinationFileName);
+            close(session);
+            return savedPath;
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void abort(String uploadId) throws IOException {
+        log.debug("abort upload {}", uploadId);
+
+        UploadSession session = getSession(uploadId);
+        session.lock.writeLock().lock();
+        try {
+            close(session);
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops sessions without activity for longer than the TTL, as well as staging directories
+     * left over by sessions that did not survive a restart.
+     */
+    @Override
+    @Scheduled(fixedDelayString = "${fileService.uploadSessions.cleanupInterval:PT10M}")
+    public void removeStaleSessions() throws IOException {
+        Instant expiration = clock.instant().minus(sessionTtl);
+
+        for (UploadSession session : sessions.values()) {
+            if (session.lastAccess.isBefore(expiration) && session.lock.writeLock().tryLock()) {
+                try {
+                    log.debug("remove stale upload {}", session.uploadId);
+                    close(session);
+                } finally {
+                    session.lock.writeLock().unlock();
+                }
+            }
+        }
+
+        if (!Files.isDirectory(stagingRoot)) {
+            return;
+        }
+        try (Stream<Path> directories = Files.list(stagingRoot)) {
+            for (Path directory : directories.toList()) {
+                if (!sessions.containsKey(directory.getFileName().toString())
+                        && Files.getLastModifiedTime(directory).toInstant().isBefore(expiration)) {
+                    log.debug("remove orphaned upload {}", directory);
+                    FileSystemUtils.deleteRecursively(directory);
+                }
+            }
+        }
+    }
+
+    private UploadSession getSession(String uploadId) {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            throw new UploadSessionNotFound();
+        }
+        return session;
+    }
+
+    /**
+     * Positional writes go straight to the part's own region, beyond the current end of file
+     * if needed, so parts may arrive in any order and on any number of connections. The direct
+     * buffers are pooled, allocating one per part would be slower than the write itself.
+     */
+    private long writePart(ReadableByteChannel source, FileChannel target, long position, long maxSize) throws IOException {
+        ByteBuffer pooled = buffers.poll();
+        ByteBuffer buffer = pooled != null ? pooled : ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try {
+            long written = 0;
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                if (written + buffer.remaining() > maxSize) {
+                    throw new UploadPartIsInvalid();
+                }
+                while (buffer.hasRemaining()) {
+                    written += target.write(buffer, position + written);
+                }
+                buffer.clear();
+            }
+            return written;
+        } finally {
+            buffer.clear();
+            buffers.offer(buffer);
+        }
+    }
+
+    private void close(UploadSession session) throws IOException {
+        session.closed = true;
+        sessions.remove(session.uploadId);
+        FileSystemUtils.deleteRecursively(session.directory);
+    }
+
+    private static final class UploadSession {
+        private final String uploadId;
+        private final Path directory;
+        private final String destinationFilePath;
+        private final String destinationFileName;
+        private final long partSize;
+        private final ConcurrentSkipListMap<Integer, Long> receivedParts = new ConcurrentSkipListMap<>();
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private volatile Instant lastAccess;
+        private volatile boolean closed;
+
+        private UploadSession(String uploadId, Path directory, String destinationFilePath, String destinationFileName,
+                              long partSize, Instant lastAccess) {
+            this.uploadId = uploadId;
+            this.directory = directory;
+            this.destinationFilePath = destinationFilePath;
+            this.destinationFileName = destinationFileName;
+            this.partSize = partSize;
+            this.lastAccess = lastAccess;
+        }
+
+        private Path dataFile() {
+            return directory.resolve(DATA_FILE_NAME);
+        }
+
+        /**
+         * Parts must be numbered 1..N without gaps and all of them but the last must be full.
+         */
+        private long completedSize() {
+            if (receivedParts.isEmpty() || receivedParts.lastKey() != receivedParts.size()) {
+                throw new UploadIsIncomplete();
+            }
+            long size = 0;
+            for (Map.Entry<Integer, Long> part : receivedParts.entrySet()) {
+                if (part.getKey() != receivedParts.size() && part.getValue() != partSize) {
+                    throw new UploadIsIncomplete();
+                }
+                size += part.getValue();
+            }
+            return size;
+        }
+
+        private UploadSessionInfo toInfo() {
+            return new UploadSessionInfo(uploadId, destinationFilePath, destinationFileName, partSize,
+                    new TreeSet<>(receivedParts.keySet()));
+        }
+    }
+}
@@ -1,33 +1,57 @@
 package com.github.gepi.filestorage;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.gepi.filestorage.dto.ChangeEvent;
 import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import com.github.gepi.filestorage.exception.ChangesCompacted;
+import com.github.gepi.filestorage.exception.InsufficientStorage;
+import com.github.gepi.filestorage.exception.OperationLimitExceeded;
+import com.github.gepi.filestorage.service.ChangeJournal;
 import com.github.gepi.filestorage.service.FileService;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.io.InputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 
 @AutoConfigureMockMvc
-@SpringBootTest
+@SpringBootTest(properties = "fileService.changes.enabled=true")
 class FileStorageApplicationTests {
     @Autowired
     private MockMvc mvc;
@@ -35,6 +59,9 @@ class FileStorageApplicationTests {
     @MockBean
     private FileService fileService;
 
+    @MockBean
+    private ChangeJournal changeJournal;
+
     @Test
     void contextLoads() {
     }
@@ -46,14 +73,46 @@ class FileStorageApplicationTests {
         params.put("destinationFilePath", "/111/112/");
         params.put("destinationFileName", "uploaded.txt");
 
+        when(fileService.saveAndDescribe(any(InputStream.class), eq(9L), eq("/111/112/"), eq("uploaded.txt")))
+                .thenReturn(new FileInfo("111/112/uploaded.txt", "uploaded.txt", 9, 9, "0a1b2c3d", null));
+
         mvc.perform(
                         multipart("/upload")
                                 .file(multipartFile)
                                 .param((String) params.keySet().toArray()[0], (String) params.values().toArray()[0])
                                 .param((String) params.keySet().toArray()[1], (String) params.values().toArray()[1]))
-                .andExpect(status().isOk());
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"fullFileName\":\"111/112/uploaded.txt\",\"fileName\":\"uploaded.txt\",\"size\":9,\"crc32c\":\"0a1b2c3d\"}"));
+
+        then(fileService).should(times(0)).getFileStream(anyString(), any());
+    }
+
+    @Test
+    void callUploadStream() throws Exception {
+        when(fileService.saveAndDescribe(any(InputStream.class), eq(9L), eq("/111/112/"), eq("uploaded.txt")))
+                .thenReturn(new FileInfo("111/112/uploaded.txt", "uploaded.txt", 9));
+
+        mvc.perform(put("/files/111/112/uploaded.txt").content("Some file".getBytes()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.size").value(9));
+        then(fileService).should(times(0)).getFileStream(anyString(), any());
 
-        then(this.fileService).should().save(multipartFile, (String) params.values().toArray()[1], (String) params.values().toArray()[0]);
+        mvc.perform(put("/files/111/112/").content("Some file".getBytes()))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void callUploadStreamWithChecksum() throws Exception {
+        when(fileService.saveAndDescribe(any(InputStream.class), anyLong(), anyString(), anyString())).thenAnswer(invocation -> {
+            invocation.getArgument(0, InputStream.class).readAllBytes();
+            return new FileInfo("dir/uploaded.txt", "uploaded.txt", 9);
+        });
+
+        // CRC32C of "Some file"
+        mvc.perform(put("/files/dir/uploaded.txt").param("crc32c", "a49cdb0b").content("Some file".getBytes()))
+                .andExpect(status().isOk());
+        mvc.perform(put("/files/dir/uploaded.txt").param("crc32c", "00000000").content("Some file".getBytes()))
+                .andExpect(status().isBadRequest());
     }
 
     @Test
@@ -73,6 +132,125 @@ class FileStorageApplicationTests {
         then(this.fileService).should().getFileList("/path", true);
     }
 
+    @Test
+    void callList_anyAcceptedType() throws Exception {
+        when(fileService.getFileList(anyString(), anyBoolean())).thenReturn(List.of());
+
+        mvc.perform(get("/list/path").accept(MediaType.ALL))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$", Matchers.hasSize(0)));
+    }
+
+    @Test
+    void callListPage() throws Exception {
+        List<FileInfo> fileInfos = List.of(
+                new FileInfo("a.txt", "a.txt", 1),
+                new FileInfo("b.txt", "b.txt", 2),
+                new FileInfo("c.txt", "c.txt", 3));
+
+        when(fileService.getFileStream(anyString(), any())).thenAnswer(invocation -> fileInfos.stream());
+
+        mvc.perform(get("/list/path").param("limit", "2").param("glob", "*.txt").accept(MediaType.ALL))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.files", Matchers.hasSize(2)))
+                .andExpect(jsonPath("$.nextCursor").value("b.txt"));
+        then(fileService).should().getFileStream("/path", new ListingOptions(ListingOptions.UNLIMITED_DEPTH, "*.txt", null));
+
+        mvc.perform(get("/list/path").param("limit", "3").param("cursor", "a.txt").param("deepDive", "false"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.files", Matchers.hasSize(3)))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+        then(fileService).should().getFileStream("/path", new ListingOptions(0, null, "a.txt"));
+    }
+
+    @Test
+    void callListPage_limitNotPositive() throws Exception {
+        mvc.perform(get("/list/path").param("limit", "0"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("The page limit must be positive"));
+        then(fileService).should(times(0)).getFileStream(anyString(), any());
+    }
+
+    @Test
+    void callListStream() throws Exception {
+        when(fileService.getFileStream(anyString(), any())).thenReturn(Stream.of(
+                new FileInfo("a.txt", "a.txt", 1),
+                new FileInfo("dir/b.txt", "b.txt", 2)));
+
+        MvcResult mvcResult = mvc.perform(get("/list/path").param("maxDepth", "2").accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andExpect(content().string("{\"fullFileName\":\"a.txt\",\"fileName\":\"a.txt\",\"size\":1,\"storedSize\":1}\n" +
+                        "{\"fullFileName\":\"dir/b.txt\",\"fileName\":\"b.txt\",\"size\":2,\"storedSize\":2}\n"));
+        then(fileService).should().getFileStream("/path", new ListingOptions(2, null, null));
+    }
+
+    @Test
+    void callList_operationLimitExceeded() throws Exception {
+        when(fileService.getFileList(anyString(), anyBoolean())).thenThrow(new OperationLimitExceeded());
+
+        mvc.perform(get("/list/"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+    }
+
+    @Test
+    void callUploadStream_insufficientStorage() throws Exception {
+        when(fileService.saveAndDescribe(any(InputStream.class), eq(9L), anyString(), anyString())).thenThrow(new InsufficientStorage());
+
+        mvc.perform(put("/files/dir/uploaded.txt").content("Some file".getBytes()))
+                .andExpect(status().isInsufficientStorage())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+    }
+
+    @Test
+    void callListStream_negativeLimit() throws Exception {
+        mvc.perform(get("/list/path").param("limit", "-1").accept("application/x-ndjson"))
+                .andExpect(status().isBadRequest());
+        then(fileService).should(times(0)).getFileStream(anyString(), any());
+    }
+
+    @Test
+    void callChanges() throws Exception {
+        when(changeJournal.getLastSequence()).thenReturn(12L);
+        when(changeJournal.getChanges(10)).thenReturn(Stream.of(
+                new ChangeEvent(11, ChangeEvent.Type.SAVED, "dir/file.txt", 1000),
+                new ChangeEvent(12, ChangeEvent.Type.DELETED, "old", 2000)));
+
+        MvcResult result = mvc.perform(get("/changes").param("since", "10").accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Last-Sequence", "12"))
+                .andExpect(content().string("""
+                        {"sequence":11,"type":"SAVED","path":"dir/file.txt","timestamp":1000}
+                        {"sequence":12,"type":"DELETED","path":"old","timestamp":2000}
+                        """));
+    }
+
+    @Test
+    void callChanges_compacted() throws Exception {
+        when(changeJournal.getChanges(3)).thenThrow(new ChangesCompacted());
+
+        MvcResult result = mvc.perform(get("/changes").param("since", "3").accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isGone());
+    }
+
+    @Test
+    void callChanges_negativeLimit() throws Exception {
+        mvc.perform(get("/changes").param("since", "3").param("limit", "-1").accept("application/x-ndjson"))
+                .andExpect(status().isBadRequest());
+        then(changeJournal).should(times(0)).getChanges(anyLong());
+    }
+
     @Test
     void callDelete() throws Exception {
         mvc.perform(get("/delete/path"))
@@ -86,4 +264,101 @@ class FileStorageApplicationTests {
                 .andExpect(status().isOk());
         then(fileService).should().hardDelete("/");
     }
-}
\ No newline at end of file
+
+    @Test
+    void callHardDeleteAsync() throws Exception {
+        mvc.perform(get("/hardDelete/path").param("async", "true"))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string(HttpHeaders.LOCATION, Matchers.containsString("/deleteJobs/")))
+                .andExpect(jsonPath("$.path").value("/path"));
+        then(fileService).should().moveOut(eq("/path"), any(Path.class));
+        then(fileService).should(times(0)).hardDelete(anyString());
+    }
+
+    @Test
+    void callDownload() throws Exception {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path file = Files.write(fileSystem.getPath("/file.txt"), "0123456789".getBytes());
+            when(fileService.load(anyString())).thenReturn(new FileSystemResource(file));
+
+            String eTag = mvc.perform(get("/download/path/file.txt"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                    .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+                    .andExpect(content().bytes("0123456789".getBytes()))
+                    .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+            mvc.perform(get("/download/path/file.txt").header(HttpHeaders.RANGE, "bytes=2-5"))
+                    .andExpect(status().isPartialContent())
+                    .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10"))
+                    .andExpect(content().bytes("2345".getBytes()));
+
+            mvc.perform(get("/download/path/file.txt").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                    .andExpect(status().isNotModified());
+
+            then(fileService).should(times(3)).load("/path/file.txt");
+        }
+    }
+
+    @Test
+    void callDownloadCompressed() throws Exception {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path compressedFile = Files.write(fileSystem.getPath("/compressed.txt"), "compressed".getBytes());
+            Path file = Files.write(fileSystem.getPath("/file.txt"), "0123456789".getBytes());
+            when(fileService.loadCompressed(anyString())).thenReturn(Optional.of(new FileSystemResource(compressedFile)));
+            when(fileService.load(anyString())).thenReturn(new FileSystemResource(file));
+
+            mvc.perform(get("/download/path/file.txt").header(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip;q=0.8"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                    .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                    .andExpect(header().string(HttpHeaders.ETAG, Matchers.endsWith("-gz\"")))
+                    .andExpect(content().bytes("compressed".getBytes()));
+
+            mvc.perform(get("/download/path/file.txt").header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, *"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                    .andExpect(content().bytes("0123456789".getBytes()));
+
+            then(fileService).should(times(1)).loadCompressed("/path/file.txt");
+        }
+    }
+
+    @Test
+    void callBatchStat() throws Exception {
+        when(fileService.getFileStream(eq("/a.txt"), any())).thenAnswer(invocation -> Stream.of(new FileInfo("", "", 10)));
+        when(fileService.getFileStream(eq("/b.txt"), any())).thenAnswer(invocation -> Stream.empty());
+
+        mvc.perform(post("/batch/stat").contentType(MediaType.APPLICATION_JSON).content("[\"/a.txt\", \"/b.txt\"]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.succeeded").value(1))
+                .andExpect(jsonPath("$.failed").value(1))
+                .andExpect(jsonPath("$.items[0].file.size").value(10))
+                .andExpect(jsonPath("$.items[1].status").value("INVALID"))
+                .andExpect(jsonPath("$.items[1].error").value("Path not exist"));
+    }
+
+    @Test
+    void callArchive() throws Exception {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path file = Files.write(fileSystem.getPath("/a.txt"), "0123456789".getBytes());
+            when(fileService.getFileStream(anyString(), any())).thenAnswer(invocation -> Stream.of(new FileInfo("a.txt", "a.txt", 10)));
+            when(fileService.load(anyString())).thenReturn(new FileSystemResource(file));
+            when(fileService.exists("/path/dir")).thenReturn(true);
+
+            MvcResult mvcResult = mvc.perform(get("/archive/path/dir").param("format", "zip"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            mvc.perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType("application/zip"))
+                    .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, Matchers.containsString("dir.zip")));
+            then(fileService).should().load("/path/dir/a.txt");
+
+            mvc.perform(get("/archive/path/dir").param("format", "rar"))
+                    .andExpect(status().isBadRequest());
+            mvc.perform(get("/archive/does-not-exist"))
+                    .andExpect(status().isNotFound());
+        }
+    }
+}
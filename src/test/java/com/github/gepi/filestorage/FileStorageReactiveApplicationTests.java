@@ -0,0 +1,169 @@
+package com.github.gepi.filestorage;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import com.github.gepi.filestorage.exception.FileIsEmpty;
+import com.github.gepi.filestorage.exception.InsufficientStorage;
+import com.github.gepi.filestorage.exception.OperationLimitExceeded;
+import com.github.gepi.filestorage.service.FileService;
+import com.github.gepi.filestorage.service.UploadAdmission;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.when;
+
+@AutoConfigureWebTestClient
+@SpringBootTest(properties = "spring.main.web-application-type=reactive")
+class FileStorageReactiveApplicationTests {
+    @Autowired
+    private WebTestClient webClient;
+
+    @MockBean
+    private FileService fileService;
+
+    @MockBean
+    private UploadAdmission stagingAdmission;
+
+    @Test
+    void callList() {
+        when(fileService.getFileStream(anyString(), any())).thenAnswer(invocation -> Stream.of(
+                new FileInfo("a.txt", "a.txt", 1),
+                new FileInfo("dir/b.txt", "b.txt", 2)));
+
+        webClient.get().uri("/list/path").exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[1].fullFileName").isEqualTo("dir/b.txt");
+        then(fileService).should().getFileStream("/path", new ListingOptions(ListingOptions.UNLIMITED_DEPTH, null, null));
+
+        webClient.get().uri("/list/path?maxDepth=2&limit=1").accept(MediaType.APPLICATION_NDJSON).exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .isEqualTo("{\"fullFileName\":\"a.txt\",\"fileName\":\"a.txt\",\"size\":1,\"storedSize\":1}\n");
+        then(fileService).should().getFileStream("/path", new ListingOptions(2, null, null));
+    }
+
+    @Test
+    void callListPage() {
+        when(fileService.getFileStream(anyString(), any())).thenAnswer(invocation -> Stream.of(
+                new FileInfo("a.txt", "a.txt", 1),
+                new FileInfo("b.txt", "b.txt", 2),
+                new FileInfo("c.txt", "c.txt", 3)));
+
+        webClient.get().uri("/list/path?limit=2&cursor=0.txt").accept(MediaType.ALL).exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.files.length()").isEqualTo(2)
+                .jsonPath("$.nextCursor").isEqualTo("b.txt");
+        then(fileService).should().getFileStream("/path", new ListingOptions(ListingOptions.UNLIMITED_DEPTH, null, "0.txt"));
+    }
+
+    @Test
+    void callListPage_limitNotPositive() {
+        webClient.get().uri("/list/path?limit=0").exchange()
+                .expectStatus().isBadRequest();
+        then(fileService).should(times(0)).getFileStream(anyString(), any());
+    }
+
+    @Test
+    void callDownload(@TempDir Path directory) throws Exception {
+        Path file = Files.write(directory.resolve("file.txt"), "0123456789".getBytes());
+        when(fileService.load(anyString())).thenReturn(new FileSystemResource(file));
+
+        String eTag = webClient.get().uri("/download/path/file.txt").exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_LENGTH, "10")
+                .expectBody(String.class).isEqualTo("0123456789")
+                .returnResult()
+                .getResponseHeaders().getETag();
+
+        webClient.get().uri("/download/path/file.txt").header(HttpHeaders.RANGE, "bytes=2-5").exchange()
+                .expectStatus().isEqualTo(206)
+                .expectBody(String.class).isEqualTo("2345");
+
+        webClient.get().uri("/download/path/file.txt").ifNoneMatch(eTag).exchange()
+                .expectStatus().isNotModified();
+    }
+
+    @Test
+    void callUploadStream() throws Exception {
+        AtomicReference<String> savedContent = new AtomicReference<>();
+        AtomicReference<Path> stagingFile = new AtomicReference<>();
+        when(fileService.saveAndDescribe(any(Path.class), anyString(), anyString())).thenAnswer(invocation -> {
+            stagingFile.set(invocation.getArgument(0));
+            savedContent.set(Files.readString(stagingFile.get()));
+            return new FileInfo("111/112/uploaded.txt", "uploaded.txt", 9, 9, "4f0fcc1f", null);
+        });
+
+        webClient.put().uri("/files/111/112/uploaded.txt").bodyValue("Some file".getBytes()).exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.fullFileName").isEqualTo("111/112/uploaded.txt")
+                .jsonPath("$.crc32c").isEqualTo("4f0fcc1f");
+        then(fileService).should().saveAndDescribe(any(Path.class), eq("/111/112/"), eq("uploaded.txt"));
+        assertEquals("Some file", savedContent.get());
+        assertFalse(Files.exists(stagingFile.get()));
+
+        webClient.put().uri("/files/111/112/").bodyValue("Some file".getBytes()).exchange()
+                .expectStatus().isBadRequest();
+
+        when(fileService.saveAndDescribe(any(Path.class), anyString(), anyString())).thenThrow(new FileIsEmpty());
+        webClient.put().uri("/files/111/112/empty.txt").exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void callUploadStream_withChecksums() throws Exception {
+        when(fileService.saveAndDescribe(any(Path.class), anyString(), anyString()))
+                .thenReturn(new FileInfo("uploaded.txt", "uploaded.txt", 9));
+        String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest("Some file".getBytes()));
+
+        webClient.put().uri("/files/uploaded.txt?sha256=" + sha256.toUpperCase()).bodyValue("Some file".getBytes()).exchange()
+                .expectStatus().isOk();
+
+        webClient.put().uri("/files/uploaded.txt?sha256=" + sha256).bodyValue("Other file".getBytes()).exchange()
+                .expectStatus().isBadRequest();
+        then(fileService).should(times(1)).saveAndDescribe(any(Path.class), anyString(), anyString());
+    }
+
+    @Test
+    void callUploadStream_rejectedByAdmission() throws Exception {
+        when(stagingAdmission.admit(9L)).thenThrow(new OperationLimitExceeded());
+        webClient.put().uri("/files/111/112/uploaded.txt").bodyValue("Some file".getBytes()).exchange()
+                .expectStatus().isEqualTo(503)
+                .expectHeader().exists(HttpHeaders.RETRY_AFTER);
+
+        doThrow(new InsufficientStorage()).when(stagingAdmission).admit(9L);
+        webClient.put().uri("/files/111/112/uploaded.txt").bodyValue("Some file".getBytes()).exchange()
+                .expectStatus().isEqualTo(507)
+                .expectHeader().exists(HttpHeaders.RETRY_AFTER);
+
+        then(fileService).should(never()).saveAndDescribe(any(Path.class), anyString(), anyString());
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.BatchItemResult;
+import com.github.gepi.filestorage.dto.BatchResult;
+import com.github.gepi.filestorage.exception.ArchiveIsInvalid;
+import com.github.gepi.filestorage.exception.BatchIsTooLarge;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchServiceTest {
+    @Test
+    public void testUploadTar() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+             BatchServiceImpl batchService = createBatchService(fileSystem)) {
+            byte[] tar = tar("a.txt", "a", "./dir/b.txt", "bb", "dir/large.txt", "0123456789", "../../evil.txt", "x", "empty.txt", "");
+
+            BatchResult result = batchService.uploadTar(new ByteArrayInputStream(tar), "/target");
+
+            assertEquals(3, result.succeeded());
+            assertEquals(2, result.failed());
+            assertEquals(List.of("/target/a.txt", "/target/dir/b.txt", "/target/dir/large.txt", "/target/../../evil.txt", "/target/empty.txt"),
+                    result.items().stream().map(BatchItemResult::path).toList());
+            assertEquals(BatchItemResult.Status.INVALID, result.items().get(3).status());
+            assertEquals("Uploaded file is empty", result.items().get(4).error());
+            assertEquals(2, result.items().get(1).file().getSize());
+            assertEquals("bb", Files.readString(fileSystem.getPath("/storage/target/dir/b.txt")));
+            assertEquals("0123456789", Files.readString(fileSystem.getPath("/storage/target/dir/large.txt")));
+            assertFalse(Files.exists(fileSystem.getPath("/evil.txt")));
+
+            assertThrows(ArchiveIsInvalid.class, () -> batchService.uploadTar(new ByteArrayInputStream("not a tar archive".repeat(100).getBytes()), "/"));
+        }
+    }
+
+    @Test
+    public void testUploadTar_largeEntriesIntoDeduplicatingStorage() throws IOException {
+        Configuration unixWithLinkCounts = Configuration.unix().toBuilder()
+                .setAttributeViews("basic", "owner", "posix", "unix")
+                .build();
+        try (FileSystem fileSystem = Jimfs.newFileSystem(unixWithLinkCounts)) {
+            Path root = Files.createDirectories(fileSystem.getPath("/storage"));
+            BlobStore blobStore = new BlobStore(fileSystem.getPath("/blobs"), Duration.ofMinutes(10));
+            try (BatchServiceImpl batchService = new BatchServiceImpl(new DeduplicatingFileService(root, blobStore), 2, 5, 8)) {
+                byte[] tar = tar("large1.txt", "0123456789", "large2.txt", "9876543210", "small.txt", "s");
+
+                // unlike a byte array stream, a buffered one cannot be read once closed
+                BatchResult result = batchService.uploadTar(new BufferedInputStream(new ByteArrayInputStream(tar)), "/");
+
+                assertEquals(3, result.succeeded(), result.toString());
+                assertEquals("0123456789", Files.readString(root.resolve("large1.txt")));
+                assertEquals("9876543210", Files.readString(root.resolve("large2.txt")));
+                assertEquals("s", Files.readString(root.resolve("small.txt")));
+            }
+        }
+    }
+
+    @Test
+    public void testUploadTar_entriesPastTheLimitNotStored() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+             BatchServiceImpl batchService = createBatchService(fileSystem)) {
+            byte[] tar = tar("1.txt", "1", "2.txt", "2", "3.txt", "3", "4.txt", "4", "5.txt", "5", "6.txt", "6", "7.txt", "7");
+
+            BatchResult result = batchService.uploadTar(new ByteArrayInputStream(tar), "/");
+
+            assertEquals(5, result.succeeded());
+            assertEquals(6, result.items().size());
+            assertEquals(BatchItemResult.Status.INVALID, result.items().get(5).status());
+            assertEquals("Batch has too many items", result.items().get(5).error());
+            assertTrue(Files.exists(fileSystem.getPath("/storage/5.txt")));
+            assertFalse(Files.exists(fileSystem.getPath("/storage/6.txt")));
+            assertFalse(Files.exists(fileSystem.getPath("/storage/7.txt")));
+        }
+    }
+
+    @Test
+    public void testDeleteAndStat() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+             BatchServiceImpl batchService = createBatchService(fileSystem)) {
+            batchService.uploadTar(new ByteArrayInputStream(tar("dir/1.txt", "1", "dir/2.txt", "22", "3.txt", "333")), "/");
+
+            BatchResult stat = batchService.stat(List.of("/dir/2.txt", "3.txt", "/missing.txt"));
+            assertEquals(2, stat.succeeded());
+            assertEquals(2, stat.items().get(0).file().getSize());
+            assertEquals("dir/2.txt", stat.items().get(0).file().getFullFileName());
+            assertEquals(3, stat.items().get(1).file().getSize());
+            assertEquals(BatchItemResult.Status.INVALID, stat.items().get(2).status());
+
+            BatchResult delete = batchService.delete(List.of("/dir/1.txt", "/dir/2.txt", "/missing.txt"), false);
+            assertEquals(2, delete.succeeded());
+            assertFalse(Files.exists(fileSystem.getPath("/storage/dir/1.txt")));
+            assertTrue(Files.exists(fileSystem.getPath("/storage/3.txt")));
+
+            assertThrows(BatchIsTooLarge.class, () -> batchService.stat(List.of("1", "2", "3", "4", "5", "6")));
+        }
+    }
+
+    private static BatchServiceImpl createBatchService(FileSystem fileSystem) throws IOException {
+        Path root = Files.createDirectories(fileSystem.getPath("/storage"));
+        return new BatchServiceImpl(new FileServiceImpl(root), 2, 5, 8);
+    }
+
+    /**
+     * A tar archive of alternating entry names and contents.
+     */
+    private static byte[] tar(String... namesAndContents) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(outputStream)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                byte[] content = namesAndContents[i + 1].getBytes();
+                TarArchiveEntry entry = new TarArchiveEntry(namesAndContents[i]);
+                entry.setSize(content.length);
+                tar.putArchiveEntry(entry);
+                tar.write(content);
+                tar.closeArchiveEntry();
+            }
+        }
+        return outputStream.toByteArray();
+    }
+}
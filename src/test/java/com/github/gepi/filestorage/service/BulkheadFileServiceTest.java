@@ -0,0 +1,39 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import com.github.gepi.filestorage.exception.OperationLimitExceeded;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BulkheadFileServiceTest {
+
+    @Test
+    public void testListingLimit_otherOperationsNotAffected() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            FileService fileService = new BulkheadFileService(new FileServiceImpl(Files.createDirectories(fileSystem.getPath("/storage"))),
+                    new BulkheadFileService.Limits(1, 1, 0, 0), Duration.ofMillis(10));
+            fileService.save(new ByteArrayInputStream("Content1".getBytes()), "/", "1.txt");
+
+            try (Stream<FileInfo> files = fileService.getFileStream("/", new ListingOptions(ListingOptions.UNLIMITED_DEPTH, null, null))) {
+                assertEquals(1, files.count());
+                assertThrows(OperationLimitExceeded.class, () -> fileService.getFileList("/", true));
+                assertThrows(OperationLimitExceeded.class, () -> fileService.getFileStream("/", new ListingOptions(1, null, null)));
+
+                fileService.save(new ByteArrayInputStream("Content2".getBytes()), "/", "2.txt");
+                assertEquals(8, fileService.load("/2.txt").contentLength());
+            }
+            assertEquals(2, fileService.getFileList("/", true).size());
+        }
+    }
+}
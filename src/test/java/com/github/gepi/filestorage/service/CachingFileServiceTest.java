@@ -0,0 +1,119 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.exception.PathNotExist;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingFileServiceTest {
+    @Test
+    public void testLoad_servedFromCacheUntilChanged() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path root = Files.createDirectories(fileSystem.getPath("/root"));
+            MeterRegistry registry = new SimpleMeterRegistry();
+            CachingFileService fileService = new CachingFileService(new FileServiceImpl(root), 1024, 512, Duration.ofHours(1));
+            fileService.bindTo(registry);
+            fileService.save(stream("version 1"), "/dir", "config.txt");
+
+            assertEquals("version 1", readString(fileService, "/dir/config.txt"));
+            Files.writeString(root.resolve("dir/config.txt"), "changed behind the service");
+            assertEquals("version 1", readString(fileService, "dir//config.txt"));
+            assertEquals(1, registry.get("filestorage.cache.hits").functionCounter().count());
+            assertEquals(1, registry.get("filestorage.cache.misses").functionCounter().count());
+
+            fileService.save(stream("version 2"), "/dir", "config.txt");
+            assertEquals("version 2", readString(fileService, "/dir/config.txt"));
+
+            fileService.hardDelete("/dir");
+            assertThrows(PathNotExist.class, () -> fileService.load("/dir/config.txt"));
+            assertEquals(0, registry.get("filestorage.cache.size").gauge().value());
+        }
+    }
+
+    @Test
+    public void testLoad_evictsToStayWithinSize() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path root = Files.createDirectories(fileSystem.getPath("/root"));
+            MeterRegistry registry = new SimpleMeterRegistry();
+            CachingFileService fileService = new CachingFileService(new FileServiceImpl(root), 100, 50, Duration.ofHours(1));
+            fileService.bindTo(registry);
+            for (String name : new String[]{"a", "b", "c", "large"}) {
+                fileService.save(stream(name.repeat(name.equals("large") ? 60 : 40)), "/", name);
+            }
+
+            readString(fileService, "/a");
+            readString(fileService, "/b");
+            readString(fileService, "/a");
+            readString(fileService, "/c");
+            readString(fileService, "/large");
+
+            assertEquals(1, registry.get("filestorage.cache.evictions").functionCounter().count());
+            assertEquals(80, registry.get("filestorage.cache.size").gauge().value());
+            assertEquals(2, registry.get("filestorage.cache.entries").gauge().value());
+            assertEquals("a".repeat(40), readString(fileService, "/a"));
+            assertEquals(2, registry.get("filestorage.cache.hits").functionCounter().count());
+        }
+    }
+
+    @Test
+    public void testLoad_contentReplacedWhileReadNotCached() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path root = Files.createDirectories(fileSystem.getPath("/root"));
+            CachingFileService[] cachingService = new CachingFileService[1];
+            AtomicBoolean replacing = new AtomicBoolean(true);
+            FileService delegate = new FileServiceImpl(root) {
+                // reads the old content, then the file is saved again before the load gets to cache it
+                @Override
+                public Resource load(String requestPath) {
+                    Resource resource = super.load(requestPath);
+                    if (!replacing.compareAndSet(true, false)) {
+                        return resource;
+                    }
+                    try (InputStream inputStream = resource.getInputStream()) {
+                        byte[] content = inputStream.readAllBytes();
+                        cachingService[0].save(stream("version 2"), "/dir", "config.txt");
+                        return new ByteArrayResource(content) {
+                            @Override
+                            public long lastModified() {
+                                return 0;
+                            }
+                        };
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+            cachingService[0] = new CachingFileService(delegate, 1024, 512, Duration.ofHours(1));
+            cachingService[0].save(stream("version 1"), "/dir", "config.txt");
+
+            assertEquals("version 1", readString(cachingService[0], "/dir/config.txt"));
+            assertEquals("version 2", readString(cachingService[0], "/dir/config.txt"));
+        }
+    }
+
+    private static String readString(CachingFileService fileService, String path) throws IOException {
+        try (InputStream inputStream = fileService.load(path).getInputStream()) {
+            return new String(inputStream.readAllBytes());
+        }
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes());
+    }
+}
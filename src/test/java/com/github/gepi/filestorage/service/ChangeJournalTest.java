@@ -0,0 +1,199 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.ChangeEvent;
+import com.github.gepi.filestorage.exception.ChangesCompacted;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.google.common.jimfs.WatchServiceConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeJournalTest {
+    private static final long MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    @Test
+    public void testGetChanges_sinceCursorAndAfterReopen() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path root = Files.createDirectories(fileSystem.getPath("/root"));
+            Path journalPath = fileSystem.getPath("/journal");
+            try (ChangeJournalImpl journal = new ChangeJournalImpl(journalPath, MAX_SEGMENT_SIZE, Duration.ofDays(1))) {
+                FileService fileService = new JournalingFileService(new FileServiceImpl(root), journal);
+                fileService.save(stream("a"), "/dir/", "a.txt");
+                fileService.save(stream("b"), "dir", "b.txt");
+                fileService.delete("/dir/a.txt");
+
+                assertEquals(List.of("1 SAVED dir/a.txt", "2 SAVED dir/b.txt", "3 DELETED dir/a.txt"), changes(journal, 0));
+                assertEquals(List.of("3 DELETED dir/a.txt"), changes(journal, 2));
+                assertEquals(List.of(), changes(journal, 3));
+            }
+            // a change cut short by a crash
+            Files.writeString(journalPath.resolve(String.format("%020d.log", 1)), "{\"sequence\":4,\"ty", StandardOpenOption.APPEND);
+
+            try (ChangeJournalImpl journal = new ChangeJournalImpl(journalPath, MAX_SEGMENT_SIZE, Duration.ofDays(1))) {
+                assertEquals(3, journal.getLastSequence());
+                journal.record(ChangeEvent.Type.DELETED, "dir");
+                assertEquals(List.of("3 DELETED dir/a.txt", "4 DELETED dir"), changes(journal, 2));
+            }
+        }
+    }
+
+    @Test
+    public void testCompact_keepsLatestChangePerPath() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+             // every change gets a segment of its own, deletions expire as soon as they are sealed
+             ChangeJournalImpl journal = new ChangeJournalImpl(fileSystem.getPath("/journal"), 1, Duration.ZERO)) {
+            journal.record(ChangeEvent.Type.SAVED, "a");
+            journal.record(ChangeEvent.Type.SAVED, "b");
+            journal.record(ChangeEvent.Type.SAVED, "a");
+            journal.record(ChangeEvent.Type.DELETED, "c");
+            journal.record(ChangeEvent.Type.SAVED, "b");
+
+            journal.compact();
+
+            assertEquals(2, journal.getSegmentCount());
+            assertEquals(4, journal.getHorizon());
+            assertThrows(ChangesCompacted.class, () -> journal.getChanges(3));
+            assertEquals(List.of("5 SAVED b"), changes(journal, 4));
+            journal.record(ChangeEvent.Type.SAVED, "d");
+            assertEquals(List.of("5 SAVED b", "6 SAVED d"), changes(journal, 4));
+        }
+    }
+
+    @Test
+    public void testWatch_recordsChangesMadeBehindTheServiceOnce() throws Exception {
+        Configuration configuration = Configuration.unix().toBuilder()
+                .setWatchServiceConfiguration(WatchServiceConfiguration.polling(10, TimeUnit.MILLISECONDS))
+                .build();
+        try (FileSystem fileSystem = Jimfs.newFileSystem(configuration);
+             ChangeJournalImpl journal = new ChangeJournalImpl(fileSystem.getPath("/journal"), MAX_SEGMENT_SIZE, Duration.ofDays(1))) {
+            Path root = Files.createDirectories(fileSystem.getPath("/root/dir"));
+            Files.writeString(root.resolve("external.txt"), "external");
+            root = root.getParent();
+            FileService fileService = new JournalingFileService(new FileServiceImpl(root), journal);
+            journal.watch(List.of(root));
+
+            fileService.save(stream("saved"), "/dir", "saved.txt");
+            Files.writeString(root.resolve("dir/written.txt"), "written");
+            Files.delete(root.resolve("dir/external.txt"));
+            awaitTrue(() -> typesAndPaths(journal).containsAll(List.of("SAVED dir/written.txt", "DELETED dir/external.txt")));
+
+            fileService.hardDelete("/dir");
+            Files.createDirectories(root.resolve("other"));
+            Files.writeString(root.resolve("other/moved.txt"), "moved");
+            awaitTrue(() -> typesAndPaths(journal).contains("SAVED other/moved.txt"));
+
+            List<String> changes = typesAndPaths(journal);
+            assertEquals(1, changes.stream().filter("SAVED dir/saved.txt"::equals).count(), changes.toString());
+            assertEquals(1, changes.stream().filter("DELETED dir"::equals).count(), changes.toString());
+            assertFalse(changes.contains("DELETED dir/saved.txt"), changes.toString());
+        }
+    }
+
+    @Test
+    public void testWatch_deletedShardCopyNotRecordedWhileAnotherRemains() throws Exception {
+        Configuration configuration = Configuration.unix().toBuilder()
+                .setWatchServiceConfiguration(WatchServiceConfiguration.polling(10, TimeUnit.MILLISECONDS))
+                .build();
+        try (FileSystem fileSystem = Jimfs.newFileSystem(configuration);
+             ChangeJournalImpl journal = new ChangeJournalImpl(fileSystem.getPath("/journal"), MAX_SEGMENT_SIZE, Duration.ofDays(1))) {
+            Path shard = Files.createDirectories(fileSystem.getPath("/shard/dir"));
+            Path staleShard = Files.createDirectories(fileSystem.getPath("/stale/dir"));
+            Files.writeString(shard.resolve("file.txt"), "content");
+            Files.writeString(staleShard.resolve("file.txt"), "content");
+            journal.watch(List.of(shard.getParent(), staleShard.getParent()));
+
+            Files.delete(staleShard.resolve("file.txt"));
+            Files.writeString(staleShard.resolve("marker.txt"), "marker");
+            awaitTrue(() -> typesAndPaths(journal).contains("SAVED dir/marker.txt"));
+            assertFalse(typesAndPaths(journal).contains("DELETED dir/file.txt"), typesAndPaths(journal).toString());
+
+            Files.delete(shard.resolve("file.txt"));
+            awaitTrue(() -> typesAndPaths(journal).contains("DELETED dir/file.txt"));
+        }
+    }
+
+    @Test
+    public void testWatch_saveSeenBeforeTheServiceRecordsItNotRecordedAgain() throws Exception {
+        Configuration configuration = Configuration.unix().toBuilder()
+                .setWatchServiceConfiguration(WatchServiceConfiguration.polling(10, TimeUnit.MILLISECONDS))
+                .build();
+        try (FileSystem fileSystem = Jimfs.newFileSystem(configuration);
+             ChangeJournalImpl journal = new ChangeJournalImpl(fileSystem.getPath("/journal"), MAX_SEGMENT_SIZE, Duration.ofDays(1))) {
+            Path root = Files.createDirectories(fileSystem.getPath("/root"));
+            journal.watch(List.of(root));
+
+            Files.writeString(root.resolve("file.txt"), "first");
+            awaitTrue(() -> typesAndPaths(journal).contains("SAVED file.txt"));
+            journal.record(ChangeEvent.Type.SAVED, "file.txt");
+            assertEquals(List.of("SAVED file.txt"), typesAndPaths(journal));
+
+            Thread.sleep(10);
+            Files.writeString(root.resolve("file.txt"), "second");
+            journal.record(ChangeEvent.Type.SAVED, "file.txt");
+            assertEquals(List.of("SAVED file.txt", "SAVED file.txt"), typesAndPaths(journal));
+        }
+    }
+
+    @Test
+    public void testWatch_fileMovedInWithOlderModificationTimeRecorded() throws Exception {
+        Configuration configuration = Configuration.unix().toBuilder()
+                .setWatchServiceConfiguration(WatchServiceConfiguration.polling(10, TimeUnit.MILLISECONDS))
+                .build();
+        try (FileSystem fileSystem = Jimfs.newFileSystem(configuration);
+             ChangeJournalImpl journal = new ChangeJournalImpl(fileSystem.getPath("/journal"), MAX_SEGMENT_SIZE, Duration.ofDays(1))) {
+            Path root = Files.createDirectories(fileSystem.getPath("/root"));
+            FileService fileService = new JournalingFileService(new FileServiceImpl(root), journal);
+            journal.watch(List.of(root));
+            fileService.save(stream("saved"), "/", "file.txt");
+            Thread.sleep(100);
+            assertEquals(List.of("SAVED file.txt"), typesAndPaths(journal));
+
+            // like mv of a file written elsewhere, cp -p, rsync -a or tar extraction
+            Path extracted = Files.writeString(Files.createDirectories(fileSystem.getPath("/staging")).resolve("file.txt"), "extracted");
+            Files.setLastModifiedTime(extracted, FileTime.fromMillis(0));
+            Files.move(extracted, root.resolve("file.txt"), StandardCopyOption.REPLACE_EXISTING);
+
+            awaitTrue(() -> typesAndPaths(journal).equals(List.of("SAVED file.txt", "SAVED file.txt")));
+        }
+    }
+
+    private static List<String> changes(ChangeJournal journal, long since) {
+        try (Stream<ChangeEvent> changes = journal.getChanges(since)) {
+            return changes.map(change -> change.sequence() + " " + change.type() + " " + change.path()).toList();
+        }
+    }
+
+    private static List<String> typesAndPaths(ChangeJournal journal) {
+        try (Stream<ChangeEvent> changes = journal.getChanges(0)) {
+            return changes.map(change -> change.type() + " " + change.path()).toList();
+        }
+    }
+
+    private static void awaitTrue(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.call()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condition was not met in time");
+            Thread.sleep(10);
+        }
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes());
+    }
+}
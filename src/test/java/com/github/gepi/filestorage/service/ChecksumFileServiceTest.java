@@ -0,0 +1,150 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ScrubResult;
+import com.github.gepi.filestorage.exception.ChecksumMismatch;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChecksumFileServiceTest {
+    private static final Configuration UNIX_WITH_USER_ATTRIBUTES = Configuration.unix().toBuilder()
+            .setAttributeViews("basic", "user")
+            .build();
+
+    @Test
+    public void testSave_checksumsStoredAndListed() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(UNIX_WITH_USER_ATTRIBUTES)) {
+            FileService fileService = createChecksummingFileService(fileSystem, null);
+            byte[] content = "some content".getBytes();
+
+            fileService.save(new ByteArrayInputStream(content), "/dir", "streamed.txt");
+            Path sourceFile = Files.write(Files.createDirectories(fileSystem.getPath("/staging")).resolve("source"), content);
+            fileService.save(sourceFile, "/dir", "renamed.txt");
+
+            List<FileInfo> files = fileService.getFileList("/dir", true);
+            assertEquals(2, files.size());
+            for (FileInfo file : files) {
+                assertEquals(crc32c(content), file.getCrc32c(), file.getFullFileName());
+                assertEquals(sha256(content), file.getSha256(), file.getFullFileName());
+            }
+        }
+    }
+
+    @Test
+    public void testSave_mismatchingContentRejected() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(UNIX_WITH_USER_ATTRIBUTES)) {
+            FileService fileService = createChecksummingFileService(fileSystem, null);
+            byte[] content = "some content".getBytes();
+
+            assertThrows(ChecksumMismatch.class, () -> fileService.save(
+                    ChecksummingInputStream.verifying(new ByteArrayInputStream(content), crc32c(content), sha256("other".getBytes())),
+                    "/dir", "file.txt"));
+            try (Stream<Path> paths = Files.list(fileSystem.getPath("/root/dir"))) {
+                assertEquals(0, paths.count());
+            }
+
+            fileService.save(ChecksummingInputStream.verifying(new ByteArrayInputStream(content), crc32c(content).toUpperCase(), null),
+                    "/dir", "file.txt");
+            assertTrue(Files.exists(fileSystem.getPath("/root/dir/file.txt")));
+        }
+    }
+
+    @Test
+    public void testScrub_corruptedFileReported() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(UNIX_WITH_USER_ATTRIBUTES)) {
+            FileService fileService = createChecksummingFileService(fileSystem, new GzipCompression(6, 1024, 0.8));
+            Path intact = fileService.save(new ByteArrayInputStream("compressible text\n".repeat(1000).getBytes()), "/dir", "intact.txt");
+            Path corrupted = fileService.save(new ByteArrayInputStream("some content".getBytes()), "/dir", "corrupted.txt");
+            Path truncated = fileService.save(new ByteArrayInputStream("compressible text\n".repeat(1000).getBytes()), "/dir", "truncated.txt");
+            Files.write(fileSystem.getPath("/root/unchecked.txt"), "saved elsewhere".getBytes());
+
+            FileTime lastModified = Files.getLastModifiedTime(corrupted);
+            Files.write(corrupted, "some CONTENT".getBytes(), StandardOpenOption.WRITE);
+            Files.setLastModifiedTime(corrupted, lastModified);
+            lastModified = Files.getLastModifiedTime(truncated);
+            byte[] compressed = Files.readAllBytes(truncated);
+            Files.write(truncated, Arrays.copyOf(compressed, compressed.length / 2), StandardOpenOption.TRUNCATE_EXISTING);
+            Files.setLastModifiedTime(truncated, lastModified);
+
+            ScrubResult result = new ChecksumScrubber(List.of(fileSystem.getPath("/root")), 1024 * 1024).scrub();
+
+            assertEquals(3, result.filesVerified());
+            assertEquals(Set.of(corrupted.toString(), truncated.toString()), Set.copyOf(result.corruptedFiles()));
+            assertTrue(Files.size(intact) < result.bytesVerified());
+        }
+    }
+
+    @Test
+    public void testSaveAndDescribe_describesFileAsListed() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(UNIX_WITH_USER_ATTRIBUTES)) {
+            FileService fileService = createChecksummingFileService(fileSystem, new GzipCompression(6, 1024, 0.8));
+            byte[] content = "compressible text\n".repeat(1000).getBytes();
+
+            FileInfo saved = fileService.saveAndDescribe(new ByteArrayInputStream(content), -1, "/dir/", "text.txt");
+
+            FileInfo listed = fileService.getFileList("/", true).get(0);
+            assertEquals(List.of("dir/text.txt", "text.txt"), List.of(saved.getFullFileName(), saved.getFileName()));
+            assertEquals(content.length, saved.getSize());
+            assertEquals(listed.getStoredSize(), saved.getStoredSize());
+            assertTrue(saved.getStoredSize() < content.length);
+            assertEquals(crc32c(content), saved.getCrc32c());
+            assertEquals(listed.getSha256(), saved.getSha256());
+        }
+    }
+
+    @Test
+    public void testSaveAndDescribe_renamedFileDescribedAsListed() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(UNIX_WITH_USER_ATTRIBUTES)) {
+            FileService fileService = createChecksummingFileService(fileSystem, null);
+            byte[] content = "staged content".getBytes();
+            Path staged = Files.write(fileSystem.getPath("/staged.upload"), content);
+
+            FileInfo saved = fileService.saveAndDescribe(staged, "/dir", "staged.txt");
+
+            FileInfo listed = fileService.getFileList("/", true).get(0);
+            assertFalse(Files.exists(staged));
+            assertEquals(List.of("dir/staged.txt", "staged.txt"), List.of(saved.getFullFileName(), saved.getFileName()));
+            assertEquals(List.of((long) content.length, (long) content.length), List.of(saved.getSize(), saved.getStoredSize()));
+            assertEquals(crc32c(content), saved.getCrc32c());
+            assertEquals(sha256(content), saved.getSha256());
+            assertEquals(listed.getSha256(), saved.getSha256());
+        }
+    }
+
+    private static FileService createChecksummingFileService(FileSystem fileSystem, GzipCompression compression) throws IOException {
+        return new FileServiceImpl(Files.createDirectories(fileSystem.getPath("/root")), 0, compression, true);
+    }
+
+    private static String crc32c(byte[] content) {
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(content);
+        return String.format("%08x", crc32c.getValue());
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressingFileServiceTest {
+    private static final Configuration UNIX_WITH_USER_ATTRIBUTES = Configuration.unix().toBuilder()
+            .setAttributeViews("basic", "user")
+            .build();
+
+    @Test
+    public void testSave_compressibleContentStoredCompressed() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(UNIX_WITH_USER_ATTRIBUTES)) {
+            FileService fileService = createCompressingFileService(fileSystem);
+            byte[] text = "some text repeated over and over\n".repeat(10_000).getBytes();
+
+            Path saved = fileService.save(new ByteArrayInputStream(text), "/dir", "text.txt");
+
+            assertTrue(Files.size(saved) < text.length / 10);
+            try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(saved))) {
+                assertArrayEquals(text, inputStream.readAllBytes());
+            }
+            Resource resource = fileService.load("/dir/text.txt");
+            assertEquals(text.length, resource.contentLength());
+            try (InputStream inputStream = resource.getInputStream()) {
+                assertArrayEquals(text, inputStream.readAllBytes());
+            }
+            Optional<Resource> compressed = fileService.loadCompressed("/dir/text.txt");
+            assertTrue(compressed.isPresent());
+            assertEquals(Files.size(saved), compressed.get().contentLength());
+
+            FileInfo fileInfo = fileService.getFileList("/", true).get(0);
+            assertEquals(text.length, fileInfo.getSize());
+            assertEquals(Files.size(saved), fileInfo.getStoredSize());
+            try (Stream<FileInfo> files = fileService.getFileStream("/dir", ListingOptions.of(true, null, null, null))) {
+                assertEquals(List.of((long) text.length), files.map(FileInfo::getSize).toList());
+            }
+        }
+    }
+
+    @Test
+    public void testSave_incompressibleContentStoredAsIs() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(UNIX_WITH_USER_ATTRIBUTES)) {
+            FileService fileService = createCompressingFileService(fileSystem);
+            byte[] random = new byte[100_000];
+            new Random(42).nextBytes(random);
+            Path source = Files.write(fileSystem.getPath("/source.bin"), random);
+
+            Path saved = fileService.save(source, "/", "random.bin");
+
+            assertArrayEquals(random, Files.readAllBytes(saved));
+            assertFalse(Files.exists(source));
+            assertTrue(fileService.loadCompressed("/random.bin").isEmpty());
+            FileInfo fileInfo = fileService.getFileList("/", true).get(0);
+            assertEquals(random.length, fileInfo.getSize());
+            assertEquals(random.length, fileInfo.getStoredSize());
+        }
+    }
+
+    @Test
+    public void testSave_compressionDisabledWithoutUserAttributes() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            FileService fileService = createCompressingFileService(fileSystem);
+            byte[] text = "some text repeated over and over\n".repeat(1_000).getBytes();
+
+            Path saved = fileService.save(new ByteArrayInputStream(text), "/", "text.txt");
+
+            assertArrayEquals(text, Files.readAllBytes(saved));
+            assertTrue(fileService.loadCompressed("/text.txt").isEmpty());
+        }
+    }
+
+    @Test
+    public void testLoad_compressedFileAfterCompressionDisabled() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(UNIX_WITH_USER_ATTRIBUTES)) {
+            byte[] text = "some text repeated over and over\n".repeat(1_000).getBytes();
+            Path saved = createCompressingFileService(fileSystem).save(new ByteArrayInputStream(text), "/", "text.txt");
+
+            FileService fileService = new FileServiceImpl(saved.getParent(), 0, null);
+
+            Resource resource = fileService.load("/text.txt");
+            assertEquals(text.length, resource.contentLength());
+            try (InputStream inputStream = resource.getInputStream()) {
+                assertArrayEquals(text, inputStream.readAllBytes());
+            }
+            assertTrue(fileService.loadCompressed("/text.txt").isPresent());
+            assertEquals(text.length, fileService.getFileList("/", true).get(0).getSize());
+            fileService.save(new ByteArrayInputStream(text), "/", "plain.txt");
+            assertArrayEquals(text, fileService.load("/plain.txt").getContentAsByteArray());
+        }
+    }
+
+    @Test
+    public void testGetFileList_attributesOfUnmarkedRootNotRead() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(UNIX_WITH_USER_ATTRIBUTES)) {
+            Path root = Files.createDirectories(fileSystem.getPath("/storage"));
+            Path file = Files.writeString(root.resolve("text.txt"), "text");
+            Files.getFileAttributeView(file, UserDefinedFileAttributeView.class)
+                    .write("filestorage.logical-size", StandardCharsets.US_ASCII.encode("100"));
+
+            FileService fileService = new FileServiceImpl(root);
+
+            assertEquals(4, fileService.getFileList("/", true).get(0).getSize());
+        }
+    }
+
+    @Test
+    public void testGetFileList_unreadableAttributesListedWithout() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(UNIX_WITH_USER_ATTRIBUTES)) {
+            FileService fileService = createCompressingFileService(fileSystem);
+            byte[] text = "some text repeated over and over\n".repeat(1_000).getBytes();
+            Path saved = fileService.save(new ByteArrayInputStream(text), "/", "text.txt");
+            fileService.save(new ByteArrayInputStream(text), "/", "other.txt");
+            Files.getFileAttributeView(saved, UserDefinedFileAttributeView.class)
+                    .write("filestorage.logical-size", StandardCharsets.US_ASCII.encode("garbage"));
+
+            Map<String, Long> sizes = fileService.getFileList("/", true).stream()
+                    .collect(Collectors.toMap(FileInfo::getFullFileName, FileInfo::getSize));
+
+            assertEquals(Map.of("text.txt", Files.size(saved), "other.txt", (long) text.length), sizes);
+        }
+    }
+
+    @Test
+    public void testGetFileList_indexedWithAttributes() throws Exception {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(UNIX_WITH_USER_ATTRIBUTES)) {
+            Path root = Files.createDirectories(fileSystem.getPath("/storage"));
+            byte[] text = "some text repeated over and over\n".repeat(1_000).getBytes();
+            Files.createDirectories(root.resolve("dir"));
+            new FileServiceImpl(root, 0, new GzipCompression(6, 64 * 1024, 0.8), true)
+                    .save(new ByteArrayInputStream(text), "/dir", "scanned.txt");
+
+            try (IndexedFileService fileService = new IndexedFileService(root, false, new GzipCompression(6, 64 * 1024, 0.8), true)) {
+                fileService.start();
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (!fileService.isReady()) {
+                    assertTrue(System.currentTimeMillis() < deadline, "The index was not ready in time");
+                    Thread.sleep(10);
+                }
+                fileService.save(new ByteArrayInputStream(text), "/dir", "saved.txt");
+
+                List<FileInfo> files = fileService.getFileList("/dir", true);
+
+                assertEquals(2, files.size());
+                for (FileInfo fileInfo : files) {
+                    assertEquals(text.length, fileInfo.getSize());
+                    assertTrue(fileInfo.getStoredSize() < text.length);
+                    assertNotNull(fileInfo.getSha256());
+                }
+            }
+        }
+    }
+
+    private static FileService createCompressingFileService(FileSystem fileSystem) throws IOException {
+        Path root = Files.createDirectories(fileSystem.getPath("/storage"));
+        return new FileServiceImpl(root, 0, new GzipCompression(6, 64 * 1024, 0.8));
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.exception.FileIsEmpty;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeduplicatingFileServiceTest {
+    private static final Configuration UNIX_WITH_LINK_COUNTS = Configuration.unix().toBuilder()
+            .setAttributeViews("basic", "owner", "posix", "unix")
+            .build();
+
+    @Test
+    public void testSave_sameContentStoredOnce() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(UNIX_WITH_LINK_COUNTS)) {
+            FileService fileService = createDeduplicatingFileService(fileSystem, Clock.systemUTC());
+
+            Path first = fileService.save(stream("content"), "/dir1", "1.txt");
+            Path second = fileService.save(stream("content"), "/dir2", "2.txt");
+            fileService.save(stream("other"), "/dir2", "3.txt");
+
+            assertEquals("content", Files.readString(second));
+            assertTrue(Files.isSameFile(first, second));
+            assertEquals(3, Files.getAttribute(first, "unix:nlink"));
+            assertEquals(2, listBlobs(fileSystem).size());
+        }
+    }
+
+    @Test
+    public void testSave_replacedContentKeepsOtherLinks() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(UNIX_WITH_LINK_COUNTS)) {
+            FileService fileService = createDeduplicatingFileService(fileSystem, Clock.systemUTC());
+
+            Path first = fileService.save(stream("content"), "/", "1.txt");
+            Path second = fileService.save(stream("content"), "/", "2.txt");
+            fileService.save(stream("replaced"), "/", "2.txt");
+
+            assertEquals("content", Files.readString(first));
+            assertEquals("replaced", Files.readString(second));
+            assertEquals(2, Files.getAttribute(first, "unix:nlink"));
+            assertThrows(FileIsEmpty.class, () -> fileService.save(stream(""), "/", "3.txt"));
+            assertFalse(Files.exists(fileSystem.getPath("/storage/3.txt")));
+        }
+    }
+
+    @Test
+    public void testCollectGarbage_unreferencedBlobsRemoved() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(UNIX_WITH_LINK_COUNTS)) {
+            Clock future = Clock.fixed(Instant.now().plus(Duration.ofHours(1)), ZoneOffset.UTC);
+            FileService fileService = createDeduplicatingFileService(fileSystem, future);
+            BlobStore youngBlobsKeepingStore = new BlobStore(fileSystem.getPath("/blobs"), Duration.ofMinutes(10));
+            BlobStore blobStore = new BlobStore(fileSystem.getPath("/blobs"), Duration.ofMinutes(10), future);
+
+            fileService.save(stream("content"), "/dir1", "1.txt");
+            fileService.save(stream("content"), "/dir2", "2.txt");
+            fileService.save(stream("other"), "/dir2", "3.txt");
+            fileService.hardDelete("/dir1/1.txt");
+            fileService.hardDelete("/dir2/3.txt");
+
+            blobStore.collectGarbage();
+            assertEquals(1, listBlobs(fileSystem).size());
+            assertEquals("content", Files.readString(fileSystem.getPath("/storage/dir2/2.txt")));
+
+            fileService.hardDelete("/dir2");
+            youngBlobsKeepingStore.collectGarbage();
+            assertEquals(1, listBlobs(fileSystem).size());
+            blobStore.collectGarbage();
+            assertTrue(listBlobs(fileSystem).isEmpty());
+        }
+    }
+
+    private static FileService createDeduplicatingFileService(FileSystem fileSystem, Clock clock) throws IOException {
+        BlobStore blobStore = new BlobStore(fileSystem.getPath("/blobs"), Duration.ofMinutes(10), clock);
+        return new DeduplicatingFileService(Files.createDirectories(fileSystem.getPath("/storage")), blobStore);
+    }
+
+    private static List<Path> listBlobs(FileSystem fileSystem) throws IOException {
+        try (Stream<Path> paths = Files.walk(fileSystem.getPath("/blobs/objects"))) {
+            return paths.filter(Files::isRegularFile).toList();
+        }
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes());
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.DeleteJobInfo;
+import com.github.gepi.filestorage.exception.DeleteJobNotFound;
+import com.github.gepi.filestorage.exception.PathNotExist;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeleteJobServiceTest {
+
+    @Test
+    public void testSubmit_subtreeDetachedAndReclaimed() throws Exception {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            FileService fileService = new FileServiceImpl(Files.createDirectories(fileSystem.getPath("/storage")));
+            for (int i = 0; i < 20; i++) {
+                Files.write(Files.createDirectories(fileSystem.getPath("/storage/dir1/dir" + i % 4 + "/dir" + i)).resolve("file.txt"),
+                        new byte[i + 1]);
+            }
+            Files.writeString(fileSystem.getPath("/storage/keep.txt"), "keep");
+
+            try (DeleteJobServiceImpl deleteJobService = new DeleteJobServiceImpl(fileService, fileSystem.getPath("/trash"), 2, Duration.ofHours(1))) {
+                DeleteJobInfo info = deleteJobService.submit("/dir1");
+
+                assertEquals("/dir1", info.path());
+                assertFalse(Files.exists(fileSystem.getPath("/storage/dir1")));
+                assertEquals(1, fileService.getFileList("/", true).size());
+
+                DeleteJobInfo finished = awaitFinished(deleteJobService, info.jobId());
+                assertEquals(DeleteJobInfo.Status.COMPLETED, finished.status());
+                assertEquals(20, finished.filesDeleted());
+                assertEquals(210, finished.bytesReclaimed());
+                assertFalse(Files.exists(fileSystem.getPath("/trash", info.jobId())));
+                assertThrows(PathNotExist.class, () -> deleteJobService.submit("/dir1"));
+            }
+        }
+    }
+
+    @Test
+    public void testRemoveFinishedJobs_jobsForgottenAndOrphansReclaimed() throws Exception {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            FileService fileService = new FileServiceImpl(Files.createDirectories(fileSystem.getPath("/storage")));
+            Files.writeString(Files.createDirectories(fileSystem.getPath("/storage/dir1")).resolve("1.txt"), "1");
+            Path orphan = Files.createDirectories(fileSystem.getPath("/trash/orphan/dir2"));
+            Files.writeString(orphan.resolve("2.txt"), "22");
+            AtomicReference<Instant> now = new AtomicReference<>(Instant.now());
+            Clock clock = new Clock() {
+                @Override
+                public ZoneId getZone() {
+                    return ZoneOffset.UTC;
+                }
+
+                @Override
+                public Clock withZone(ZoneId zone) {
+                    return this;
+                }
+
+                @Override
+                public Instant instant() {
+                    return now.get();
+                }
+            };
+
+            try (DeleteJobServiceImpl deleteJobService = new DeleteJobServiceImpl(fileService, fileSystem.getPath("/trash"), 1, Duration.ofHours(1), clock)) {
+                DeleteJobInfo info = deleteJobService.submit("/dir1/1.txt");
+                awaitFinished(deleteJobService, info.jobId());
+
+                deleteJobService.removeFinishedJobs();
+                assertEquals(DeleteJobInfo.Status.COMPLETED, deleteJobService.getInfo(info.jobId()).status());
+                DeleteJobInfo orphanInfo = awaitFinished(deleteJobService, "orphan");
+                assertNull(orphanInfo.path());
+                assertEquals(1, orphanInfo.filesDeleted());
+                assertEquals(2, orphanInfo.bytesReclaimed());
+                assertFalse(Files.exists(fileSystem.getPath("/trash/orphan")));
+
+                now.set(now.get().plus(Duration.ofHours(2)));
+                deleteJobService.removeFinishedJobs();
+                assertThrows(DeleteJobNotFound.class, () -> deleteJobService.getInfo(info.jobId()));
+                assertThrows(DeleteJobNotFound.class, () -> deleteJobService.getInfo("orphan"));
+            }
+        }
+    }
+
+    private static DeleteJobInfo awaitFinished(DeleteJobService deleteJobService, String jobId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        DeleteJobInfo info;
+        while ((info = deleteJobService.getInfo(jobId)).status() == DeleteJobInfo.Status.RUNNING) {
+            assertTrue(System.currentTimeMillis() < deadline, "Delete job did not finish in time");
+            Thread.sleep(10);
+        }
+        return info;
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.gepi.filestorage.service;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileArchiverTest {
+    @Test
+    public void testWrite_tar() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+             FileArchiver archiver = createFileArchiver(fileSystem)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+            archiver.write("/dir", FileArchiver.Format.TAR, outputStream);
+
+            Map<String, String> entries = new LinkedHashMap<>();
+            try (TarArchiveInputStream tar = new TarArchiveInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+                TarArchiveEntry entry;
+                while ((entry = tar.getNextTarEntry()) != null) {
+                    entries.put(entry.getName(), new String(tar.readAllBytes()));
+                }
+            }
+            assertEquals(Map.of("a.txt", "a", "large.txt", "0123456789", "sub/b.txt", "bb"), entries);
+            assertEquals("a.txt", entries.keySet().iterator().next());
+        }
+    }
+
+    @Test
+    public void testWrite_zip() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+             FileArchiver archiver = createFileArchiver(fileSystem)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+            archiver.write("/dir/sub/b.txt", FileArchiver.Format.ZIP, outputStream);
+            archiver.write("/missing", FileArchiver.Format.ZIP, new ByteArrayOutputStream());
+
+            try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+                ZipEntry entry = zip.getNextEntry();
+                assertEquals("b.txt", entry.getName());
+                assertEquals("bb", new String(zip.readAllBytes()));
+                assertNull(zip.getNextEntry());
+            }
+        }
+    }
+
+    private static FileArchiver createFileArchiver(FileSystem fileSystem) throws IOException {
+        Path root = Files.createDirectories(fileSystem.getPath("/storage"));
+        Files.createDirectories(root.resolve("dir/sub"));
+        Files.writeString(root.resolve("dir/a.txt"), "a");
+        Files.writeString(root.resolve("dir/large.txt"), "0123456789");
+        Files.writeString(root.resolve("dir/sub/b.txt"), "bb");
+        return new FileArchiver(new FileServiceImpl(root), 2, 1, 8);
+    }
+}
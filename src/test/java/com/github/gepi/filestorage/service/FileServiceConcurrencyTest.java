@@ -0,0 +1,145 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.exception.DirectoryIsNotEmpty;
+import com.github.gepi.filestorage.exception.PathNotExist;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Hammers one storage from many threads and checks the invariants the path locks are there for.
+ */
+public class FileServiceConcurrencyTest {
+    private static final int THREADS = 16;
+    private static final int DIRECTORIES = 4;
+    private static final int SAVES_PER_THREAD = 200;
+
+    @Test
+    public void testDelete_neverRemovesConcurrentlySavedFiles(@TempDir Path root) throws Exception {
+        FileService fileService = new FileServiceImpl(root);
+        Queue<String> savedFiles = new ConcurrentLinkedQueue<>();
+        AtomicBoolean saving = new AtomicBoolean(true);
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int thread = 0; thread < THREADS / 2; thread++) {
+            int saver = thread;
+            tasks.add(() -> {
+                for (int i = 0; i < SAVES_PER_THREAD; i++) {
+                    String directory = "/dir" + i % DIRECTORIES;
+                    String fileName = "file-" + saver + "-" + i;
+                    fileService.save(stream("content"), directory, fileName);
+                    savedFiles.add(directory + "/" + fileName);
+                }
+                return null;
+            });
+        }
+        for (int thread = THREADS / 2; thread < THREADS; thread++) {
+            tasks.add(() -> {
+                while (saving.get()) {
+                    try {
+                        fileService.delete("/dir" + ThreadLocalRandom.current().nextInt(DIRECTORIES));
+                    } catch (DirectoryIsNotEmpty | PathNotExist e) {
+                        // expected most of the time
+                    }
+                }
+                return null;
+            });
+        }
+        runAll(tasks, THREADS / 2, saving);
+
+        assertEquals(THREADS / 2 * SAVES_PER_THREAD, savedFiles.size());
+        for (String savedFile : savedFiles) {
+            assertTrue(Files.isRegularFile(root.resolve(savedFile.substring(1))), savedFile + " was lost");
+        }
+    }
+
+    @Test
+    public void testLoad_neverSeesPartialContent(@TempDir Path root) throws Exception {
+        FileService fileService = new FileServiceImpl(root);
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int thread = 0; thread < THREADS / 2; thread++) {
+            tasks.add(() -> {
+                for (int i = 0; i < SAVES_PER_THREAD; i++) {
+                    int value = ThreadLocalRandom.current().nextInt(1, 100);
+                    byte[] content = new byte[value * 1000];
+                    Arrays.fill(content, (byte) value);
+                    fileService.save(new ByteArrayInputStream(content), "/same", "file.bin");
+                    if (i % 50 == 0) {
+                        fileService.hardDelete("/same/file.bin");
+                    }
+                }
+                return null;
+            });
+        }
+        for (int thread = THREADS / 2; thread < THREADS; thread++) {
+            tasks.add(() -> {
+                while (writing.get()) {
+                    byte[] content;
+                    try (InputStream inputStream = fileService.load("/same/file.bin").getInputStream()) {
+                        content = inputStream.readAllBytes();
+                    } catch (PathNotExist | FileNotFoundException e) {
+                        continue;
+                    }
+                    int value = content[0];
+                    assertEquals(value * 1000, content.length);
+                    for (byte b : content) {
+                        assertEquals(value, b);
+                    }
+                }
+                return null;
+            });
+        }
+        runAll(tasks, THREADS / 2, writing);
+
+        try (var files = Files.list(root.resolve("same"))) {
+            assertTrue(files.allMatch(file -> file.getFileName().toString().equals("file.bin")), "temporary files were left behind");
+        }
+    }
+
+    /**
+     * Runs the tasks, the first {@code producers} of which finish on their own; the others run until they are done.
+     */
+    private static void runAll(List<Callable<Void>> tasks, int producers, AtomicBoolean running) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Callable<Void> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (int i = 0; i < producers; i++) {
+                futures.get(i).get(1, TimeUnit.MINUTES);
+            }
+            running.set(false);
+            for (Future<Void> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes());
+    }
+}
@@ -1,6 +1,7 @@
 package com.github.gepi.filestorage.service;
 
 import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
 import com.github.gepi.filestorage.exception.DirectoryIsNotEmpty;
 import com.github.gepi.filestorage.exception.FileIsEmpty;
 import com.github.gepi.filestorage.exception.PathNotExist;
@@ -8,13 +9,17 @@ import com.github.gepi.filestorage.exception.ViolationBoundariesRootDirectory;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -51,6 +56,48 @@ public class FileServiceTest {
         }
     }
 
+    @Test
+    public void testSaveStream_filePresentInFS() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            FileService fileService = new FileServiceImpl(fileSystem.getPath("/"));
+            fileService.save(new ByteArrayInputStream("Content0".getBytes()), "/PATHPART1", "1.txt");
+            assertEquals("Content0", Files.readString(fileSystem.getPath("/PATHPART1/1.txt")));
+
+            fileService.save(new ByteArrayInputStream("Content1".getBytes()), "/PATHPART1", "1.txt");
+            assertEquals("Content1", Files.readString(fileSystem.getPath("/PATHPART1/1.txt")));
+
+            try (Stream<Path> files = Files.list(fileSystem.getPath("/PATHPART1"))) {
+                assertEquals(1, files.count());
+            }
+        }
+    }
+
+    @Test
+    public void testSaveStream_thrownFileIsEmpty() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            FileService fileService = new FileServiceImpl(fileSystem.getPath("/"));
+            assertThrows(FileIsEmpty.class, () -> fileService.save(new ByteArrayInputStream(new byte[0]), "/PATHPART1", "1.txt"));
+
+            try (Stream<Path> files = Files.list(fileSystem.getPath("/PATHPART1"))) {
+                assertEquals(0, files.count());
+            }
+        }
+    }
+
+    @Test
+    public void testSaveFile_fileMovedIntoPlace() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path storage = Files.createDirectories(fileSystem.getPath("/storage"));
+            Path source = Files.write(fileSystem.getPath("/staged.txt"), "Content0".getBytes());
+
+            FileService fileService = new FileServiceImpl(storage);
+            fileService.save(source, "/PATHPART1", "1.txt");
+
+            assertEquals("Content0", Files.readString(fileSystem.getPath("/storage/PATHPART1/1.txt")));
+            assertFalse(Files.exists(source));
+        }
+    }
+
     @Test
     public void testGetAbsoluteResolvedWithRoot_thrownViolationBoundariesRootDirectory() throws IOException {
         try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
@@ -98,6 +145,81 @@ public class FileServiceTest {
         }
     }
 
+    @Test
+    public void testGetFileList_parallelSameAsSequential() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            prepareFiles(fileSystem);
+
+            FileService fileService = new FileServiceImpl(fileSystem.getPath("/"));
+            FileService parallelFileService = new FileServiceImpl(fileSystem.getPath("/"), 4);
+
+            for (String path : List.of("/", "/dir1", "/dir5", "/dir1/test1.txt", "/dir100500")) {
+                for (boolean deepDive : List.of(true, false)) {
+                    assertEquals(
+                            fileService.getFileList(path, deepDive).stream().map(FileInfo::getFullFileName).sorted().toList(),
+                            parallelFileService.getFileList(path, deepDive).stream().map(FileInfo::getFullFileName).sorted().toList());
+                }
+            }
+            assertEquals(6, parallelFileService.getFileList("/", true).size());
+        }
+    }
+
+    @Test
+    public void testGetFileStream_sortedWithDepthGlobAndCursor() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            prepareFiles(fileSystem);
+
+            FileService fileService = new FileServiceImpl(fileSystem.getPath("/"));
+
+            assertEquals(List.of("dir1/dir2/test2.txt", "dir1/dir2/test22.txt", "dir1/test1.txt", "dir3/test3.txt",
+                            "dir7/dir8/test8.txt", "testroot.txt"),
+                    fullFileNames(fileService.getFileStream("/", new ListingOptions(ListingOptions.UNLIMITED_DEPTH, null, null))));
+            assertEquals(List.of("dir1/test1.txt", "dir3/test3.txt", "testroot.txt"),
+                    fullFileNames(fileService.getFileStream("/", new ListingOptions(2, null, null))));
+            assertEquals(List.of("test1.txt"),
+                    fullFileNames(fileService.getFileStream("/dir1", new ListingOptions(1, null, null))));
+            assertEquals(List.of("dir1/dir2/test22.txt"),
+                    fullFileNames(fileService.getFileStream("/", new ListingOptions(ListingOptions.UNLIMITED_DEPTH, "test2?.txt", null))));
+            assertEquals(List.of("dir1/test1.txt", "dir3/test3.txt"),
+                    fullFileNames(fileService.getFileStream("/", new ListingOptions(ListingOptions.UNLIMITED_DEPTH, "dir*/test*.txt", null))));
+
+            assertEquals(List.of("dir1/test1.txt", "dir3/test3.txt", "dir7/dir8/test8.txt", "testroot.txt"),
+                    fullFileNames(fileService.getFileStream("/", new ListingOptions(ListingOptions.UNLIMITED_DEPTH, null, "dir1/dir2/test22.txt"))));
+            assertEquals(List.of("dir7/dir8/test8.txt", "testroot.txt"),
+                    fullFileNames(fileService.getFileStream("/", new ListingOptions(ListingOptions.UNLIMITED_DEPTH, null, "dir3/vanished.txt"))));
+            assertEquals(List.of(),
+                    fullFileNames(fileService.getFileStream("/dir100500", new ListingOptions(ListingOptions.UNLIMITED_DEPTH, null, null))));
+        }
+    }
+
+    @Test
+    public void testLoad_returnResource() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            prepareFiles(fileSystem);
+
+            FileService fileService = new FileServiceImpl(fileSystem.getPath("/"));
+            Resource resource = fileService.load("/dir1/dir2/test22.txt");
+
+            assertEquals("test22.txt", resource.getFilename());
+            assertEquals("test22.txt".getBytes().length, resource.contentLength());
+            try (var inputStream = resource.getInputStream()) {
+                assertArrayEquals("test22.txt".getBytes(), inputStream.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    public void testLoad_thrownPathNotExist() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            prepareFiles(fileSystem);
+
+            FileService fileService = new FileServiceImpl(fileSystem.getPath("/"));
+
+            assertThrows(PathNotExist.class, () -> fileService.load("/dir1/absent.txt"));
+            assertThrows(PathNotExist.class, () -> fileService.load("/dir1"));
+        }
+    }
+
     @Test
     public void testDelete_resultFileDeleted() throws IOException {
         try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
@@ -141,6 +263,25 @@ public class FileServiceTest {
         }
     }
 
+    @Test
+    public void testDelete_notEmptyTreeLeftIntact() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath("/tree/a/b/c"));
+            Files.createDirectories(fileSystem.getPath("/tree/d/e"));
+            Files.createDirectories(fileSystem.getPath("/tree/f/g/h"));
+            Files.write(fileSystem.getPath("/tree/f/g/h/test.txt"), "test".getBytes());
+            FileService fileService = new FileServiceImpl(fileSystem.getPath("/"));
+
+            assertThrows(DirectoryIsNotEmpty.class, () -> fileService.delete("/tree"));
+            assertTrue(Files.exists(fileSystem.getPath("/tree/a/b/c")));
+            assertTrue(Files.exists(fileSystem.getPath("/tree/d/e")));
+
+            fileService.delete("/tree/f/g/h/test.txt");
+            fileService.delete("/tree");
+            assertFalse(Files.exists(fileSystem.getPath("/tree")));
+        }
+    }
+
     @Test
     public void testDelete_thrownPathNotExist() throws IOException {
         try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
@@ -154,6 +295,12 @@ public class FileServiceTest {
         }
     }
 
+    private static List<String> fullFileNames(Stream<FileInfo> fileInfos) {
+        try (fileInfos) {
+            return fileInfos.map(FileInfo::getFullFileName).toList();
+        }
+    }
+
     private static void prepareFiles(FileSystem fileSystem) throws IOException {
         Files.createDirectories(fileSystem.getPath("/dir1/dir2"));
         Files.createDirectory(fileSystem.getPath("/dir3"));
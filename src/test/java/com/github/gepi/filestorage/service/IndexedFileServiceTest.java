@@ -0,0 +1,166 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.google.common.jimfs.WatchServiceConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexedFileServiceTest {
+
+    @Test
+    public void testGetFileList_sameAsDiskListing() throws Exception {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            prepareFiles(fileSystem);
+
+            try (IndexedFileService fileService = startIndexedFileService(fileSystem, false)) {
+                FileService diskFileService = new FileServiceImpl(fileSystem.getPath("/"));
+
+                for (String path : List.of("/", "/dir1", "/dir1/dir2", "/dir5", "/dir1/test1.txt", "/absent")) {
+                    assertEquals(toStrings(diskFileService.getFileList(path, true)), toStrings(fileService.getFileList(path, true)));
+                    assertEquals(toStrings(diskFileService.getFileList(path, false)), toStrings(fileService.getFileList(path, false)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSaveAndDelete_indexUpdated() throws Exception {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            prepareFiles(fileSystem);
+
+            try (IndexedFileService fileService = startIndexedFileService(fileSystem, false)) {
+                fileService.save(new ByteArrayInputStream("Content0".getBytes()), "/dir9", "9.txt");
+                assertEquals(Set.of("9.txt:8"), toStrings(fileService.getFileList("/dir9", true)));
+
+                fileService.delete("/dir3/test3.txt");
+                fileService.hardDelete("/dir1");
+                assertEquals(Set.of("testroot.txt:12", "dir7/dir8/test8.txt:9", "dir9/9.txt:8"),
+                        toStrings(fileService.getFileList("/", true)));
+            }
+        }
+    }
+
+    @Test
+    public void testRebuild_changesMadeDuringTheScanKept() throws Exception {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            prepareFiles(fileSystem);
+            AtomicBoolean scanning = new AtomicBoolean(true);
+
+            try (IndexedFileService fileService = new IndexedFileService(fileSystem.getPath("/"), false) {
+                // asked for every file the scan visits
+                @Override
+                protected boolean hasStoredAttributes() {
+                    if (scanning.compareAndSet(true, false)) {
+                        try {
+                            save(new ByteArrayInputStream("Content0".getBytes()), "/dir9", "9.txt");
+                            for (String path : List.of("/testroot.txt", "/dir1", "/dir3", "/dir5", "/dir7")) {
+                                hardDelete(path);
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    return super.hasStoredAttributes();
+                }
+            }) {
+                fileService.start();
+                awaitTrue(fileService::isReady);
+
+                assertFalse(scanning.get());
+                assertEquals(Set.of("dir9/9.txt:8"), toStrings(fileService.getFileList("/", true)));
+            }
+        }
+    }
+
+    @Test
+    public void testExternalChanges_pickedUpByWatch() throws Exception {
+        Configuration configuration = Configuration.unix().toBuilder()
+                .setWatchServiceConfiguration(WatchServiceConfiguration.polling(10, TimeUnit.MILLISECONDS))
+                .build();
+        try (FileSystem fileSystem = Jimfs.newFileSystem(configuration)) {
+            prepareFiles(fileSystem);
+
+            try (IndexedFileService fileService = startIndexedFileService(fileSystem, true)) {
+                Files.createDirectories(fileSystem.getPath("/dir10/dir11"));
+                Files.write(fileSystem.getPath("/dir10/dir11/test11.txt"), "test11.txt".getBytes());
+                Files.delete(fileSystem.getPath("/dir3/test3.txt"));
+
+                awaitTrue(() -> toStrings(fileService.getFileList("/dir10", true)).equals(Set.of("dir11/test11.txt:10"))
+                        && fileService.getFileList("/dir3", true).isEmpty());
+
+                Files.write(fileSystem.getPath("/dir10/dir11/test12.txt"), "test12.txt".getBytes());
+                awaitTrue(() -> fileService.getFileList("/dir10", true).size() == 2);
+            }
+        }
+    }
+
+    @Test
+    public void testBindTo_metricsRegistered() throws Exception {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            prepareFiles(fileSystem);
+
+            try (IndexedFileService fileService = startIndexedFileService(fileSystem, false)) {
+                SimpleMeterRegistry registry = new SimpleMeterRegistry();
+                fileService.bindTo(registry);
+
+                assertEquals(6, registry.get("filestorage.index.files").gauge().value());
+                // Jimfs creates the /work directory besides the prepared ones
+                assertEquals(9, registry.get("filestorage.index.directories").gauge().value());
+                assertEquals(1, registry.get("filestorage.index.rebuilds").functionCounter().count());
+                assertTrue(registry.get("filestorage.index.staleness").timeGauge().value() >= 0);
+            }
+        }
+    }
+
+    private static IndexedFileService startIndexedFileService(FileSystem fileSystem, boolean watch) throws InterruptedException {
+        IndexedFileService fileService = new IndexedFileService(fileSystem.getPath("/"), watch);
+        fileService.start();
+        awaitTrue(fileService::isReady);
+        return fileService;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condition was not met in time");
+            Thread.sleep(10);
+        }
+    }
+
+    private static Set<String> toStrings(List<FileInfo> fileInfos) {
+        return fileInfos.stream()
+                .map(fileInfo -> fileInfo.getFullFileName() + ":" + fileInfo.getSize())
+                .collect(Collectors.toSet());
+    }
+
+    private static void prepareFiles(FileSystem fileSystem) throws IOException {
+        Files.createDirectories(fileSystem.getPath("/dir1/dir2"));
+        Files.createDirectory(fileSystem.getPath("/dir3"));
+        Files.createDirectory(fileSystem.getPath("/dir4"));
+        Files.createDirectories(fileSystem.getPath("/dir5/dir6"));
+        Files.createDirectories(fileSystem.getPath("/dir7/dir8"));
+
+        Files.write(fileSystem.getPath("/testroot.txt"), "testroot.txt".getBytes());
+        Files.write(fileSystem.getPath("/dir1/test1.txt"), "test1.txt".getBytes());
+        Files.write(fileSystem.getPath("/dir1/dir2/test2.txt"), "test2.txt".getBytes());
+        Files.write(fileSystem.getPath("/dir1/dir2/test22.txt"), "test22.txt".getBytes());
+        Files.write(fileSystem.getPath("/dir3/test3.txt"), "test3.txt".getBytes());
+        Files.write(fileSystem.getPath("/dir7/dir8/test8.txt"), "test8.txt".getBytes());
+    }
+}
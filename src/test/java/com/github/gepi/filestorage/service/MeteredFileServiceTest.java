@@ -0,0 +1,54 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import com.github.gepi.filestorage.exception.PathNotExist;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MeteredFileServiceTest {
+
+    @Test
+    public void testOperations_recorded() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            FileService fileService = new MeteredFileService(new FileServiceImpl(fileSystem.getPath("/")), registry);
+
+            fileService.save(new ByteArrayInputStream("Content0".getBytes()), "/dir1", "1.txt");
+            fileService.save(new ByteArrayInputStream("Content01".getBytes()), "/dir1", "2.txt");
+            assertEquals(2, fileService.getFileList("/dir1", true).size());
+            try (Stream<FileInfo> fileStream = fileService.getFileStream("/", new ListingOptions(ListingOptions.UNLIMITED_DEPTH, null, null))) {
+                assertEquals(2, fileStream.count());
+            }
+            Resource resource = fileService.load("/dir1/1.txt");
+            try (var inputStream = resource.getInputStream()) {
+                assertEquals("Content0", new String(inputStream.readAllBytes()));
+            }
+            assertThrows(PathNotExist.class, () -> fileService.delete("/absent"));
+
+            assertEquals(2, registry.get("filestorage.operation").tags("operation", "save", "outcome", "success").timer().count());
+            assertEquals(1, registry.get("filestorage.operation").tags("operation", "list").timer().count());
+            assertEquals(1, registry.get("filestorage.operation").tags("operation", "load").timer().count());
+            assertEquals(1, registry.get("filestorage.operation")
+                    .tags("operation", "delete", "outcome", "error", "exception", "PathNotExist").timer().count());
+            assertEquals(0, registry.get("filestorage.operation.active").tags("operation", "save").longTaskTimer().activeTasks());
+
+            assertEquals(17, registry.get("filestorage.bytes.written").summary().totalAmount());
+            assertEquals(8, registry.get("filestorage.bytes.read").summary().totalAmount());
+            assertEquals(2, registry.get("filestorage.files.listed").summary().count());
+            assertEquals(4, registry.get("filestorage.files.listed").summary().totalAmount());
+            assertTrue(Files.exists(fileSystem.getPath("/dir1/2.txt")));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.FileInfo;
+import com.github.gepi.filestorage.dto.ListingOptions;
+import com.github.gepi.filestorage.dto.RebalanceResult;
+import com.github.gepi.filestorage.exception.DirectoryIsNotEmpty;
+import com.github.gepi.filestorage.exception.PathNotExist;
+import com.github.gepi.filestorage.exception.ViolationBoundariesRootDirectory;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedFileServiceTest {
+    private static final int FILE_COUNT = 200;
+
+    @Test
+    public void testSave_filesSpreadOverShards() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+             ShardedFileService fileService = createShardedFileService(fileSystem, 3)) {
+            saveFiles(fileService);
+
+            for (int shard = 0; shard < 3; shard++) {
+                long files = countFiles(fileSystem.getPath("/disk" + shard));
+                assertTrue(files > FILE_COUNT / 10, "shard " + shard + " holds " + files + " files");
+            }
+            assertEquals(FILE_COUNT, fileService.getFileList("/", true).size());
+            assertEquals("content 7", readString(fileService, "/dir7/file7.txt"));
+            assertThrows(ViolationBoundariesRootDirectory.class, () -> fileService.load("/../disk1/dir1/file1.txt"));
+        }
+    }
+
+    @Test
+    public void testGetFileStream_mergedInListingOrder() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+             ShardedFileService fileService = createShardedFileService(fileSystem, 3)) {
+            saveFiles(fileService);
+            FileServiceImpl singleRoot = new FileServiceImpl(Files.createDirectories(fileSystem.getPath("/single")));
+            saveFiles(singleRoot);
+
+            ListingOptions options = new ListingOptions(ListingOptions.UNLIMITED_DEPTH, null, "dir3/file3.txt");
+            assertEquals(fullFileNames(singleRoot.getFileStream("/", options)), fullFileNames(fileService.getFileStream("/", options)));
+        }
+    }
+
+    @Test
+    public void testDelete_directoryOnAllShards() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+             ShardedFileService fileService = createShardedFileService(fileSystem, 3)) {
+            saveFiles(fileService);
+
+            assertThrows(DirectoryIsNotEmpty.class, () -> fileService.delete("/dir1"));
+            fileService.hardDelete("/dir1");
+            assertTrue(fileService.getFileList("/dir1", true).isEmpty());
+            assertThrows(PathNotExist.class, () -> fileService.delete("/dir1"));
+
+            fileService.delete("/dir2/file2.txt");
+            assertThrows(PathNotExist.class, () -> fileService.load("/dir2/file2.txt"));
+        }
+    }
+
+    @Test
+    public void testRebalance_afterShardAdded() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            try (ShardedFileService fileService = createShardedFileService(fileSystem, 2)) {
+                saveFiles(fileService);
+            }
+            try (ShardedFileService fileService = createShardedFileService(fileSystem, 3)) {
+                assertEquals("content 5", readString(fileService, "/dir5/file5.txt"));
+                fileService.save(stream("replaced 5"), "/dir5", "file5.txt");
+                assertEquals(FILE_COUNT, fileService.getFileList("/", true).size());
+
+                RebalanceResult result = fileService.rebalance();
+
+                assertTrue(result.filesMoved() > FILE_COUNT / 10);
+                assertEquals(FILE_COUNT, countFiles(fileSystem.getPath("/disk0")) + countFiles(fileSystem.getPath("/disk1"))
+                        + countFiles(fileSystem.getPath("/disk2")));
+                assertEquals(FILE_COUNT, fileService.getFileList("/", true).size());
+                assertEquals("replaced 5", readString(fileService, "/dir5/file5.txt"));
+                assertEquals(0, fileService.rebalance().filesMoved());
+            }
+        }
+    }
+
+    @Test
+    public void testRebalance_saveRacingTheMoveNotOverwritten() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            try (ShardedFileService fileService = createShardedFileService(fileSystem, 2)) {
+                saveFiles(fileService);
+            }
+            AtomicReference<ShardedFileService> sharded = new AtomicReference<>();
+            AtomicReference<String> raced = new AtomicReference<>();
+            List<FileServiceImpl> shards = new ArrayList<>();
+            for (int shard = 0; shard < 3; shard++) {
+                shards.add(new FileServiceImpl(Files.createDirectories(fileSystem.getPath("/disk" + shard))) {
+                    @Override
+                    protected boolean publishIfAbsent(Path file, Path targetPath) throws IOException {
+                        // a save of the file lands after the rebalance has picked it up, before it is published
+                        Path key = getRoot().relativize(targetPath);
+                        if (raced.compareAndSet(null, key.toString())) {
+                            sharded.get().save(stream("raced"), key.getParent().toString(), key.getFileName().toString());
+                        }
+                        return super.publishIfAbsent(file, targetPath);
+                    }
+                });
+            }
+            try (ShardedFileService fileService = new ShardedFileService(shards, 64)) {
+                sharded.set(fileService);
+
+                RebalanceResult result = fileService.rebalance();
+
+                assertNotNull(raced.get());
+                assertEquals("raced", readString(fileService, "/" + raced.get()));
+                assertEquals(1, result.staleCopiesRemoved());
+                assertEquals(FILE_COUNT, countFiles(fileSystem.getPath("/disk0")) + countFiles(fileSystem.getPath("/disk1"))
+                        + countFiles(fileSystem.getPath("/disk2")));
+            }
+        }
+    }
+
+    @Test
+    public void testClose_listingPoolsOfShardsShutDown() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            FileServiceImpl shard = new FileServiceImpl(Files.createDirectories(fileSystem.getPath("/disk0")), 2);
+            ShardedFileService fileService = new ShardedFileService(List.of(shard), 64);
+            saveFiles(fileService);
+            assertEquals(FILE_COUNT, shard.getFileList("/", true).size());
+
+            fileService.close();
+
+            assertThrows(RejectedExecutionException.class, () -> shard.getFileList("/", true));
+        }
+    }
+
+    private static ShardedFileService createShardedFileService(FileSystem fileSystem, int shardCount) throws IOException {
+        List<FileServiceImpl> shards = new ArrayList<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            shards.add(new FileServiceImpl(Files.createDirectories(fileSystem.getPath("/disk" + shard))));
+        }
+        return new ShardedFileService(shards, 64);
+    }
+
+    private static void saveFiles(FileService fileService) throws IOException {
+        for (int i = 0; i < FILE_COUNT; i++) {
+            fileService.save(stream("content " + i), "/dir" + i % 10, "file" + i + ".txt");
+        }
+    }
+
+    private static String readString(FileService fileService, String path) throws IOException {
+        try (InputStream inputStream = fileService.load(path).getInputStream()) {
+            return new String(inputStream.readAllBytes());
+        }
+    }
+
+    private static long countFiles(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static List<String> fullFileNames(Stream<FileInfo> files) {
+        try (files) {
+            return files.map(FileInfo::getFullFileName).toList();
+        }
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes());
+    }
+}
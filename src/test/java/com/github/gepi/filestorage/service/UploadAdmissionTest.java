@@ -0,0 +1,86 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.exception.InsufficientStorage;
+import com.github.gepi.filestorage.exception.OperationLimitExceeded;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UploadAdmissionTest {
+    private static final int MEGABYTE = 1024 * 1024;
+
+    @Test
+    public void testSave_rejectedUpFrontWhenDeclaredSizeDoesNotFit() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix().toBuilder().setMaxSize(4L * MEGABYTE).build())) {
+            Path root = Files.createDirectories(fileSystem.getPath("/root"));
+            UploadAdmission admission = new UploadAdmission(root, 0, 2L * MEGABYTE);
+            FileService fileService = new FileServiceImpl(root, 0, null, false, admission);
+
+            MockMultipartFile tooLarge = new MockMultipartFile("file", new byte[3 * MEGABYTE]);
+            assertThrows(InsufficientStorage.class, () -> fileService.save(tooLarge, "/dir", "large.bin"));
+            assertFalse(Files.exists(root.resolve("dir")), "a rejected upload created its directory");
+
+            fileService.save(new MockMultipartFile("file", new byte[MEGABYTE]), "/dir", "small.bin");
+            assertEquals(MEGABYTE, Files.size(root.resolve("dir/small.bin")));
+            assertEquals(0, admission.getOutstanding());
+        }
+    }
+
+    @Test
+    public void testSave_streamOfDeclaredSizeRejectedBeforeItIsRead() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix().toBuilder().setMaxSize(4L * MEGABYTE).build())) {
+            Path root = Files.createDirectories(fileSystem.getPath("/root"));
+            UploadAdmission admission = new UploadAdmission(root, 0, 2L * MEGABYTE);
+            FileService fileService = new MeteredFileService(new FileServiceImpl(root, 0, null, false, admission), new SimpleMeterRegistry());
+            ByteArrayInputStream content = new ByteArrayInputStream(new byte[3 * MEGABYTE]);
+
+            assertThrows(InsufficientStorage.class, () -> fileService.save(content, 3L * MEGABYTE, "/dir", "large.bin"));
+            assertEquals(3 * MEGABYTE, content.available(), "the rejected upload was read");
+            assertFalse(Files.exists(root.resolve("dir")), "a rejected upload created its directory");
+            assertEquals(0, admission.getOutstanding());
+        }
+    }
+
+    @Test
+    public void testSave_streamOfUnknownSizeStopsWhenSpaceRunsOut() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix().toBuilder().setMaxSize(4L * MEGABYTE).build())) {
+            Path root = Files.createDirectories(fileSystem.getPath("/root"));
+            UploadAdmission admission = new UploadAdmission(root, 0, 2L * MEGABYTE);
+            FileService fileService = new FileServiceImpl(root, 0, null, false, admission);
+
+            assertThrows(InsufficientStorage.class,
+                    () -> fileService.save(new ByteArrayInputStream(new byte[3 * MEGABYTE]), "/dir", "large.bin"));
+            try (Stream<Path> files = Files.list(root.resolve("dir"))) {
+                assertEquals(0, files.count(), "the partially written upload was left behind");
+            }
+            assertEquals(0, admission.getOutstanding());
+        }
+    }
+
+    @Test
+    public void testSave_rejectedWhileAllWritersBusy() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path root = Files.createDirectories(fileSystem.getPath("/root"));
+            UploadAdmission admission = new UploadAdmission(root, 1, 0);
+            FileService fileService = new FileServiceImpl(root, 0, null, false, admission);
+
+            try (UploadAdmission.Ticket ignored = admission.admit(-1)) {
+                assertThrows(OperationLimitExceeded.class,
+                        () -> fileService.save(new ByteArrayInputStream("content".getBytes()), "/", "file.txt"));
+            }
+            fileService.save(new ByteArrayInputStream("content".getBytes()), "/", "file.txt");
+            assertEquals("content", Files.readString(root.resolve("file.txt")));
+        }
+    }
+}
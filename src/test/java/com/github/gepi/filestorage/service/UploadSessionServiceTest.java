@@ -0,0 +1,179 @@
+package com.github.gepi.filestorage.service;
+
+import com.github.gepi.filestorage.dto.UploadSessionInfo;
+import com.github.gepi.filestorage.exception.OperationLimitExceeded;
+import com.github.gepi.filestorage.exception.UploadIsIncomplete;
+import com.github.gepi.filestorage.exception.UploadPartIsInvalid;
+import com.github.gepi.filestorage.exception.UploadSessionNotFound;
+import com.github.gepi.filestorage.exception.ViolationBoundariesRootDirectory;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UploadSessionServiceTest {
+
+    @Test
+    public void testComplete_partsAssembledInFS() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            UploadSessionService uploadSessionService = createUploadSessionService(fileSystem, Duration.ofHours(1));
+
+            UploadSessionInfo info = uploadSessionService.initiate("/dir1", "1.txt", 4);
+            uploadSessionService.uploadPart(info.uploadId(), 3, stream("89"));
+            uploadSessionService.uploadPart(info.uploadId(), 1, stream("0123"));
+            assertThrows(UploadIsIncomplete.class, () -> uploadSessionService.complete(info.uploadId()));
+
+            uploadSessionService.uploadPart(info.uploadId(), 2, stream("4567"));
+            assertEquals(new TreeSet<>(List.of(1, 2, 3)), uploadSessionService.getInfo(info.uploadId()).receivedParts());
+
+            uploadSessionService.complete(info.uploadId());
+            assertEquals("0123456789", Files.readString(fileSystem.getPath("/storage/dir1/1.txt")));
+            assertFalse(Files.exists(fileSystem.getPath("/staging", info.uploadId())));
+            assertThrows(UploadSessionNotFound.class, () -> uploadSessionService.getInfo(info.uploadId()));
+        }
+    }
+
+    @Test
+    public void testUploadPart_retransmittedPartReplaced() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            UploadSessionService uploadSessionService = createUploadSessionService(fileSystem, Duration.ofHours(1));
+
+            UploadSessionInfo info = uploadSessionService.initiate("/", "1.txt", 4);
+            uploadSessionService.uploadPart(info.uploadId(), 1, stream("0123"));
+            uploadSessionService.uploadPart(info.uploadId(), 2, stream("456"));
+            uploadSessionService.uploadPart(info.uploadId(), 2, stream("45"));
+            uploadSessionService.complete(info.uploadId());
+
+            assertEquals("012345", Files.readString(fileSystem.getPath("/storage/1.txt")));
+        }
+    }
+
+    @Test
+    public void testUploadPart_thrownUploadPartIsInvalid() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            UploadSessionService uploadSessionService = createUploadSessionService(fileSystem, Duration.ofHours(1));
+
+            UploadSessionInfo info = uploadSessionService.initiate("/", "1.txt", 4);
+            assertThrows(UploadPartIsInvalid.class, () -> uploadSessionService.uploadPart(info.uploadId(), 1, stream("01234")));
+            assertThrows(UploadPartIsInvalid.class, () -> uploadSessionService.uploadPart(info.uploadId(), 0, stream("0123")));
+            assertThrows(UploadPartIsInvalid.class, () -> uploadSessionService.uploadPart(info.uploadId(), 1, stream("")));
+            assertTrue(uploadSessionService.getInfo(info.uploadId()).receivedParts().isEmpty());
+        }
+    }
+
+    @Test
+    public void testAbortAndRemoveStaleSessions_stagingDeleted() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Files.createDirectories(fileSystem.getPath("/storage"));
+            AtomicReference<Instant> now = new AtomicReference<>(Instant.now());
+            UploadSessionService uploadSessionService = new UploadSessionServiceImpl(
+                    new FileServiceImpl(fileSystem.getPath("/storage")), fileSystem.getPath("/staging"), Duration.ofHours(1), null,
+                    new Clock() {
+                        @Override
+                        public ZoneId getZone() {
+                            return ZoneOffset.UTC;
+                        }
+
+                        @Override
+                        public Clock withZone(ZoneId zone) {
+                            return this;
+                        }
+
+                        @Override
+                        public Instant instant() {
+                            return now.get();
+                        }
+                    });
+
+            UploadSessionInfo aborted = uploadSessionService.initiate("/", "1.txt", 4);
+            uploadSessionService.abort(aborted.uploadId());
+            assertFalse(Files.exists(fileSystem.getPath("/staging", aborted.uploadId())));
+
+            UploadSessionInfo stale = uploadSessionService.initiate("/", "2.txt", 4);
+            Path orphan = Files.createDirectories(fileSystem.getPath("/staging/orphan"));
+            Files.setLastModifiedTime(orphan, FileTime.from(now.get().minus(Duration.ofHours(2))));
+            uploadSessionService.removeStaleSessions();
+            assertNotNull(uploadSessionService.getInfo(stale.uploadId()));
+            assertFalse(Files.exists(orphan));
+
+            now.set(now.get().plus(Duration.ofHours(2)));
+            uploadSessionService.removeStaleSessions();
+
+            assertThrows(UploadSessionNotFound.class, () -> uploadSessionService.getInfo(stale.uploadId()));
+            assertFalse(Files.exists(fileSystem.getPath("/staging", stale.uploadId())));
+        }
+    }
+
+    @Test
+    public void testInitiate_destinationOutsideRootRejected() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            UploadSessionService uploadSessionService = createUploadSessionService(fileSystem, Duration.ofHours(1));
+
+            assertThrows(ViolationBoundariesRootDirectory.class, () -> uploadSessionService.initiate("/dir/../..", "1.txt", 4));
+            assertThrows(ViolationBoundariesRootDirectory.class, () -> uploadSessionService.initiate("/dir", "../../1.txt", 4));
+            assertFalse(Files.exists(fileSystem.getPath("/staging")));
+        }
+    }
+
+    @Test
+    public void testUploadPart_admittedIntoStaging() throws IOException {
+        try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+            Path staging = Files.createDirectories(fileSystem.getPath("/staging"));
+            UploadAdmission admission = new UploadAdmission(staging, 1, 0);
+            UploadSessionService uploadSessionService = new UploadSessionServiceImpl(
+                    new FileServiceImpl(Files.createDirectories(fileSystem.getPath("/storage"))), staging, Duration.ofHours(1), admission);
+            UploadSessionInfo info = uploadSessionService.initiate("/", "1.txt", 4);
+
+            try (UploadAdmission.Ticket ignored = admission.admit(-1)) {
+                assertThrows(OperationLimitExceeded.class, () -> uploadSessionService.uploadPart(info.uploadId(), 1, stream("0123")));
+            }
+            uploadSessionService.uploadPart(info.uploadId(), 1, stream("0123"));
+            uploadSessionService.complete(info.uploadId());
+            assertEquals("0123", Files.readString(fileSystem.getPath("/storage/1.txt")));
+            assertEquals(0, admission.getOutstanding());
+        }
+    }
+
+    @Test
+    public void testUploadPart_shortLastPartAdmittedAtItsSize() throws IOException {
+        Configuration configuration = Configuration.unix().toBuilder().setMaxSize(4L * 1024 * 1024).build();
+        try (FileSystem fileSystem = Jimfs.newFileSystem(configuration)) {
+            Path staging = Files.createDirectories(fileSystem.getPath("/staging"));
+            UploadAdmission admission = new UploadAdmission(staging, 0, 0);
+            UploadSessionService uploadSessionService = new UploadSessionServiceImpl(
+                    new FileServiceImpl(Files.createDirectories(fileSystem.getPath("/storage"))), staging, Duration.ofHours(1), admission);
+            // parts larger than the whole disk
+            UploadSessionInfo info = uploadSessionService.initiate("/", "1.txt", 64L * 1024 * 1024);
+
+            uploadSessionService.uploadPart(info.uploadId(), 1, stream("0123"));
+            uploadSessionService.complete(info.uploadId());
+            assertEquals("0123", Files.readString(fileSystem.getPath("/storage/1.txt")));
+            assertEquals(0, admission.getOutstanding());
+        }
+    }
+
+    private static UploadSessionService createUploadSessionService(FileSystem fileSystem, Duration sessionTtl) throws IOException {
+        FileService fileService = new FileServiceImpl(Files.createDirectories(fileSystem.getPath("/storage")));
+        return new UploadSessionServiceImpl(fileService, fileSystem.getPath("/staging"), sessionTtl);
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes());
+    }
+}